@@ -1,7 +1,11 @@
 package enigma;
 
+import static enigma.EnigmaException.*;
+
 /** An alphabet of encodable characters.  Provides a mapping from characters
- *  to and from indices into the alphabet.
+ *  to and from indices into the alphabet.  Characters outside the Basic
+ *  Multilingual Plane can only be handled as code points, through the
+ *  codePoint methods; the char methods cover the rest.
  *  @author P. N. Hilfinger */
 abstract class Alphabet {
 
@@ -19,4 +23,34 @@ abstract class Alphabet {
      *  the alphabet. This is the inverse of toChar(). */
     abstract int toInt(char ch);
 
+    /** Returns true if the code point CP is in this alphabet. */
+    boolean containsCodePoint(int cp) {
+        return cp >= 0 && cp <= Character.MAX_VALUE && contains((char) cp);
+    }
+
+    /** Returns the code point of character number INDEX in the alphabet,
+     *  where 0 <= INDEX < size(). */
+    int toCodePoint(int index) {
+        return toChar(index);
+    }
+
+    /** Returns the index of code point CP, which must be in the
+     *  alphabet.  This is the inverse of toCodePoint(). */
+    int indexOfCodePoint(int cp) {
+        if (!containsCodePoint(cp)) {
+            throw error("Character is not in alphabet");
+        }
+        return toInt((char) cp);
+    }
+
+    /** Returns the char with code point CP, which must be in the Basic
+     *  Multilingual Plane. */
+    static char checkedChar(int cp) {
+        if (cp < 0 || cp > Character.MAX_VALUE) {
+            throw error("character U+%X is not a single char; "
+                        + "use code points", cp);
+        }
+        return (char) cp;
+    }
+
 }
@@ -1,58 +1,150 @@
 package enigma;
+
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /** An Alphabet consisting of the Unicode characters in a certain range (not in
- *  order).
+ *  order).  Lookups by character use a dense table when the code points
+ *  are clustered, as for a block of CJK ideographs, and an
+ *  open-addressing hash otherwise, so they cost the same for alphabets of
+ *  any size.
  *  @author James (Dayuan) Tang
  */
 class ArbitraryChar extends Alphabet {
 
-    /** A String that stores the alphabet.*/
-    private String _arbAlphabet;
-
-    /** An alphabet consisting of characters in the
-     * string _arbAlphabet.
+    /** An alphabet consisting of the characters (code points) in the
+     * string arbAlphabet, in order.
      * @param arbAlphabet input string*/
     ArbitraryChar(String arbAlphabet) {
-        _arbAlphabet = arbAlphabet;
-        for (int i = 0; i < _arbAlphabet.length(); i++) {
-            if (_arbAlphabet.charAt(i) == '('
-                    || _arbAlphabet.charAt(i) == ')'
-                    || _arbAlphabet.charAt(i) == '-'
-                    || _arbAlphabet.charAt(i) == '*'
-                    || (_arbAlphabet.charAt(i) >= 'a'
-                            && _arbAlphabet.charAt(i) <= 'z')) {
+        _codePoints = arbAlphabet.codePoints().toArray();
+        if (_codePoints.length == 0) {
+            throw error("Alphabet cannot be empty");
+        }
+        int min = Integer.MAX_VALUE, max = 0;
+        for (int cp : _codePoints) {
+            if (cp == '(' || cp == ')' || cp == '-' || cp == '*'
+                    || (cp >= 'a' && cp <= 'z')) {
                 throw error("Alphabet cannot contain "
                         + "(, ), -, * or lower case letters");
             }
+            min = Math.min(min, cp);
+            max = Math.max(max, cp);
+        }
+        int n = _codePoints.length;
+        if ((long) max - min < DENSE_FACTOR * (long) n + DENSE_SLACK) {
+            _base = min;
+            _dense = new int[max - min + 1];
+            Arrays.fill(_dense, -1);
+        } else {
+            int capacity = Integer.highestOneBit(2 * n) << 1;
+            _keys = new int[capacity];
+            _values = new int[capacity];
+            Arrays.fill(_keys, -1);
+        }
+        for (int i = 0; i < n; i += 1) {
+            put(_codePoints[i], i);
         }
     }
 
     @Override
     int size() {
-        return _arbAlphabet.length();
+        return _codePoints.length;
     }
 
     @Override
     boolean contains(char ch) {
-        return _arbAlphabet.indexOf(ch) != -1;
+        return lookup(ch) >= 0;
     }
 
     @Override
     char toChar(int index) {
-        if (index >= size()) {
+        return checkedChar(toCodePoint(index));
+    }
+
+    @Override
+    int toInt(char ch) {
+        return indexOfCodePoint(ch);
+    }
+
+    @Override
+    boolean containsCodePoint(int cp) {
+        return lookup(cp) >= 0;
+    }
+
+    @Override
+    int toCodePoint(int index) {
+        if (index < 0 || index >= size()) {
             throw error("Character index out of range");
         }
-        return _arbAlphabet.charAt(index);
+        return _codePoints[index];
     }
 
     @Override
-    int toInt(char ch) {
-        if (!contains(ch)) {
+    int indexOfCodePoint(int cp) {
+        int index = lookup(cp);
+        if (index < 0) {
             throw error("Character is not in alphabet");
         }
-        return _arbAlphabet.indexOf(ch);
+        return index;
     }
 
+    /** Record that code point CP has index INDEX. */
+    private void put(int cp, int index) {
+        if (lookup(cp) >= 0) {
+            throw error("Alphabet contains %s twice",
+                        new String(Character.toChars(cp)));
+        }
+        if (_dense != null) {
+            _dense[cp - _base] = index;
+            return;
+        }
+        int mask = _keys.length - 1;
+        int h = hash(cp) & mask;
+        while (_keys[h] >= 0) {
+            h = (h + 1) & mask;
+        }
+        _keys[h] = cp;
+        _values[h] = index;
+    }
+
+    /** Return the index of code point CP, or -1 if it is not in me. */
+    private int lookup(int cp) {
+        if (_dense != null) {
+            int k = cp - _base;
+            return k >= 0 && k < _dense.length ? _dense[k] : -1;
+        }
+        int mask = _keys.length - 1;
+        for (int h = hash(cp) & mask; _keys[h] >= 0; h = (h + 1) & mask) {
+            if (_keys[h] == cp) {
+                return _values[h];
+            }
+        }
+        return -1;
+    }
+
+    /** Return a well-mixed hash of CP. */
+    private static int hash(int cp) {
+        int h = cp * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** A dense table is used when the code points span fewer than
+     *  DENSE_FACTOR * size() + DENSE_SLACK values. */
+    private static final int DENSE_FACTOR = 4, DENSE_SLACK = 1024;
+
+    /** The code points of the alphabet, in order. */
+    private final int[] _codePoints;
+
+    /** For clustered alphabets, _dense[CP - _base] is the index of CP,
+     *  or -1; otherwise null. */
+    private int[] _dense;
+
+    /** Smallest code point in the alphabet when _dense is used. */
+    private int _base;
+
+    /** For scattered alphabets, an open-addressing table from code
+     *  points (_keys, -1 if empty) to indices (_values). */
+    private int[] _keys, _values;
 
 }
@@ -0,0 +1,701 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** A container file for the output of Main, cut into blocks that can be
+ *  enciphered, deciphered and checked independently.  Each block holds
+ *  some whole output lines of one section, and its header gives the
+ *  settings line of that section (by reference to a settings record
+ *  earlier in the file), the rotor positions before its first
+ *  character, and the number of characters it enciphers; every record
+ *  carries a CRC32.  The positions of later blocks are found by
+ *  Machine.advanceBy without enciphering earlier ones, so blocks are
+ *  enciphered and deciphered concurrently, and a damaged record is
+ *  skipped without disturbing its neighbours.  Reading and writing keep
+ *  only a bounded number of blocks in memory.
+ *
+ *  File layout: MAGIC, VERSION, then records, each SYNC, a type byte,
+ *  the body length, the body, and the CRC32 of type, length and body.
+ *  A settings record's body is its id and the settings line in UTF-8.
+ *  A block's body is the id of its settings (-1 before any), the
+ *  number of rotor slots and their positions, the number of
+ *  characters, and its lines, each as a length and UTF-8 bytes.
+ *  @author James (Dayuan) Tang
+ */
+public final class BlockContainer {
+
+    /** Run the conversion described by ARGS, one of
+     *    encode CONFIG INPUT CONTAINER
+     *        Apply CONFIG to INPUT, in the format Main reads, and write
+     *        the results to CONTAINER.
+     *    decode CONFIG CONTAINER OUTPUT
+     *        Apply CONFIG to the blocks of CONTAINER, recovering what was
+     *        encoded, and print it as Main would.
+     *    text CONTAINER OUTPUT
+     *        Print the lines stored in CONTAINER as Main prints its
+     *        output: exactly what Main would have printed for the input
+     *        encoded.
+     *  among which these options may appear:
+     *    --block=N     Begin a new block after about N characters
+     *                  (default 65536).
+     *    --workers=N   Encipher on N threads (default: one per available
+     *                  processor).
+     *  Damaged blocks are reported on the standard error and skipped.
+     *  Exits normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            run(args);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Perform the conversion given by ARGS (see main). */
+    private static void run(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        ArrayList<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                files.add(arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            if (!OPTIONS.contains(name)) {
+                throw error("unknown option --%s", name);
+            }
+            options.put(name, eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        String mode = files.isEmpty() ? "" : files.remove(0);
+        int workers = intOption(options, "workers",
+                                Runtime.getRuntime().availableProcessors());
+        int blockSize = intOption(options, "block", DEFAULT_BLOCK);
+        Charset charset = Charset.defaultCharset();
+        int skipped = 0;
+        if (mode.equals("text") && files.size() == 2) {
+            try (InputStream in = open(files.get(0));
+                 OutputStream out = create(files.get(1))) {
+                skipped = text(in, new OutputFormatter(out, charset));
+            } catch (IOException excp) {
+                throw error("could not write %s", files.get(1));
+            }
+        } else if ((mode.equals("encode") || mode.equals("decode"))
+                   && files.size() == 3) {
+            Configuration config = Configuration.parse(read(files.get(0)));
+            BlockContainer container = new BlockContainer(config, workers);
+            try (InputStream in = open(files.get(1));
+                 OutputStream out = create(files.get(2))) {
+                if (mode.equals("encode")) {
+                    container.encode(in, out, blockSize);
+                } else {
+                    skipped = container.decode(in,
+                        new OutputFormatter(out, charset));
+                }
+            } catch (IOException excp) {
+                throw error("could not write %s", files.get(2));
+            }
+        } else {
+            throw error("usage: BlockContainer [options] encode CONFIG INPUT "
+                        + "CONTAINER | decode CONFIG CONTAINER OUTPUT | "
+                        + "text CONTAINER OUTPUT");
+        }
+        if (skipped > 0) {
+            System.err.printf("skipped %d damaged record(s)%n", skipped);
+        }
+    }
+
+    /** A converter applying CONFIG on WORKERS threads. */
+    BlockContainer(Configuration config, int workers) {
+        if (workers <= 0) {
+            throw error("need at least one worker");
+        }
+        _config = config;
+        _workers = workers;
+        _pool = new MachinePool(workers, config::newMachine);
+    }
+
+    /** Apply my configuration to the lines of INPUT, in the format Main
+     *  reads, writing the results to OUT as a container whose blocks end
+     *  after the first line that brings them to BLOCKSIZE characters or
+     *  more. */
+    void encode(InputStream input, OutputStream out, int blockSize) {
+        LineReader lines = new LineReader(Channels.newChannel(input),
+                                          Charset.defaultCharset(), 0);
+        Machine stepper = _config.newMachine();
+        InputNormalizer normalizer = stepper.normalizer();
+        Writer writer = new Writer(out);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        ExecutorService exec = Executors.newFixedThreadPool(_workers);
+        try {
+            String settings = null;
+            int settingsId = -1;
+            ArrayList<String> block = new ArrayList<>();
+            int[] start = new int[0];
+            long length = 0;
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.length() > 0 && line.charAt(0) == '*') {
+                    submitBlock(exec, pending, writer, settings, settingsId,
+                                start, length, block);
+                    block = new ArrayList<>();
+                    length = 0;
+                    stepper.setUp(line);
+                    stepper.checkRotors();
+                    settings = line;
+                    settingsId += 1;
+                    byte[] record = writer.settingsRecord(settingsId, line);
+                    enqueue(pending, writer,
+                            CompletableFuture.completedFuture(record));
+                    continue;
+                }
+                if (settings == null && !blank(line)) {
+                    throw error("Missing setting");
+                }
+                if (block.isEmpty() && settings != null) {
+                    start = stepper.positions();
+                }
+                long n = count(normalizer, line);
+                if (settings != null) {
+                    stepper.advanceBy(n);
+                }
+                block.add(line);
+                length += n;
+                if (length >= blockSize) {
+                    submitBlock(exec, pending, writer, settings, settingsId,
+                                start, length, block);
+                    block = new ArrayList<>();
+                    length = 0;
+                }
+            }
+            submitBlock(exec, pending, writer, settings, settingsId, start,
+                        length, block);
+            if (settings == null) {
+                throw error("Missing setting");
+            }
+            while (!pending.isEmpty()) {
+                writer.write(next(pending));
+            }
+            writer.flush();
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    /** Queue for enciphering, on EXEC, the block of LINES, LENGTH
+     *  characters under SETTINGS (with id SETTINGSID, or null and -1 if
+     *  none) from rotor positions START, writing finished records to
+     *  WRITER in order as PENDING fills up. */
+    private void submitBlock(ExecutorService exec,
+                             ArrayDeque<Future<byte[]>> pending,
+                             Writer writer, String settings, int settingsId,
+                             int[] start, long length, List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        enqueue(pending, writer, exec.submit(() -> {
+            List<String> result = convert(settings, start, length, lines);
+            return writer.blockRecord(settingsId, start, length, result);
+        }));
+    }
+
+    /** Add RECORD to PENDING, first writing the oldest pending record to
+     *  WRITER if too many are outstanding. */
+    private void enqueue(ArrayDeque<Future<byte[]>> pending, Writer writer,
+                         Future<byte[]> record) {
+        if (pending.size() >= MAX_PENDING * _workers) {
+            writer.write(next(pending));
+        }
+        pending.add(record);
+    }
+
+    /** Read the container IN, apply my configuration to each intact
+     *  block, and print the results on OUT.  Damaged records are skipped;
+     *  return how many. */
+    int decode(InputStream in, OutputFormatter out) {
+        Reader reader = new Reader(in);
+        HashMap<Integer, String> settings = new HashMap<>();
+        ArrayDeque<Future<List<String>>> pending = new ArrayDeque<>();
+        ExecutorService exec = Executors.newFixedThreadPool(_workers);
+        try {
+            Block block;
+            while ((block = reader.next(settings)) != null) {
+                if (pending.size() >= MAX_PENDING * _workers) {
+                    print(next(pending), out);
+                }
+                Block b = block;
+                pending.add(exec.submit(() -> convert(b.settings, b.positions,
+                                                      b.length, b.lines)));
+            }
+            while (!pending.isEmpty()) {
+                print(next(pending), out);
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        return reader.skipped();
+    }
+
+    /** Print the lines stored in the container IN on OUT.  Damaged
+     *  records are skipped; return how many. */
+    static int text(InputStream in, OutputFormatter out) {
+        Reader reader = new Reader(in);
+        HashMap<Integer, String> settings = new HashMap<>();
+        Block block;
+        while ((block = reader.next(settings)) != null) {
+            print(block.lines, out);
+        }
+        return reader.skipped();
+    }
+
+    /** Return the result of applying my configuration, under SETTINGS
+     *  (null if none) from rotor positions START, to LINES, which must
+     *  hold LENGTH characters to encipher. */
+    private List<String> convert(String settings, int[] start, long length,
+                                 List<String> lines) {
+        ArrayList<String> result = new ArrayList<>(lines.size());
+        long converted = 0;
+        if (settings == null) {
+            for (int i = 0; i < lines.size(); i += 1) {
+                result.add("");
+            }
+        } else {
+            Machine m = _pool.borrow(settings);
+            try {
+                m.setPositions(start);
+                for (String line : lines) {
+                    converted += count(m.normalizer(), line);
+                    result.add(m.convert(line));
+                }
+            } finally {
+                _pool.release(m);
+            }
+        }
+        if (converted != length) {
+            throw error("block of %d characters enciphered %d", length,
+                        converted);
+        }
+        return result;
+    }
+
+    /** Print LINES on OUT. */
+    private static void print(List<String> lines, OutputFormatter out) {
+        for (String line : lines) {
+            out.printLine(line);
+        }
+    }
+
+    /** Remove and return the result of the oldest of PENDING. */
+    private static <T> T next(ArrayDeque<Future<T>> pending) {
+        try {
+            return pending.remove().get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("conversion interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw error("conversion failed: %s", cause);
+        }
+    }
+
+    /** Return the number of characters of LINE that NORMALIZER maps to
+     *  alphabet indices, rejecting the line as a Machine would. */
+    private static long count(InputNormalizer normalizer, String line) {
+        long n = 0;
+        for (int i = 0; i < line.length(); ) {
+            int cp = line.codePointAt(i);
+            i += Character.charCount(cp);
+            if (normalizer.index(cp) >= 0) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return true iff LINE is all white space. */
+    private static boolean blank(String line) {
+        return line.chars().allMatch(Character::isWhitespace);
+    }
+
+    /** A block read from a container. */
+    static class Block {
+        /** Settings line of the block, or null if it precedes all. */
+        final String settings;
+        /** Rotor positions before the block's first character. */
+        final int[] positions;
+        /** Number of characters enciphered in the block. */
+        final long length;
+        /** Lines of the block. */
+        final List<String> lines;
+
+        /** A block of LINES, LENGTH characters under SETTINGS from
+         *  POSITIONS. */
+        Block(String settings, int[] positions, long length,
+              List<String> lines) {
+            this.settings = settings;
+            this.positions = positions;
+            this.length = length;
+            this.lines = lines;
+        }
+    }
+
+    /** Writes records of a container to a stream.  Records are built
+     *  (possibly concurrently) by settingsRecord and blockRecord, and
+     *  written in order by write. */
+    static class Writer {
+
+        /** A writer of a new container on OUT.  Records are written to
+         *  OUT whole, so I add no buffering of my own. */
+        Writer(OutputStream out) {
+            _out = new DataOutputStream(out);
+            try {
+                _out.writeInt(MAGIC);
+                _out.writeShort(VERSION);
+            } catch (IOException excp) {
+                throw error("could not write container");
+            }
+        }
+
+        /** Return the record defining settings line LINE as number ID. */
+        byte[] settingsRecord(int id, String line) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream body = new DataOutputStream(bytes);
+            try {
+                body.writeInt(id);
+                body.write(line.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return record(SETTINGS, bytes.toByteArray());
+        }
+
+        /** Return the record of a block of LINES, LENGTH characters under
+         *  settings number SETTINGSID from rotor positions POSITIONS. */
+        byte[] blockRecord(int settingsId, int[] positions, long length,
+                           List<String> lines) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream body = new DataOutputStream(bytes);
+            try {
+                body.writeInt(settingsId);
+                body.writeShort(positions.length);
+                for (int p : positions) {
+                    body.writeInt(p);
+                }
+                body.writeLong(length);
+                body.writeInt(lines.size());
+                for (String line : lines) {
+                    byte[] utf = line.getBytes(StandardCharsets.UTF_8);
+                    body.writeInt(utf.length);
+                    body.write(utf);
+                }
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            if (bytes.size() > MAX_RECORD) {
+                throw error("block too large for container");
+            }
+            return record(BLOCK, bytes.toByteArray());
+        }
+
+        /** Return a record of type TYPE with body BODY. */
+        private static byte[] record(int type, byte[] body) {
+            ByteArrayOutputStream bytes =
+                new ByteArrayOutputStream(body.length + RECORD_OVERHEAD);
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(SYNC);
+                out.writeByte(type);
+                out.writeInt(body.length);
+                out.write(body);
+                CRC32 crc = new CRC32();
+                crc.update(bytes.toByteArray(), SYNC_LENGTH,
+                           bytes.size() - SYNC_LENGTH);
+                out.writeInt((int) crc.getValue());
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return bytes.toByteArray();
+        }
+
+        /** Append RECORD to my container. */
+        void write(byte[] record) {
+            try {
+                _out.write(record);
+            } catch (IOException excp) {
+                throw error("could not write container");
+            }
+        }
+
+        /** Flush my container to its stream. */
+        void flush() {
+            try {
+                _out.flush();
+            } catch (IOException excp) {
+                throw error("could not write container");
+            }
+        }
+
+        /** Destination of the container. */
+        private final DataOutputStream _out;
+    }
+
+    /** Reads blocks of a container from a stream, skipping damaged
+     *  records. */
+    static class Reader {
+
+        /** A reader of the container on IN. */
+        Reader(InputStream in) {
+            _in = new DataInputStream(new BufferedInputStream(in));
+            try {
+                if (_in.readInt() != MAGIC) {
+                    throw error("not a block container");
+                } else if (_in.readShort() != VERSION) {
+                    throw error("unsupported container version");
+                }
+            } catch (IOException excp) {
+                throw error("not a block container");
+            }
+        }
+
+        /** Return the number of damaged records skipped so far. */
+        int skipped() {
+            return _skipped;
+        }
+
+        /** Return the next intact block whose settings record is intact,
+         *  or null at the end of the container.  SETTINGS maps the ids of
+         *  settings records read so far to their lines, and is updated. */
+        Block next(HashMap<Integer, String> settings) {
+            try {
+                while (seekSync()) {
+                    _in.mark(MAX_RECORD + RECORD_OVERHEAD);
+                    byte[] body = readRecord();
+                    if (body == null) {
+                        _in.reset();
+                        _skipped += 1;
+                        continue;
+                    }
+                    DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(body));
+                    if (_type == SETTINGS) {
+                        int id = in.readInt();
+                        settings.put(id, new String(body, SETTINGS_ID,
+                            body.length - SETTINGS_ID,
+                            StandardCharsets.UTF_8));
+                        continue;
+                    }
+                    Block block = readBlock(in, settings);
+                    if (block != null) {
+                        return block;
+                    }
+                    _skipped += 1;
+                }
+                return null;
+            } catch (IOException excp) {
+                throw error("could not read container");
+            }
+        }
+
+        /** Return the block whose body is on IN, or null if its settings
+         *  are unknown.  SETTINGS maps settings ids to lines. */
+        private Block readBlock(DataInputStream in,
+                                HashMap<Integer, String> settings)
+            throws IOException {
+            int id = in.readInt();
+            int[] positions = new int[in.readShort()];
+            for (int i = 0; i < positions.length; i += 1) {
+                positions[i] = in.readInt();
+            }
+            long length = in.readLong();
+            int n = in.readInt();
+            ArrayList<String> lines = new ArrayList<>(n);
+            for (int i = 0; i < n; i += 1) {
+                byte[] utf = new byte[in.readInt()];
+                in.readFully(utf);
+                lines.add(new String(utf, StandardCharsets.UTF_8));
+            }
+            String line = settings.get(id);
+            if (id >= 0 && line == null) {
+                return null;
+            }
+            return new Block(line, positions, length, lines);
+        }
+
+        /** Skip to just past the next SYNC, returning false if the
+         *  container ends first. */
+        private boolean seekSync() throws IOException {
+            int window = 0;
+            for (int k = 0; k < SYNC_LENGTH || window != SYNC; k += 1) {
+                int b = _in.read();
+                if (b < 0) {
+                    return false;
+                }
+                window = (window << Byte.SIZE) | b;
+            }
+            return true;
+        }
+
+        /** Read the rest of a record whose SYNC has been read, setting
+         *  _type and returning its body, or null if it is damaged or
+         *  truncated. */
+        private byte[] readRecord() throws IOException {
+            try {
+                int type = _in.readUnsignedByte();
+                int length = _in.readInt();
+                if ((type != SETTINGS && type != BLOCK) || length < 0
+                    || length > MAX_RECORD) {
+                    return null;
+                }
+                byte[] body = new byte[length];
+                _in.readFully(body);
+                int stored = _in.readInt();
+                CRC32 crc = new CRC32();
+                crc.update(type);
+                crc.update(new byte[] {
+                    (byte) (length >>> 24), (byte) (length >>> 16),
+                    (byte) (length >>> 8), (byte) length });
+                crc.update(body);
+                if ((int) crc.getValue() != stored) {
+                    return null;
+                }
+                _type = type;
+                return body;
+            } catch (EOFException excp) {
+                return null;
+            }
+        }
+
+        /** Source of the container. */
+        private final DataInputStream _in;
+
+        /** Type of the last record read. */
+        private int _type;
+
+        /** Number of damaged records skipped. */
+        private int _skipped;
+    }
+
+    /** Return the value of the positive integer option NAME in OPTIONS,
+     *  or DEFAULTVALUE if it is absent. */
+    private static int intOption(HashMap<String, String> options,
+                                 String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value);
+            if (result <= 0) {
+                throw error("--%s must be positive", name);
+            }
+            return result;
+        } catch (NumberFormatException excp) {
+            throw error("--%s needs an integer value", name);
+        }
+    }
+
+    /** Return the contents of the file named NAME. */
+    private static String read(String name) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(name)),
+                              Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a stream reading the file named NAME. */
+    private static InputStream open(String name) {
+        try {
+            return Files.newInputStream(Paths.get(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a buffered stream writing the file named NAME. */
+    private static OutputStream create(String name) {
+        try {
+            return new BufferedOutputStream(
+                Files.newOutputStream(Paths.get(name)));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Identifies container files ("ENBC"). */
+    static final int MAGIC = 0x454e4243;
+
+    /** Version of the container layout. */
+    static final int VERSION = 1;
+
+    /** Marks the start of each record. */
+    static final int SYNC = 0x5ec0bd1c;
+
+    /** Bytes in SYNC. */
+    private static final int SYNC_LENGTH = 4;
+
+    /** Bytes in a record besides its body. */
+    private static final int RECORD_OVERHEAD = 13;
+
+    /** Bytes of the id at the start of a settings record. */
+    private static final int SETTINGS_ID = 4;
+
+    /** Record types. */
+    private static final int SETTINGS = 'S', BLOCK = 'B';
+
+    /** Largest record body. */
+    static final int MAX_RECORD = 1 << 24;
+
+    /** Default characters per block. */
+    static final int DEFAULT_BLOCK = 1 << 16;
+
+    /** Blocks in flight per worker. */
+    private static final int MAX_PENDING = 4;
+
+    /** Names of the options BlockContainer accepts. */
+    private static final List<String> OPTIONS =
+        Arrays.asList("block", "workers");
+
+    /** Configuration applied. */
+    private final Configuration _config;
+
+    /** Number of threads enciphering. */
+    private final int _workers;
+
+    /** Machines used by the threads. */
+    private final MachinePool _pool;
+}
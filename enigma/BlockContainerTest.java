@@ -0,0 +1,164 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the BlockContainer class.
+ *  @author James (Dayuan) Tang
+ */
+public class BlockContainerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Settings lines of the sections of the test input. */
+    private static final String[] SETTINGS = {
+        "* B BETA III VI VIII AAAA",
+        "* B BETA VI VIII III BCDE (AQ) (EP)",
+        "* B BETA VIII III VI XYZA",
+        "* B BETA III VI VIII QZMV (AQ) (EP)",
+        "* B BETA VI VIII III MMMM",
+        "* B BETA VIII III VI ZZZZ (AQ) (EP)",
+    };
+
+    /** Return an input file for Main of several sections. */
+    private static String input() {
+        Random random = new Random(45);
+        StringBuilder result = new StringBuilder("\n");
+        for (String settings : SETTINGS) {
+            result.append(settings).append('\n');
+            for (int k = 0; k < 30; k += 1) {
+                int n = random.nextInt(60);
+                for (int i = 0; i < n; i += 1) {
+                    result.append(i % 7 == 6 ? ' '
+                                  : (char) ('a' + random.nextInt(26)));
+                }
+                result.append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return what Main prints for INPUT. */
+    private static String main(String input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Main(NAVAL_CONFIG, reader(input), new PrintStream(out)).process();
+        return out.toString();
+    }
+
+    /** Return a LineReader of TEXT. */
+    private static LineReader reader(String text) {
+        return new LineReader(Channels.newChannel(
+            new ByteArrayInputStream(text.getBytes())),
+            Charset.defaultCharset(), 0);
+    }
+
+    /** Return CONTAINER printed by BlockContainer.text. */
+    private static String text(byte[] container) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BlockContainer.text(new ByteArrayInputStream(container),
+                            new OutputFormatter(out,
+                                                Charset.defaultCharset()));
+        return out.toString();
+    }
+
+    /** Return INPUT encoded as a container in blocks of BLOCK characters
+     *  with WORKERS threads. */
+    private static byte[] encode(String input, int block, int workers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BlockContainer(Configuration.parse(NAVAL_CONFIG), workers)
+            .encode(new ByteArrayInputStream(input.getBytes()), out, block);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void checkRoundTrip() {
+        String input = input();
+        String expected = main(input);
+        for (int block : new int[] {1, 50, 100000}) {
+            byte[] container = encode(input, block, 3);
+            assertEquals(expected, text(container));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BlockContainer decoder =
+                new BlockContainer(Configuration.parse(NAVAL_CONFIG), 2);
+            assertEquals(0, decoder.decode(
+                new ByteArrayInputStream(container),
+                new OutputFormatter(out, Charset.defaultCharset())));
+            String plain = input.replaceAll("(?m)^\\*.*\n", "")
+                .replace(" ", "").toUpperCase();
+            assertEquals(plain,
+                         out.toString().replace(" ", "")
+                         .replace(System.lineSeparator(), "\n"));
+        }
+    }
+
+    @Test
+    public void checkDamagedBlockSkipped() {
+        String input = input();
+        byte[] container = encode(input, 200, 1);
+        String whole = text(container);
+        byte[] damaged = container.clone();
+        damaged[damaged.length / 2] ^= 0x55;
+        String partial = text(damaged);
+        String[] wholeLines = whole.split(System.lineSeparator(), -1);
+        String[] partLines = partial.split(System.lineSeparator(), -1);
+        assertTrue(partLines.length < wholeLines.length);
+        assertTrue(partLines.length > wholeLines.length / 2);
+        assertTrue(whole.startsWith(partial.substring(0, partial.length()
+                                                      / 3)));
+        assertTrue(whole.endsWith(partial.substring(2 * partial.length()
+                                                    / 3)));
+        assertEquals(0, BlockContainer.text(
+            new ByteArrayInputStream(container),
+            new OutputFormatter(new ByteArrayOutputStream(),
+                                Charset.defaultCharset())));
+        assertTrue(BlockContainer.text(new ByteArrayInputStream(damaged),
+            new OutputFormatter(new ByteArrayOutputStream(),
+                                Charset.defaultCharset())) > 0);
+    }
+
+    @Test
+    public void checkLengthChecked() {
+        Machine m = Configuration.parse(NAVAL_CONFIG).newMachine();
+        m.setUp(SETTINGS[0]);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BlockContainer.Writer writer = new BlockContainer.Writer(out);
+        writer.write(writer.settingsRecord(0, SETTINGS[0]));
+        writer.write(writer.blockRecord(0, m.positions(), 5,
+                                        Arrays.asList("HELLO", "WORLD")));
+        writer.flush();
+        try {
+            new BlockContainer(Configuration.parse(NAVAL_CONFIG), 1)
+                .decode(new ByteArrayInputStream(out.toByteArray()),
+                        new OutputFormatter(new ByteArrayOutputStream(),
+                                            Charset.defaultCharset()));
+            fail("block length not checked");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("enciphered 10"));
+        }
+    }
+
+    @Test
+    public void checkNotAContainer() {
+        try {
+            text("* B BETA III VI VIII AAAA\n".getBytes());
+            fail("accepted a non-container");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
@@ -11,11 +11,21 @@ class CharacterRange extends Alphabet {
     /** An alphabet consisting of all characters between FIRST and LAST,
      *  inclusive. */
     CharacterRange(char first, char last) {
-        _first = Character.toUpperCase(first);
-        _last = Character.toUpperCase(last);
+        this((int) Character.toUpperCase(first),
+             (int) Character.toUpperCase(last));
+    }
+
+    /** An alphabet consisting of all code points between FIRST and LAST,
+     *  inclusive, which may lie outside the Basic Multilingual Plane. */
+    CharacterRange(int first, int last) {
+        _first = first;
+        _last = last;
         if (_first > _last) {
             throw error("empty range of characters");
         }
+        if (_first < 0 || _last > Character.MAX_CODE_POINT) {
+            throw error("invalid range of characters");
+        }
     }
 
     @Override
@@ -25,27 +35,41 @@ class CharacterRange extends Alphabet {
 
     @Override
     boolean contains(char ch) {
-        return ch >= _first && ch <= _last;
+        return containsCodePoint(ch);
     }
 
     @Override
     char toChar(int index) {
-        if (!contains((char) (_first + index))) {
+        return checkedChar(toCodePoint(index));
+    }
+
+    @Override
+    int toInt(char ch) {
+        return indexOfCodePoint(ch);
+    }
+
+    @Override
+    boolean containsCodePoint(int cp) {
+        return cp >= _first && cp <= _last;
+    }
+
+    @Override
+    int toCodePoint(int index) {
+        if (index < 0 || index >= size()) {
             throw error("Character index out of range");
         }
-        return (char) (_first + index);
+        return _first + index;
     }
 
     @Override
-    int toInt(char ch) {
-        if (!contains(ch)) {
-            System.out.println(ch);
+    int indexOfCodePoint(int cp) {
+        if (!containsCodePoint(cp)) {
             throw error("Character is not in alphabet");
         }
-        return ch - _first;
+        return cp - _first;
     }
 
-    /** Range of characters in this Alphabet. */
-    private char _first, _last;
+    /** Range of code points in this Alphabet. */
+    private int _first, _last;
 
 }
@@ -0,0 +1,134 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** The resumable state of a Main run: where it was in its input and
+ *  output, the settings line in force, and the rotor positions reached
+ *  under it.  Checkpoints are written to a temporary file, forced to
+ *  disk and renamed over the previous one, so a crash leaves either the
+ *  old checkpoint or the new one, never a torn one.
+ *  @author James (Dayuan) Tang
+ */
+class Checkpoint {
+
+    /** A checkpoint at input byte INPUTOFFSET and output byte
+     *  OUTPUTOFFSET, under settings line SETTINGS with rotor slot
+     *  settings POSITIONS. */
+    Checkpoint(long inputOffset, long outputOffset, String settings,
+               int[] positions) {
+        _inputOffset = inputOffset;
+        _outputOffset = outputOffset;
+        _settings = settings;
+        _positions = positions.clone();
+    }
+
+    /** Return the offset of the first unprocessed input byte. */
+    long inputOffset() {
+        return _inputOffset;
+    }
+
+    /** Return the length of the output written so far. */
+    long outputOffset() {
+        return _outputOffset;
+    }
+
+    /** Return the settings line in force, or null if there was none. */
+    String settings() {
+        return _settings;
+    }
+
+    /** Return the setting of each rotor slot. */
+    int[] positions() {
+        return _positions.clone();
+    }
+
+    /** Durably replace the checkpoint in FILE with this one. */
+    void write(Path file) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeLong(_inputOffset);
+            out.writeLong(_outputOffset);
+            out.writeBoolean(_settings != null);
+            if (_settings != null) {
+                out.writeUTF(_settings);
+            }
+            out.writeShort(_positions.length);
+            for (int p : _positions) {
+                out.writeInt(p);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            DurableFile.write(file, bytes.toByteArray());
+        } catch (IOException excp) {
+            throw error("could not write checkpoint %s", file);
+        }
+    }
+
+    /** Return the checkpoint stored in FILE, or null if there is no such
+     *  file. */
+    static Checkpoint read(Path file) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", file);
+        }
+        if (data.length < 4) {
+            throw error("corrupt checkpoint %s", file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        try {
+            DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC) {
+                throw error("%s is not a checkpoint", file);
+            }
+            long inputOffset = in.readLong();
+            long outputOffset = in.readLong();
+            String settings = in.readBoolean() ? in.readUTF() : null;
+            int[] positions = new int[in.readShort()];
+            for (int i = 0; i < positions.length; i += 1) {
+                positions[i] = in.readInt();
+            }
+            if (in.readInt() != (int) crc.getValue()) {
+                throw error("corrupt checkpoint %s", file);
+            }
+            return new Checkpoint(inputOffset, outputOffset, settings,
+                                  positions);
+        } catch (IOException excp) {
+            throw error("corrupt checkpoint %s", file);
+        }
+    }
+
+    /** Identifies checkpoint files ("ENCK"). */
+    private static final int MAGIC = 0x454e434b;
+
+    /** Offset of the first unprocessed input byte. */
+    private final long _inputOffset;
+
+    /** Length of the output written so far. */
+    private final long _outputOffset;
+
+    /** Settings line in force, or null. */
+    private final String _settings;
+
+    /** Setting of each rotor slot. */
+    private final int[] _positions;
+}
@@ -0,0 +1,127 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Checkpoint class and Main's
+ *  checkpointing and resumption.
+ *  @author James (Dayuan) Tang
+ */
+public class CheckpointTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Write TEXT to FILE. */
+    private static void write(Path file, String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void checkMainResumes() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 30; i += 1) {
+            if (i % 7 == 0) {
+                text.append("* B BETA VI VIII III ")
+                    .append((char) ('A' + i % 26)).append("ZMV (AQ) (EP)\n");
+            }
+            text.append("Line ").append((char) ('A' + i % 26))
+                .append(" OF THE MESSAGE  IS HERE\n");
+        }
+        String input = text.toString();
+        int bad = input.indexOf("Line U");
+        Path dir = Files.createTempDirectory("enigma");
+        Path conf = dir.resolve("conf"), in = dir.resolve("inp"),
+            whole = dir.resolve("whole"), out = dir.resolve("out"),
+            ck = dir.resolve("ck");
+        try {
+            write(conf, NAVAL_CONFIG);
+            write(in, input);
+            new Main(new String[] {conf.toString(), in.toString(),
+                                   whole.toString()}).process();
+
+            write(in, input.substring(0, bad) + "#"
+                  + input.substring(bad + 1));
+            String[] args = {conf.toString(), in.toString(), out.toString(),
+                             "--checkpoint=" + ck,
+                             "--checkpoint-interval=3"};
+            try {
+                new Main(args).process();
+                fail("bad input character accepted");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("#"));
+            }
+            Checkpoint c = Checkpoint.read(ck);
+            assertTrue(c.inputOffset() > 0 && c.inputOffset() <= bad);
+            assertTrue(c.outputOffset() < Files.size(out));
+            try (FileChannel ch = FileChannel.open(out,
+                     StandardOpenOption.WRITE)) {
+                ch.truncate(c.outputOffset());
+            }
+
+            write(in, input);
+            String[] resume = new String[args.length + 1];
+            System.arraycopy(args, 0, resume, 0, args.length);
+            resume[args.length] = "--resume";
+            new Main(resume).process();
+            assertArrayEquals(Files.readAllBytes(whole),
+                              Files.readAllBytes(out));
+        } finally {
+            for (Path p : new Path[] {conf, in, whole, out, ck}) {
+                Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void checkRoundTrip() throws IOException {
+        Path file = Files.createTempFile("enigma", ".ck");
+        try {
+            new Checkpoint(1234567890123L, 42, "* B BETA III IV I AXLE",
+                           new int[] {0, 0, 2, 7, 25}).write(file);
+            Checkpoint c = Checkpoint.read(file);
+            assertEquals(1234567890123L, c.inputOffset());
+            assertEquals(42, c.outputOffset());
+            assertEquals("* B BETA III IV I AXLE", c.settings());
+            assertArrayEquals(new int[] {0, 0, 2, 7, 25}, c.positions());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void checkMissingAndCorrupt() throws IOException {
+        Path file = Files.createTempFile("enigma", ".ck");
+        try {
+            Files.delete(file);
+            assertNull(Checkpoint.read(file));
+            new Checkpoint(10, 20, null, new int[0]).write(file);
+            assertNull(Checkpoint.read(file).settings());
+            byte[] data = Files.readAllBytes(file);
+            data[6] ^= 1;
+            Files.write(file, data);
+            try {
+                Checkpoint.read(file);
+                fail("corruption not detected");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package enigma;
+
+import java.util.EnumMap;
+
+import static enigma.EnigmaException.*;
+
+/** The contents of a configuration file: an alphabet, the numbers of
+ *  rotor slots and pawls, and a library of rotor definitions.  Loading
+ *  happens in two phases.  parse is a fast sequential split that finds
+ *  each rotor's name, type and the span of text holding its cycles,
+ *  including continuation lines.  The cycles are compiled later, either
+ *  one at a time as machines first use them or all at once, in
+ *  parallel, by RotorLibrary.compileAll.
+ *  @author James (Dayuan) Tang
+ */
+class Configuration {
+
+    /** A configuration with alphabet ALPHABET, NUMROTORS slots and
+     *  NUMPAWLS pawls, whose rotors are defined in LIBRARY. */
+    Configuration(Alphabet alphabet, int numRotors, int numPawls,
+                  RotorLibrary library) {
+        _alphabet = alphabet;
+        _numRotors = numRotors;
+        _numPawls = numPawls;
+        _library = library;
+    }
+
+    /** Return the configuration described by TEXT, the contents of a
+     *  configuration file. */
+    static Configuration parse(String text) {
+        return new Parser(text).parse();
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return my number of pawls. */
+    int numPawls() {
+        return _numPawls;
+    }
+
+    /** Return my rotor definitions. */
+    RotorLibrary library() {
+        return _library;
+    }
+
+    /** Return a new machine with my alphabet, slots and pawls, and its
+     *  own rotors built from my library.  Machines share one input
+     *  normalizer with the default policy. */
+    Machine newMachine() {
+        Machine result =
+            new Machine(_alphabet, _numRotors, _numPawls, _library);
+        result.setNormalizer(normalizer(InputNormalizer.Policy.STRICT));
+        return result;
+    }
+
+    /** Return the input normalizer for my alphabet with policy POLICY,
+     *  built once and shared. */
+    synchronized InputNormalizer normalizer(InputNormalizer.Policy policy) {
+        InputNormalizer result = _normalizers.get(policy);
+        if (result == null) {
+            result = new InputNormalizer(_alphabet, policy);
+            _normalizers.put(policy, result);
+        }
+        return result;
+    }
+
+    /** Splits the text of a configuration file into rotor definitions. */
+    private static class Parser {
+
+        /** A parser for TEXT. */
+        Parser(String text) {
+            _text = text;
+        }
+
+        /** Return the configuration described by my text. */
+        Configuration parse() {
+            String text = _text;
+            String[] header = new String[3];
+            int pos = 0;
+            for (int i = 0; i < header.length; i += 1) {
+                pos = skipSpace(pos);
+                if (pos == text.length()) {
+                    throw error("configuration file truncated");
+                }
+                int end = tokenEnd(pos);
+                header[i] = text.substring(pos, end);
+                pos = end;
+            }
+            Alphabet alphabet;
+            int[] range = header[0].codePoints().toArray();
+            if (range.length == 3 && range[1] == '-') {
+                alphabet = new CharacterRange(
+                    Character.toUpperCase(range[0]),
+                    Character.toUpperCase(range[2]));
+            } else {
+                alphabet = new ArbitraryChar(header[0]);
+            }
+            int numRotors, numPawls;
+            try {
+                numRotors = Integer.parseInt(header[1]);
+                numPawls = Integer.parseInt(header[2]);
+            } catch (NumberFormatException excp) {
+                throw error("bad rotor or pawl count in configuration");
+            }
+            pos = nextLine(pos);
+
+            RotorLibrary library = new RotorLibrary();
+            while (pos < text.length()) {
+                int lineEnd = lineEnd(pos);
+                int nameStart = skipSpace(pos, lineEnd);
+                if (nameStart == lineEnd) {
+                    pos = nextLine(pos);
+                    continue;
+                }
+                int nameEnd = tokenEnd(nameStart);
+                int typeStart = skipSpace(nameEnd, lineEnd);
+                if (typeStart == lineEnd) {
+                    throw error("line %d: bad rotor description", _line);
+                }
+                int typeEnd = tokenEnd(typeStart);
+                int line = _line;
+                int cyclesEnd = lineEnd;
+                pos = nextLine(pos);
+                while (pos < text.length()) {
+                    int first = skipSpace(pos, lineEnd(pos));
+                    if (first == text.length()
+                        || text.charAt(first) != '(') {
+                        break;
+                    }
+                    cyclesEnd = lineEnd(pos);
+                    pos = nextLine(pos);
+                }
+                library.add(new RotorDefinition(
+                    text.substring(nameStart, nameEnd),
+                    text.substring(typeStart, typeEnd),
+                    text, typeEnd, cyclesEnd, line, alphabet));
+            }
+            return new Configuration(alphabet, numRotors, numPawls,
+                                     library);
+        }
+
+        /** Return the index of the first non-whitespace character at or
+         *  after POS, counting the newlines skipped in _line. */
+        private int skipSpace(int pos) {
+            int p = pos;
+            while (p < _text.length()
+                   && Character.isWhitespace(_text.charAt(p))) {
+                if (_text.charAt(p) == '\n') {
+                    _line += 1;
+                }
+                p += 1;
+            }
+            return p;
+        }
+
+        /** Return the index of the first non-whitespace character at or
+         *  after POS and before END, or END if there is none. */
+        private int skipSpace(int pos, int end) {
+            int p = pos;
+            while (p < end && Character.isWhitespace(_text.charAt(p))) {
+                p += 1;
+            }
+            return p;
+        }
+
+        /** Return the end of the whitespace-delimited token that starts
+         *  at POS. */
+        private int tokenEnd(int pos) {
+            int p = pos;
+            while (p < _text.length()
+                   && !Character.isWhitespace(_text.charAt(p))) {
+                p += 1;
+            }
+            return p;
+        }
+
+        /** Return the index of the newline ending the line containing
+         *  POS, or the length of the text if that line is the last. */
+        private int lineEnd(int pos) {
+            int end = _text.indexOf('\n', pos);
+            return end < 0 ? _text.length() : end;
+        }
+
+        /** Return the start of the line after the one containing POS,
+         *  counting it in _line. */
+        private int nextLine(int pos) {
+            int end = lineEnd(pos);
+            if (end < _text.length()) {
+                _line += 1;
+                return end + 1;
+            }
+            return end;
+        }
+
+        /** Text being parsed. */
+        private final String _text;
+
+        /** Number of the line being parsed. */
+        private int _line = 1;
+    }
+
+    /** Alphabet of my machines. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots and pawls of my machines. */
+    private final int _numRotors, _numPawls;
+
+    /** Definitions of my rotors. */
+    private final RotorLibrary _library;
+
+    /** Input normalizers built so far, by policy. */
+    private final EnumMap<InputNormalizer.Policy, InputNormalizer>
+        _normalizers = new EnumMap<>(InputNormalizer.Policy.class);
+}
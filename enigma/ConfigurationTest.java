@@ -0,0 +1,62 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Configuration class.
+ *  @author James (Dayuan) Tang
+ */
+public class ConfigurationTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** A small configuration with a reflector split over two lines. */
+    private static final String CONFIG =
+        "A-Z\n 4 2\n"
+        + " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "\n"
+        + " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n";
+
+    @Test
+    public void checkParse() {
+        Configuration config = Configuration.parse(CONFIG);
+        assertEquals(26, config.alphabet().size());
+        assertEquals(4, config.numRotors());
+        assertEquals(2, config.numPawls());
+        RotorLibrary library = config.library();
+        assertEquals(4, library.size());
+        assertEquals(0, library.compiled());
+        assertEquals(5, library.get("III").line());
+        assertEquals(7, library.get("B").line());
+        assertTrue(library.get("B").cycles().contains("(TV)"));
+        assertTrue(library.get("BETA") != null);
+        library.compileAll();
+        assertEquals(4, library.compiled());
+        assertTrue(library.get("B").permutation().derangement());
+    }
+
+    @Test
+    public void checkErrorsAggregated() {
+        Configuration config = Configuration.parse(CONFIG
+            + " X1 MQ (AB) (BC)\n"
+            + " X2 N  (AB) (CD)\n"
+            + " X3 M# (AB)\n");
+        try {
+            config.library().compileAll();
+            fail("bad rotors accepted");
+        } catch (EnigmaException excp) {
+            String msg = excp.getMessage();
+            assertTrue(msg, msg.startsWith("2 bad rotor definitions"));
+            assertTrue(msg, msg.indexOf("line 9") < msg.indexOf("line 11"));
+            assertFalse(msg, msg.contains("line 10"));
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.EnigmaException.*;
+
+/** Finds where a crib (a guessed piece of plaintext) may lie in a
+ *  ciphertext.  When the reflector is a derangement, no character
+ *  enciphers to itself, so an alignment that would put any crib letter
+ *  over the same ciphertext letter is impossible.  The ciphertext is
+ *  kept as one bitset per letter, bit P of letter L's set saying that
+ *  ciphertext character P is L.  Shifting letter L's set right by I and
+ *  ORing it into a set of failed offsets rules out, 64 offsets per word
+ *  operation, every alignment that puts crib letter I, an L, over an L.
+ *  Spaces in the ciphertext and cribs are ignored, and offsets count
+ *  only alphabet characters.
+ *  @author James (Dayuan) Tang
+ */
+class CribScanner {
+
+    /** A scanner of CIPHERTEXT, in ALPHABET, which applies the
+     *  no-self-encipherment rule iff DERANGEMENT. */
+    CribScanner(Alphabet alphabet, String ciphertext, boolean derangement) {
+        _normalizer = new InputNormalizer(alphabet,
+                                          InputNormalizer.Policy.STRICT);
+        _derangement = derangement;
+        int[] text = indices(ciphertext);
+        _length = text.length;
+        _letters = new long[alphabet.size()][words(_length) + 1];
+        for (int p = 0; p < _length; p += 1) {
+            _letters[text[p]][p >>> WORD_SHIFT] |= 1L << p;
+        }
+    }
+
+    /** A scanner of CIPHERTEXT as enciphered by MACHINE, which is set
+     *  up: the rule applies iff the reflector in its first slot is a
+     *  derangement. */
+    static CribScanner forMachine(Machine machine, String ciphertext) {
+        Rotor reflector = machine.rotorSlots().get(0);
+        return new CribScanner(machine.alphabet(), ciphertext,
+                               reflector.permutation().derangement());
+    }
+
+    /** Return the number of alphabet characters in my ciphertext. */
+    int length() {
+        return _length;
+    }
+
+    /** Return, in increasing order, the offsets in my ciphertext at
+     *  which CRIB may lie. */
+    int[] scan(String crib) {
+        int[] c = indices(crib);
+        int last = _length - c.length;
+        if (last < 0) {
+            return new int[0];
+        }
+        long[] failed = new long[words(last + 1)];
+        if (_derangement) {
+            for (int i = 0; i < c.length; i += 1) {
+                orShifted(failed, _letters[c[i]], i);
+            }
+        }
+        int[] result = new int[last + 1];
+        int n = 0;
+        for (int w = 0; w < failed.length; w += 1) {
+            long ok = ~failed[w];
+            while (ok != 0) {
+                int p = (w << WORD_SHIFT) + Long.numberOfTrailingZeros(ok);
+                if (p > last) {
+                    break;
+                }
+                result[n] = p;
+                n += 1;
+                ok &= ok - 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the results of scan for each of CRIBS, in order, computed
+     *  on PARALLELISM threads. */
+    int[][] scanAll(List<String> cribs, int parallelism) {
+        if (parallelism < 1) {
+            throw error("parallelism must be positive");
+        }
+        int[][] result = new int[cribs.size()][];
+        AtomicInteger next = new AtomicInteger();
+        ArrayList<Callable<Void>> workers = new ArrayList<>();
+        for (int w = 0; w < parallelism; w += 1) {
+            workers.add(() -> {
+                for (int k = next.getAndIncrement(); k < result.length;
+                     k = next.getAndIncrement()) {
+                    result[k] = scan(cribs.get(k));
+                }
+                return null;
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Future<Void> f : pool.invokeAll(workers)) {
+                f.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("crib scan interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw error("crib scan failed: %s", cause);
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /** OR into each word of FAILED the corresponding word of SET shifted
+     *  right by SHIFT bits.  SET has at least one word more than FAILED
+     *  needs, so the neighbouring word always exists. */
+    private static void orShifted(long[] failed, long[] set, int shift) {
+        int q = shift >>> WORD_SHIFT, r = shift & (WORD_BITS - 1);
+        if (r == 0) {
+            for (int w = 0; w < failed.length; w += 1) {
+                failed[w] |= set[w + q];
+            }
+        } else {
+            for (int w = 0; w < failed.length; w += 1) {
+                failed[w] |= (set[w + q] >>> r)
+                    | (set[w + q + 1] << (WORD_BITS - r));
+            }
+        }
+    }
+
+    /** Return the alphabet indices of the characters of TEXT, without
+     *  spaces. */
+    private int[] indices(String text) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            int index = _normalizer.index(cp);
+            if (index >= 0) {
+                result[n] = index;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the number of words needed for N bits. */
+    private static int words(int n) {
+        return (n + WORD_BITS - 1) >>> WORD_SHIFT;
+    }
+
+    /** Bits in a word of a bitset, and its base-2 logarithm. */
+    private static final int WORD_BITS = 64, WORD_SHIFT = 6;
+
+    /** Maps characters to alphabet indices. */
+    private final InputNormalizer _normalizer;
+
+    /** True iff no character enciphers to itself. */
+    private final boolean _derangement;
+
+    /** Number of characters in the ciphertext. */
+    private final int _length;
+
+    /** _letters[L] has bit P set iff ciphertext character P is L. */
+    private final long[][] _letters;
+}
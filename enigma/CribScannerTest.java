@@ -0,0 +1,107 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CribScanner class.
+ *  @author James (Dayuan) Tang
+ */
+public class CribScannerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** The usual alphabet. */
+    private Alphabet upper = new CharacterRange('A', 'Z');
+
+    /** Return a random string of N letters from the first K of the
+     *  alphabet, drawn with RANDOM. */
+    private static String random(Random random, int n, int k) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            result.append((char) ('A' + random.nextInt(k)));
+        }
+        return result.toString();
+    }
+
+    /** Return the offsets at which CRIB may lie in TEXT, found one
+     *  alignment at a time. */
+    private static int[] naive(String text, String crib) {
+        int[] result = new int[Math.max(0, text.length() - crib.length() + 1)];
+        int n = 0;
+        for (int p = 0; p + crib.length() <= text.length(); p += 1) {
+            boolean ok = true;
+            for (int i = 0; i < crib.length() && ok; i += 1) {
+                ok = text.charAt(p + i) != crib.charAt(i);
+            }
+            if (ok) {
+                result[n] = p;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    @Test
+    public void checkAgainstNaive() {
+        Random random = new Random(44);
+        for (int trial = 0; trial < 50; trial += 1) {
+            String text = random(random, random.nextInt(400), 4);
+            CribScanner scanner = new CribScanner(upper, text, true);
+            ArrayList<String> cribs = new ArrayList<>();
+            for (int k = 0; k < 5; k += 1) {
+                cribs.add(random(random, random.nextInt(140), 4));
+            }
+            int[][] all = scanner.scanAll(cribs, 3);
+            for (int k = 0; k < cribs.size(); k += 1) {
+                int[] expected = naive(text, cribs.get(k));
+                assertArrayEquals(expected, scanner.scan(cribs.get(k)));
+                assertArrayEquals(expected, all[k]);
+            }
+        }
+    }
+
+    @Test
+    public void checkParallelism() {
+        CribScanner scanner = new CribScanner(upper, "ABCDAB", true);
+        try {
+            scanner.scanAll(Arrays.asList("AB"), 0);
+            fail("no threads");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("parallelism"));
+        }
+    }
+
+    @Test
+    public void checkSpacesAndNoRule() {
+        CribScanner scanner = new CribScanner(upper, "ABC DAB", true);
+        assertEquals(6, scanner.length());
+        assertArrayEquals(new int[] {1, 2, 3}, scanner.scan("a b"));
+        assertArrayEquals(new int[0], scanner.scan("ABCDABC"));
+        CribScanner any = new CribScanner(upper, "ABCDAB", false);
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, any.scan("AB"));
+    }
+
+    @Test
+    public void checkMachineCiphertext() {
+        Configuration config = Configuration.parse(NAVAL_CONFIG);
+        Machine m = config.newMachine();
+        m.setUp("* B BETA VI VIII III QZMV (AQ) (EP)");
+        String plain = "NOTHINGTOREPORTWETTERVORHERSAGEBISKAYA"
+            + "KEINEBESONDERENEREIGNISSE";
+        String cipher = m.convert(plain);
+        CribScanner scanner = CribScanner.forMachine(m, cipher);
+        int[] offsets = scanner.scan("WETTERVORHERSAGE");
+        assertTrue(Arrays.binarySearch(offsets, 15) >= 0);
+        assertArrayEquals(naive(cipher, "WETTERVORHERSAGE"), offsets);
+    }
+}
@@ -0,0 +1,534 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static enigma.EnigmaException.*;
+
+/** A catalog, in the manner of Rejewski's, of the characteristic of
+ *  every key of a configuration: the cycle types of the products
+ *  A4A1, A5A2 and A6A3, where Ak is the substitution the rotors make at
+ *  the k-th keystroke from the key's start position.  A plugboard
+ *  conjugates these products and so leaves their cycle types alone,
+ *  which is why the catalog need only cover rotor orders and start
+ *  positions.
+ *
+ *  The catalog file holds 64-bit hashes of characteristics paired with
+ *  key numbers (as numbered by KeySpace), sorted, after a header that
+ *  includes a fingerprint of the rotor library, and ends with the CRC32
+ *  of everything before it; a lookup is a binary search of the file.
+ *  Building runs over the key space in parallel, sorting runs of entries
+ *  in memory, spilling them to temporary files and merging those into
+ *  the catalog, which replaces the file only once it is on disk.
+ *  @author James (Dayuan) Tang
+ */
+class CycleCatalog {
+
+    /** Number of products in a characteristic. */
+    static final int PRODUCTS = 3;
+
+    /** Build into FILE the catalog of every key of CONFIG, using
+     *  PARALLELISM threads. */
+    static void build(Configuration config, Path file, int parallelism) {
+        KeySpace space = new KeySpace(config, UNIT_SIZE);
+        Path dir = file.toAbsolutePath().getParent();
+        ArrayList<Path> runs = new ArrayList<>();
+        List<Collector> collectors =
+            Collections.synchronizedList(new ArrayList<>());
+        try {
+            space.run(() -> {
+                Collector c = new Collector(config.alphabet().size(), dir,
+                                            runs);
+                collectors.add(c);
+                return c;
+            }, 0, space.numUnits(), parallelism, null);
+            for (Collector c : collectors) {
+                c.spill();
+            }
+            merge(runs, file, fingerprint(config), space.numKeys());
+        } finally {
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException excp) {
+                    /* Ignore: only a temporary file is left behind. */
+                }
+            }
+        }
+    }
+
+    /** The catalog for CONFIG stored in FILE, which must have been built
+     *  from a rotor library identical to CONFIG's. */
+    CycleCatalog(Configuration config, Path file) {
+        _config = config;
+        _space = new KeySpace(config, UNIT_SIZE);
+        _file = file;
+        try (FileChannel ch = FileChannel.open(file)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(ch, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw error("%s is not a cycle catalog", file);
+            }
+            if (header.getLong() != fingerprint(config)) {
+                throw error("catalog %s is out of date for this "
+                            + "configuration", file);
+            }
+            _size = header.getLong();
+            long length = HEADER_SIZE + _size * ENTRY_SIZE;
+            if (ch.size() != length + 4) {
+                throw error("catalog %s is truncated", file);
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer buf = ByteBuffer.allocate(IO_BUFFER);
+            for (long at = 0; at < length; at += buf.limit()) {
+                buf.clear();
+                buf.limit((int) Math.min(IO_BUFFER, length - at));
+                readFully(ch, buf, at);
+                buf.flip();
+                crc.update(buf);
+            }
+            ByteBuffer sum = ByteBuffer.allocate(4);
+            readFully(ch, sum, length);
+            if (sum.getInt(0) != (int) crc.getValue()) {
+                throw error("corrupt catalog %s", file);
+            }
+        } catch (IOException excp) {
+            throw error("could not read catalog %s", file);
+        }
+    }
+
+    /** Return the number of keys in my catalog. */
+    long size() {
+        return _size;
+    }
+
+    /** Return the characteristic of the keystrokes that MACHINE will
+     *  make next: element K lists the cycle lengths of the (K+1)-st
+     *  product, longest first.  MACHINE is advanced six steps. */
+    static int[][] characteristic(Machine machine) {
+        Collector c = new Collector(machine.alphabet().size(), null, null);
+        c.compute(machine);
+        int[][] result = new int[PRODUCTS][];
+        for (int k = 0; k < PRODUCTS; k += 1) {
+            ArrayList<Integer> lengths = new ArrayList<>();
+            for (int len = c._counts[k].length - 1; len > 0; len -= 1) {
+                for (int n = 0; n < c._counts[k][len]; n += 1) {
+                    lengths.add(len);
+                }
+            }
+            result[k] = lengths.stream().mapToInt(Integer::intValue)
+                .toArray();
+        }
+        return result;
+    }
+
+    /** Return the settings lines, without plugboard, of every key whose
+     *  characteristic is CHARACTERISTIC (as returned by
+     *  characteristic()), in key order. */
+    List<String> lookup(int[][] characteristic) {
+        int size = _config.alphabet().size();
+        long hash = hash(counts(characteristic, size));
+        ArrayList<String> result = new ArrayList<>();
+        Machine machine = _config.newMachine();
+        try (FileChannel ch = FileChannel.open(_file)) {
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            long lo = 0, hi = _size;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (readEntry(ch, entry, mid) < hash) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (long i = lo; i < _size && readEntry(ch, entry, i) == hash;
+                 i += 1) {
+                String settings = _space.settings(entry.getLong(8));
+                machine.setUp(settings);
+                if (Arrays.deepEquals(characteristic(machine),
+                                      characteristic)) {
+                    result.add(settings);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read catalog %s", _file);
+        }
+        return result;
+    }
+
+    /** Read entry I of the catalog open on CH into ENTRY and return its
+     *  hash. */
+    private static long readEntry(FileChannel ch, ByteBuffer entry, long i)
+        throws IOException {
+        entry.clear();
+        readFully(ch, entry, HEADER_SIZE + i * ENTRY_SIZE);
+        return entry.getLong(0);
+    }
+
+    /** Fill BUF from CH, starting at file position POSITION. */
+    private static void readFully(FileChannel ch, ByteBuffer buf,
+                                  long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /** Return cycle-length counts for CHARACTERISTIC over an alphabet of
+     *  SIZE characters: element [K][LEN] is the number of cycles of
+     *  length LEN in product K. */
+    private static int[][] counts(int[][] characteristic, int size) {
+        if (characteristic.length != PRODUCTS) {
+            throw error("a characteristic has %d products", PRODUCTS);
+        }
+        int[][] result = new int[PRODUCTS][size + 1];
+        for (int k = 0; k < PRODUCTS; k += 1) {
+            for (int len : characteristic[k]) {
+                if (len <= 0 || len > size) {
+                    throw error("bad cycle length %d", len);
+                }
+                result[k][len] += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the hash of the cycle-length counts COUNTS. */
+    private static long hash(int[][] counts) {
+        long h = HASH_SEED;
+        for (int[] product : counts) {
+            for (int len = 1; len < product.length; len += 1) {
+                if (product[len] != 0) {
+                    h = (h ^ ((long) len << 32 | product[len])) * HASH_PRIME;
+                }
+            }
+            h = (h ^ -1L) * HASH_PRIME;
+        }
+        return h ^ (h >>> 29);
+    }
+
+    /** Return a fingerprint of CONFIG's alphabet, slots and rotor
+     *  library, which a catalog must match. */
+    static long fingerprint(Configuration config) {
+        CRC32 crc = new CRC32();
+        StringBuilder text = new StringBuilder();
+        Alphabet alphabet = config.alphabet();
+        for (int k = 0; k < alphabet.size(); k += 1) {
+            text.appendCodePoint(alphabet.toCodePoint(k));
+        }
+        text.append('\n').append(config.numRotors()).append(' ')
+            .append(config.numPawls()).append('\n');
+        for (RotorDefinition def : config.library().definitions()) {
+            text.append(def.name()).append(' ').append(def.type())
+                .append(' ').append(def.cycles().replaceAll("\\s+", ""))
+                .append('\n');
+        }
+        crc.update(text.toString().getBytes(StandardCharsets.UTF_8));
+        return ((long) text.length() << 32) | crc.getValue();
+    }
+
+    /** Merge the sorted runs in RUNS, holding COUNT entries in all, into
+     *  a catalog in FILE with fingerprint FINGERPRINT. */
+    private static void merge(List<Path> runs, Path file, long fingerprint,
+                              long count) {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>();
+        try {
+            DurableFile.write(file, stream -> {
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(
+                    new CheckedOutputStream(stream, crc));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint);
+                out.writeLong(count);
+                for (Path run : runs) {
+                    RunReader r = new RunReader(run);
+                    if (r.next()) {
+                        queue.add(r);
+                    }
+                }
+                long written = 0;
+                while (!queue.isEmpty()) {
+                    RunReader r = queue.poll();
+                    out.writeLong(r._hash);
+                    out.writeLong(r._key);
+                    written += 1;
+                    if (r.next()) {
+                        queue.add(r);
+                    } else {
+                        r.close();
+                    }
+                }
+                if (written != count) {
+                    throw error("catalog has %d of %d keys", written, count);
+                }
+                out.writeInt((int) crc.getValue());
+                out.flush();
+            });
+        } catch (IOException excp) {
+            throw error("could not write catalog %s", file);
+        } finally {
+            for (RunReader r : queue) {
+                r.close();
+            }
+        }
+    }
+
+    /** Computes the characteristics of the keys a KeySpace worker visits
+     *  and collects them into sorted runs.  Nothing is allocated per
+     *  key. */
+    private static class Collector implements KeySpace.Evaluator {
+
+        /** A collector for an alphabet of SIZE characters, spilling runs
+         *  to temporary files in DIR and listing them in RUNS. */
+        Collector(int size, Path dir, List<Path> runs) {
+            _tables = new int[2 * PRODUCTS][size];
+            _product = new int[size];
+            _seen = new boolean[size];
+            _counts = new int[PRODUCTS][size + 1];
+            _dir = dir;
+            _runs = runs;
+        }
+
+        @Override
+        public void evaluate(KeySpace.Cursor cursor) {
+            compute(cursor.machine());
+            if (_entries == null) {
+                _entries = new long[2 * RUN_ENTRIES];
+            } else if (_length == _entries.length) {
+                spill();
+            }
+            _entries[_length] = hash(_counts);
+            _entries[_length + 1] = cursor.key();
+            _length += 2;
+        }
+
+        /** Set _counts to the characteristic of the next six keystrokes
+         *  of MACHINE, advancing it. */
+        void compute(Machine machine) {
+            for (int[] table : _tables) {
+                machine.machineAdvance();
+                machine.rotorSubstitution(table);
+            }
+            for (int k = 0; k < PRODUCTS; k += 1) {
+                int[] first = _tables[k], second = _tables[k + PRODUCTS];
+                for (int c = 0; c < _product.length; c += 1) {
+                    _product[c] = second[first[c]];
+                }
+                Arrays.fill(_counts[k], 0);
+                Arrays.fill(_seen, false);
+                for (int start = 0; start < _product.length; start += 1) {
+                    int len = 0;
+                    for (int i = start; !_seen[i]; i = _product[i]) {
+                        _seen[i] = true;
+                        len += 1;
+                    }
+                    _counts[k][len] += 1;
+                }
+            }
+        }
+
+        /** Sort my collected entries and write them as a new run. */
+        void spill() {
+            if (_length == 0) {
+                return;
+            }
+            sortPairs(_entries, 0, _length / 2);
+            try {
+                Path run = Files.createTempFile(_dir, "catalog", ".run");
+                synchronized (_runs) {
+                    _runs.add(run);
+                }
+                try (DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(
+                             Files.newOutputStream(run), IO_BUFFER))) {
+                    for (int i = 0; i < _length; i += 1) {
+                        out.writeLong(_entries[i]);
+                    }
+                }
+            } catch (IOException excp) {
+                throw error("could not write catalog run: %s",
+                            excp.getMessage());
+            }
+            _length = 0;
+        }
+
+        /** Rotor substitutions at the six keystrokes. */
+        private final int[][] _tables;
+
+        /** Scratch product permutation. */
+        private final int[] _product;
+
+        /** Scratch marks of elements already in a cycle. */
+        private final boolean[] _seen;
+
+        /** _counts[K][LEN] is the number of cycles of length LEN in
+         *  product K. */
+        private final int[][] _counts;
+
+        /** Directory for runs. */
+        private final Path _dir;
+
+        /** All runs written. */
+        private final List<Path> _runs;
+
+        /** Collected (hash, key) pairs, flattened. */
+        private long[] _entries;
+
+        /** Number of longs used in _entries. */
+        private int _length;
+    }
+
+    /** Sort the (hash, key) pairs of the flattened array PAIRS with
+     *  indices LO <= I < HI by hash, then key. */
+    private static void sortPairs(long[] pairs, int lo, int hi) {
+        while (hi - lo > INSERTION_SORT_LIMIT) {
+            int mid = (lo + hi) >>> 1;
+            long ph = pairs[2 * mid], pk = pairs[2 * mid + 1];
+            int i = lo, j = hi - 1;
+            while (i <= j) {
+                while (comparePair(pairs, i, ph, pk) < 0) {
+                    i += 1;
+                }
+                while (comparePair(pairs, j, ph, pk) > 0) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swapPairs(pairs, i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (j + 1 - lo < hi - i) {
+                sortPairs(pairs, lo, j + 1);
+                lo = i;
+            } else {
+                sortPairs(pairs, i, hi);
+                hi = j + 1;
+            }
+        }
+        for (int i = lo + 1; i < hi; i += 1) {
+            for (int j = i; j > lo
+                     && comparePair(pairs, j, pairs[2 * j - 2],
+                                    pairs[2 * j - 1]) < 0; j -= 1) {
+                swapPairs(pairs, j, j - 1);
+            }
+        }
+    }
+
+    /** Compare pair I of PAIRS with the pair (HASH, KEY). */
+    private static int comparePair(long[] pairs, int i, long hash,
+                                   long key) {
+        int cmp = Long.compare(pairs[2 * i], hash);
+        return cmp != 0 ? cmp : Long.compare(pairs[2 * i + 1], key);
+    }
+
+    /** Exchange pairs I and J of PAIRS. */
+    private static void swapPairs(long[] pairs, int i, int j) {
+        long h = pairs[2 * i], k = pairs[2 * i + 1];
+        pairs[2 * i] = pairs[2 * j];
+        pairs[2 * i + 1] = pairs[2 * j + 1];
+        pairs[2 * j] = h;
+        pairs[2 * j + 1] = k;
+    }
+
+    /** Reads the entries of one sorted run in order. */
+    private static class RunReader implements Comparable<RunReader> {
+
+        /** A reader of the run in FILE. */
+        RunReader(Path file) throws IOException {
+            _in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file), IO_BUFFER));
+        }
+
+        /** Move to my next entry.  Return false if there is none. */
+        boolean next() throws IOException {
+            try {
+                _hash = _in.readLong();
+            } catch (EOFException excp) {
+                return false;
+            }
+            _key = _in.readLong();
+            return true;
+        }
+
+        /** Stop reading. */
+        void close() {
+            try {
+                _in.close();
+            } catch (IOException excp) {
+                /* Ignore: the run is only read. */
+            }
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            int cmp = Long.compare(_hash, other._hash);
+            return cmp != 0 ? cmp : Long.compare(_key, other._key);
+        }
+
+        /** Source of entries. */
+        private final DataInputStream _in;
+
+        /** Current entry. */
+        private long _hash, _key;
+    }
+
+    /** Identifies catalog files ("ENCC"). */
+    private static final int MAGIC = 0x454e4343;
+
+    /** Catalog format version. */
+    private static final int VERSION = 2;
+
+    /** Bytes before the first entry. */
+    private static final int HEADER_SIZE = 24;
+
+    /** Bytes per entry. */
+    private static final int ENTRY_SIZE = 16;
+
+    /** Start positions per KeySpace unit. */
+    private static final long UNIT_SIZE = 1 << 12;
+
+    /** Entries per in-memory run. */
+    private static final int RUN_ENTRIES = 1 << 20;
+
+    /** Ranges of pairs at most this long are sorted by insertion. */
+    private static final int INSERTION_SORT_LIMIT = 16;
+
+    /** Size of file buffers. */
+    private static final int IO_BUFFER = 1 << 16;
+
+    /** Hash parameters (64-bit FNV). */
+    private static final long HASH_SEED = 0xcbf29ce484222325L,
+        HASH_PRIME = 0x100000001b3L;
+
+    /** Configuration whose keys I catalog. */
+    private final Configuration _config;
+
+    /** Numbering of _config's keys. */
+    private final KeySpace _space;
+
+    /** Catalog file. */
+    private final Path _file;
+
+    /** Number of entries. */
+    private final long _size;
+}
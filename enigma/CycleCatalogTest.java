@@ -0,0 +1,142 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the CycleCatalog class.
+ *  @author James (Dayuan) Tang
+ */
+public class CycleCatalogTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Text of a configuration with a small key space. */
+    private static final String CONFIG_TEXT =
+        "A-H 4 2\n"
+        + " R1 R (AB) (CD) (EF) (GH)\n"
+        + " R2 R (AH) (BG) (CF) (DE)\n"
+        + " F N (ABC) (DH)\n"
+        + " M1 MA (ACEG) (BD)\n"
+        + " M2 MCE (ABCDEFGH)\n"
+        + " M3 MH (AE) (BFC)\n";
+
+    /** Return the characteristic of the next six keystrokes of a machine
+     *  set up with SETTINGS, taken from the substitutions Machine.convert
+     *  makes, plugboard included. */
+    private static int[][] converted(Machine m, String settings) {
+        int size = m.alphabet().size();
+        int[][] subst = new int[6][size];
+        for (int c = 0; c < size; c += 1) {
+            m.setUp(settings);
+            String in = String.valueOf((char) ('A' + c));
+            String out = m.convert(in + in + in + in + in + in);
+            for (int k = 0; k < 6; k += 1) {
+                subst[k][c] = out.charAt(k) - 'A';
+            }
+        }
+        int[][] result = new int[CycleCatalog.PRODUCTS][];
+        for (int k = 0; k < CycleCatalog.PRODUCTS; k += 1) {
+            ArrayList<Integer> lengths = new ArrayList<>();
+            boolean[] seen = new boolean[size];
+            for (int start = 0; start < size; start += 1) {
+                int len = 0;
+                for (int c = start; !seen[c]; c = subst[k + 3][subst[k][c]]) {
+                    seen[c] = true;
+                    len += 1;
+                }
+                if (len > 0) {
+                    lengths.add(len);
+                }
+            }
+            lengths.sort(Collections.reverseOrder());
+            result[k] = lengths.stream().mapToInt(Integer::intValue)
+                .toArray();
+        }
+        return result;
+    }
+
+    @Test
+    public void checkBuildAndLookup() throws IOException {
+        Configuration config = Configuration.parse(CONFIG_TEXT);
+        Path file = Files.createTempFile("enigma", ".cat");
+        try {
+            CycleCatalog.build(config, file, 3);
+            CycleCatalog catalog = new CycleCatalog(config, file);
+            KeySpace space = new KeySpace(config, 100);
+            assertEquals(space.numKeys(), catalog.size());
+            Random random = new Random(42);
+            Machine m = config.newMachine();
+            for (int k = 0; k < 30; k += 1) {
+                String settings =
+                    space.settings((long) (random.nextDouble()
+                                           * space.numKeys()));
+                int[][] ch = converted(m, settings + " (AH) (CE)");
+                m.setUp(settings);
+                assertTrue(Arrays.deepEquals(ch,
+                    CycleCatalog.characteristic(m)));
+                List<String> found = catalog.lookup(ch);
+                assertTrue(settings, found.contains(settings));
+                for (String other : found) {
+                    m.setUp(other);
+                    assertTrue(Arrays.deepEquals(ch,
+                        CycleCatalog.characteristic(m)));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void checkOutOfDate() throws IOException {
+        Configuration config = Configuration.parse(CONFIG_TEXT);
+        Path file = Files.createTempFile("enigma", ".cat");
+        try {
+            CycleCatalog.build(config, file, 2);
+            Configuration changed = Configuration.parse(
+                CONFIG_TEXT.replace("(AE) (BFC)", "(AE) (BFD)"));
+            try {
+                new CycleCatalog(changed, file);
+                fail("stale catalog accepted");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("out of date"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void checkCorrupt() throws IOException {
+        Configuration config = Configuration.parse(CONFIG_TEXT);
+        Path file = Files.createTempFile("enigma", ".cat");
+        try {
+            CycleCatalog.build(config, file, 2);
+            byte[] data = Files.readAllBytes(file);
+            data[data.length - 20] ^= 1;
+            Files.write(file, data);
+            try {
+                new CycleCatalog(config, file);
+                fail("corrupt catalog accepted");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("corrupt"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
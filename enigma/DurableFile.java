@@ -0,0 +1,61 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/** Replacement of files that survives crashes: new contents go to a
+ *  temporary file beside the target, which is forced to disk and then
+ *  renamed over the target, so that readers see either the old file or
+ *  all of the new one.  The temporary file is removed if anything goes
+ *  wrong.
+ *  @author James (Dayuan) Tang
+ */
+class DurableFile {
+
+    /** Contents written to a stream. */
+    interface Contents {
+        /** Write the contents to OUT. */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** Durably replace FILE with DATA. */
+    static void write(Path file, byte[] data) throws IOException {
+        write(file, out -> out.write(data));
+    }
+
+    /** Durably replace FILE with what CONTENTS writes. */
+    static void write(Path file, Contents contents) throws IOException {
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(),
+                                        file.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp,
+                     StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream out = new BufferedOutputStream(
+                    Channels.newOutputStream(ch), BUFFER);
+                contents.writeTo(out);
+                out.flush();
+                ch.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException excp) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                excp.addSuppressed(ignored);
+            }
+            throw excp;
+        }
+    }
+
+    /** Size of the buffer in front of the temporary file. */
+    private static final int BUFFER = 1 << 16;
+}
@@ -0,0 +1,79 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The suite of all JUnit tests for the DurableFile class.
+ *  @author James (Dayuan) Tang
+ */
+public class DurableFileTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Return the number of entries in DIR. */
+    private static int entries(Path dir) throws IOException {
+        int n = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path ignored : files) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void checkReplaces() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path file = dir.resolve("data");
+        try {
+            DurableFile.write(file, new byte[] {1, 2, 3});
+            assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(file));
+            DurableFile.write(file, out -> out.write(new byte[] {4, 5}));
+            assertArrayEquals(new byte[] {4, 5}, Files.readAllBytes(file));
+            assertEquals(1, entries(dir));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void checkFailureLeavesFile() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path file = dir.resolve("data");
+        try {
+            DurableFile.write(file, new byte[] {1, 2, 3});
+            try {
+                DurableFile.write(file, out -> {
+                    out.write(new byte[] {4, 5});
+                    throw new IOException("disk full");
+                });
+                fail("failed write");
+            } catch (IOException excp) {
+                assertEquals("disk full", excp.getMessage());
+            }
+            try {
+                DurableFile.write(file, out -> {
+                    throw EnigmaException.error("bad contents");
+                });
+                fail("failed write");
+            } catch (EnigmaException excp) {
+                assertEquals("bad contents", excp.getMessage());
+            }
+            assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(file));
+            assertEquals(1, entries(dir));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
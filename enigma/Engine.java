@@ -0,0 +1,115 @@
+package enigma;
+
+/** Ways for a machine to encipher a message, all giving exactly the
+ *  results of calling Machine.convert(int) on each character in turn.
+ *  Which is fastest depends on the alphabet, the rotors and the length
+ *  of the message; EngineSelector measures them.
+ *
+ *  Each engine converts the message IN[0..N) into OUT[0..N), advancing
+ *  the machine as it goes.  Negative entries of IN are not characters
+ *  of the message (Machine uses them for characters passed through
+ *  unchanged) and are left alone.
+ *  @author James (Dayuan) Tang
+ */
+enum Engine {
+
+    /** Walk each character through every rotor and back, one stage at a
+     *  time. */
+    WALK {
+        @Override
+        void convert(Machine m, int[] in, int[] out, int n) {
+            for (int i = 0; i < n; i += 1) {
+                if (in[i] >= 0) {
+                    out[i] = m.convert(in[i]);
+                }
+            }
+        }
+    },
+
+    /** Walk each character through the rightmost rotor only, and through
+     *  everything to its left (the reflector and the slower rotors) by a
+     *  single table lookup.  That table stays valid until one of those
+     *  rotors moves, usually once every alphabet-size keystrokes, and
+     *  its entries are filled in as they are first needed. */
+    FUSED {
+        @Override
+        void convert(Machine m, int[] in, int[] out, int n) {
+            Rotor[] slots = m.rotorSlots().toArray(new Rotor[0]);
+            int last = slots.length - 1;
+            Rotor fast = slots[last];
+            Permutation plugboard = m.plugboard();
+            int size = m.alphabet().size();
+            int[] core = new int[size], stamp = new int[size];
+            int[] slow = new int[last];
+            int generation = 0;
+            for (int i = 0; i < n; i += 1) {
+                if (in[i] < 0) {
+                    continue;
+                }
+                m.machineAdvance();
+                boolean moved = generation == 0;
+                for (int s = 0; s < last; s += 1) {
+                    int setting = slots[s].setting();
+                    if (setting != slow[s]) {
+                        slow[s] = setting;
+                        moved = true;
+                    }
+                }
+                if (moved) {
+                    generation += 1;
+                }
+                int x = fast.convertForward(plugboard.permute(in[i]));
+                if (stamp[x] != generation) {
+                    core[x] = convertCore(slots, x);
+                    stamp[x] = generation;
+                }
+                out[i] = plugboard.invert(fast.convertBackward(core[x]));
+            }
+        }
+    },
+
+    /** Record the rotors' substitution at every keystroke of the message
+     *  in a RotorTrace first, then look each character up in it. */
+    TRACE {
+        @Override
+        void convert(Machine m, int[] in, int[] out, int n) {
+            int count = 0;
+            for (int i = 0; i < n; i += 1) {
+                if (in[i] >= 0) {
+                    count += 1;
+                }
+            }
+            int[] msg = new int[count];
+            for (int i = 0, k = 0; i < n; i += 1) {
+                if (in[i] >= 0) {
+                    msg[k] = in[i];
+                    k += 1;
+                }
+            }
+            m.trace(count).convert(msg, m.plugboard(), msg);
+            for (int i = 0, k = 0; i < n; i += 1) {
+                if (in[i] >= 0) {
+                    out[i] = msg[k];
+                    k += 1;
+                }
+            }
+        }
+    };
+
+    /** Convert IN[0..N) into OUT[0..N) with machine M (see above). */
+    abstract void convert(Machine m, int[] in, int[] out, int n);
+
+    /** Return the index to which the rotors in SLOTS other than the
+     *  rightmost send X: forward through them to the reflector in slot
+     *  0 and back. */
+    private static int convertCore(Rotor[] slots, int x) {
+        int last = slots.length - 1;
+        for (int s = last - 1; s >= 0; s -= 1) {
+            x = slots[s].convertForward(x);
+        }
+        for (int s = 1; s < last; s += 1) {
+            x = slots[s].convertBackward(x);
+        }
+        return x;
+    }
+}
@@ -0,0 +1,286 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+/** Chooses the Engine a machine uses for each message.  Workloads are
+ *  classed by alphabet size, number of rotor slots and message length
+ *  (in buckets growing by factors of four); the first message of a
+ *  class triggers a short calibration that times the engines on that
+ *  machine, and the fastest is used from then on.  Calibration converts
+ *  at most CALIBRATION_LENGTH characters at a time and CALIBRATION_CHARS
+ *  in all per engine, and TRACE, whose table grows with alphabet size
+ *  times message length, is only a candidate where that product is at
+ *  most TRACE_LIMIT for every message in the class.  Timings may be
+ *  cached in a file, keyed also by the number of available processors
+ *  and the Java version, so later runs on the same host skip
+ *  calibration.
+ *  @author James (Dayuan) Tang
+ */
+class EngineSelector {
+
+    /** A selector that caches calibrations in CACHE (if not null) and,
+     *  if REPORT is not null, describes each choice it makes there.  If
+     *  FORCED is not null, it is always chosen. */
+    EngineSelector(Path cache, Engine forced, PrintStream report) {
+        _cache = cache;
+        _forced = forced;
+        _report = report;
+        _host = Runtime.getRuntime().availableProcessors() + " cpus, java "
+            + System.getProperty("java.version");
+        load();
+    }
+
+    /** Return the engine for converting a message of LENGTH alphabet
+     *  characters with M. */
+    synchronized Engine choose(Machine m, int length) {
+        int bucket = bucket(length);
+        String key = key(m, bucket);
+        Engine result = _chosen.get(key);
+        if (result != null) {
+            return result;
+        }
+        String why;
+        if (_forced != null) {
+            result = _forced;
+            why = "forced";
+        } else {
+            boolean trace = traceable(m, bucket);
+            EnumMap<Engine, Double> times = _times.get(key);
+            why = "cached";
+            if (times == null) {
+                times = calibrate(m, Math.min(BUCKET_LENGTHS[bucket],
+                                              CALIBRATION_LENGTH), trace);
+                _times.put(key, times);
+                save();
+                why = "calibrated";
+            }
+            result = fastest(times, trace);
+            why += ": " + describe(times);
+        }
+        _chosen.put(key, result);
+        if (_report != null) {
+            _report.printf("engine %s for %s (%s)%n", result,
+                           describe(m, bucket), why);
+        }
+        return result;
+    }
+
+    /** Return true iff TRACE may convert every message in bucket BUCKET
+     *  on M: its table for the longest of them has at most TRACE_LIMIT
+     *  entries. */
+    private static boolean traceable(Machine m, int bucket) {
+        return bucket < BUCKET_LENGTHS.length - 1
+            && (long) m.alphabet().size() * BUCKET_LENGTHS[bucket]
+               <= TRACE_LIMIT;
+    }
+
+    /** Return the engine among TIMES with the least time, excluding
+     *  TRACE unless TRACE is true. */
+    private static Engine fastest(EnumMap<Engine, Double> times,
+                                  boolean trace) {
+        Engine result = Engine.WALK;
+        for (Engine e : times.keySet()) {
+            if ((trace || e != Engine.TRACE)
+                && times.get(e) < times.get(result)) {
+                result = e;
+            }
+        }
+        return result;
+    }
+
+    /** Return the nanoseconds per character each engine (TRACE only if
+     *  TRACE is true) takes to convert random messages of LENGTH
+     *  characters with M, leaving M as it was.  Each engine is first run
+     *  for a while to let the compiler settle, then timed over several
+     *  short trials, of which the best counts; no engine converts more
+     *  than about CALIBRATION_CHARS characters in all. */
+    private EnumMap<Engine, Double> calibrate(Machine m, int length,
+                                              boolean trace) {
+        int[] saved = m.positions();
+        Random random = new Random(length);
+        int[] in = new int[length], out = new int[length];
+        for (int i = 0; i < length; i += 1) {
+            in[i] = random.nextInt(m.alphabet().size());
+        }
+        EnumMap<Engine, Double> result = new EnumMap<>(Engine.class);
+        long budget = CALIBRATION_CHARS / (TRIALS + 1);
+        for (Engine e : Engine.values()) {
+            if (e == Engine.TRACE && !trace) {
+                continue;
+            }
+            run(e, m, in, out, WARMUP_NANOS, budget);
+            double best = Double.MAX_VALUE;
+            for (int t = 0; t < TRIALS; t += 1) {
+                best = Math.min(best,
+                                run(e, m, in, out, TRIAL_NANOS, budget));
+            }
+            result.put(e, best);
+        }
+        m.setPositions(saved);
+        return result;
+    }
+
+    /** Convert IN into OUT with engine E on M repeatedly for about
+     *  NANOS nanoseconds, but at least once and no more than about CHARS
+     *  characters, and return the nanoseconds per character. */
+    private static double run(Engine e, Machine m, int[] in, int[] out,
+                              long nanos, long chars) {
+        long start = System.nanoTime(), elapsed, done = 0;
+        do {
+            e.convert(m, in, out, in.length);
+            done += in.length;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos && done + in.length <= chars);
+        return (double) elapsed / done;
+    }
+
+    /** Return the length bucket of a message of LENGTH characters. */
+    static int bucket(int length) {
+        int b = 0;
+        while (b < BUCKET_LENGTHS.length - 1 && length > BUCKET_LENGTHS[b]) {
+            b += 1;
+        }
+        return b;
+    }
+
+    /** Return the cache key for messages in bucket BUCKET on M. */
+    private static String key(Machine m, int bucket) {
+        return "a" + m.alphabet().size() + ".s" + m.numRotors()
+            + ".b" + bucket;
+    }
+
+    /** Return a description of the workload class of BUCKET on M. */
+    private static String describe(Machine m, int bucket) {
+        int lo = bucket == 0 ? 0 : BUCKET_LENGTHS[bucket - 1] + 1;
+        String lengths = bucket == BUCKET_LENGTHS.length - 1
+            ? "over " + (lo - 1) : lo + "-" + BUCKET_LENGTHS[bucket];
+        return String.format("%d-character alphabet, %d slots, messages "
+                             + "of %s characters", m.alphabet().size(),
+                             m.numRotors(), lengths);
+    }
+
+    /** Return TIMES as a list of ns/char figures. */
+    private static String describe(EnumMap<Engine, Double> times) {
+        StringBuilder result = new StringBuilder();
+        for (Engine e : times.keySet()) {
+            result.append(result.length() == 0 ? "" : ", ")
+                .append(String.format(Locale.ROOT, "%s %.1f", e,
+                                      times.get(e)));
+        }
+        return result.append(" ns/char").toString();
+    }
+
+    /** Read my cache file, if there is one for this host. */
+    private void load() {
+        if (_cache == null) {
+            return;
+        }
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(_cache)) {
+            props.load(in);
+        } catch (IOException | IllegalArgumentException excp) {
+            return;
+        }
+        if (!_host.equals(props.getProperty(HOST_KEY))) {
+            return;
+        }
+        for (String key : props.stringPropertyNames()) {
+            if (key.equals(HOST_KEY)) {
+                continue;
+            }
+            EnumMap<Engine, Double> times = new EnumMap<>(Engine.class);
+            try {
+                String[] fields = props.getProperty(key).trim().split(" +");
+                for (int i = 0; i + 1 < fields.length; i += 2) {
+                    times.put(Engine.valueOf(fields[i]),
+                              Double.parseDouble(fields[i + 1]));
+                }
+            } catch (IllegalArgumentException excp) {
+                continue;
+            }
+            if (times.containsKey(Engine.WALK)) {
+                _times.put(key, times);
+            }
+        }
+    }
+
+    /** Write my calibrations to my cache file, if I have one.  The cache
+     *  only saves time, so failure to write it is not an error. */
+    private void save() {
+        if (_cache == null) {
+            return;
+        }
+        Properties props = new Properties();
+        props.setProperty(HOST_KEY, _host);
+        for (String key : _times.keySet()) {
+            StringBuilder value = new StringBuilder();
+            for (Engine e : _times.get(key).keySet()) {
+                value.append(e).append(' ').append(_times.get(key).get(e))
+                    .append(' ');
+            }
+            props.setProperty(key, value.toString().trim());
+        }
+        try {
+            DurableFile.write(_cache, out ->
+                props.store(out, "Enigma engine calibrations (ns/char)"));
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Largest message length in each bucket; the last is unbounded and
+     *  its entry is the length used to calibrate it. */
+    private static final int[] BUCKET_LENGTHS = {
+        16, 64, 256, 1024, 4096, 16384
+    };
+
+    /** Longest message converted at once in calibration. */
+    private static final int CALIBRATION_LENGTH = 4096;
+
+    /** Most characters each engine converts in one calibration. */
+    private static final long CALIBRATION_CHARS = 1 << 18;
+
+    /** Most entries in a RotorTrace made for a message TRACE converts
+     *  when chosen by calibration. */
+    private static final long TRACE_LIMIT = 1 << 20;
+
+    /** Nanoseconds each engine runs before it is timed. */
+    private static final long WARMUP_NANOS = 20_000_000;
+
+    /** Number of timing trials per engine. */
+    private static final int TRIALS = 3;
+
+    /** Length in nanoseconds of each timing trial. */
+    private static final long TRIAL_NANOS = 5_000_000;
+
+    /** Cache property recording the host the timings are for. */
+    private static final String HOST_KEY = "host";
+
+    /** Cache file, or null. */
+    private final Path _cache;
+
+    /** Engine always chosen, or null. */
+    private final Engine _forced;
+
+    /** Where choices are described, or null. */
+    private final PrintStream _report;
+
+    /** Description of this host, for the cache. */
+    private final String _host;
+
+    /** Timings by workload class. */
+    private final HashMap<String, EnumMap<Engine, Double>> _times =
+        new HashMap<>();
+
+    /** Engines chosen so far by workload class. */
+    private final HashMap<String, Engine> _chosen = new HashMap<>();
+}
@@ -0,0 +1,118 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Engine and EngineSelector
+ *  classes.
+ *  @author James (Dayuan) Tang
+ */
+public class EngineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    @Test
+    public void checkEnginesAgree() {
+        Configuration config = Configuration.parse(NAVAL_CONFIG);
+        Random random = new Random(47);
+        for (int trial = 0; trial < 20; trial += 1) {
+            int n = random.nextInt(2000);
+            int[] in = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                in[i] = random.nextInt(10) == 0 ? ~'-' : random.nextInt(26);
+            }
+            Machine reference = config.newMachine();
+            reference.setUp(NAVAL_SETTINGS);
+            int[] expected = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                if (in[i] >= 0) {
+                    expected[i] = reference.convert(in[i]);
+                }
+            }
+            for (Engine e : Engine.values()) {
+                Machine m = config.newMachine();
+                m.setUp(NAVAL_SETTINGS);
+                int[] out = new int[n];
+                e.convert(m, in, out, n);
+                for (int i = 0; i < n; i += 1) {
+                    if (in[i] >= 0) {
+                        assertEquals(e + " at " + i, expected[i], out[i]);
+                    }
+                }
+                assertArrayEquals(reference.positions(), m.positions());
+            }
+        }
+    }
+
+    @Test
+    public void checkLargeAlphabetCalibration() {
+        int size = 20000, first = 0x4e00;
+        StringBuilder config = new StringBuilder();
+        config.appendCodePoint(first).append('-')
+            .appendCodePoint(first + size - 1).append(" 2 1\n R R");
+        for (int i = 0; i < size; i += 2) {
+            config.append(" (").appendCodePoint(first + i)
+                .appendCodePoint(first + i + 1).append(')');
+        }
+        config.append("\n M M (").appendCodePoint(first)
+            .appendCodePoint(first + 1).append(")\n");
+        Machine m = Configuration.parse(config.toString()).newMachine();
+        m.setUp("* R M " + new String(Character.toChars(first + 7)));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EngineSelector selector =
+            new EngineSelector(null, null, new PrintStream(bytes));
+        assertNotEquals(Engine.TRACE, selector.choose(m, 20000));
+        assertTrue(bytes.toString().contains("(calibrated: WALK "));
+        assertFalse(bytes.toString().contains("TRACE"));
+    }
+
+    @Test
+    public void checkSelector() throws Exception {
+        Configuration config = Configuration.parse(NAVAL_CONFIG);
+        Path cache = Files.createTempFile("enigma", ".properties");
+        Files.delete(cache);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            EngineSelector selector =
+                new EngineSelector(cache, null, new PrintStream(bytes));
+            Machine m = config.newMachine();
+            m.setUp(NAVAL_SETTINGS);
+            m.setEngines(selector);
+            Machine plain = config.newMachine();
+            plain.setUp(NAVAL_SETTINGS);
+            assertEquals(plain.convert("HELLO WORLD"),
+                         m.convert("HELLO WORLD"));
+            assertArrayEquals(plain.positions(), m.positions());
+            assertTrue(bytes.toString().contains("(calibrated: WALK "));
+            assertTrue(Files.exists(cache));
+
+            bytes.reset();
+            EngineSelector again =
+                new EngineSelector(cache, null, new PrintStream(bytes));
+            assertEquals(selector.choose(m, 5), again.choose(m, 5));
+            assertTrue(bytes.toString().contains("(cached: WALK "));
+
+            bytes.reset();
+            EngineSelector forced = new EngineSelector(null, Engine.TRACE,
+                new PrintStream(bytes));
+            assertEquals(Engine.TRACE, forced.choose(m, 100000));
+            assertTrue(bytes.toString().startsWith("engine TRACE for "
+                + "26-character alphabet, 5 slots, messages of over 4096 "
+                + "characters (forced)"));
+        } finally {
+            Files.deleteIfExists(cache);
+        }
+    }
+}
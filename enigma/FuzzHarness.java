@@ -0,0 +1,645 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** Differential tests of the optimized paths through a machine against
+ *  the reference, one character at a time through Machine.convert(int)
+ *  and machineAdvance, on random configurations: alphabets that are
+ *  ranges or arbitrary characters, occasionally ranges of thousands of
+ *  characters, rotors with random cycles and notches, random numbers of
+ *  slots and pawls, and random settings, plugboards and messages.  Each
+ *  case checks every Engine, on compiled rotors and on rotor tables
+ *  mapped from a TableStore, advanceBy, rotorPermutation, RotorTrace
+ *  and KeystreamIndex, and large alphabets also the engine calibration
+ *  picks.  Then each engine's throughput is measured on a fixed
+ *  workload and compared with a stored baseline.
+ *  @author James (Dayuan) Tang
+ */
+public final class FuzzHarness {
+
+    /** Run the harness as described by ARGS, among which may appear:
+     *    --seed=S        Seed for the random cases (default 1).
+     *    --cases=N       Number of random cases (default 1000).
+     *    --baseline=FILE Compare throughput with the figures in FILE.
+     *    --tolerance=P   Fail if any engine is more than P percent
+     *                    slower than its baseline (default 10).
+     *    --update-baseline  Write the measured throughput to the
+     *                    --baseline FILE instead of comparing.
+     *  Exits normally if every case agrees and nothing regressed;
+     *  otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            run(args);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Run the harness with the options ARGS (see main). */
+    private static void run(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = !arg.startsWith("--") ? ""
+                : eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            if (!OPTIONS.contains(name)) {
+                throw error("unknown option %s", arg);
+            }
+            options.put(name, eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        long seed;
+        int cases;
+        double tolerance;
+        try {
+            seed = Long.parseLong(options.getOrDefault("seed", "1"));
+            cases = Integer.parseInt(options.getOrDefault("cases", "1000"));
+            tolerance =
+                Double.parseDouble(options.getOrDefault("tolerance", "10"));
+        } catch (NumberFormatException excp) {
+            throw error("--seed, --cases and --tolerance need numbers");
+        }
+        if (cases < 0) {
+            throw error("--cases may not be negative");
+        } else if (options.containsKey("update-baseline")
+                   && !options.containsKey("baseline")) {
+            throw error("--update-baseline requires --baseline=FILE");
+        }
+
+        FuzzHarness harness = new FuzzHarness(seed);
+        int checks = harness.runCases(cases);
+        System.out.printf("%d cases, %d checks agree%n", cases, checks);
+
+        EnumMap<Engine, Double> current = throughput();
+        String file = options.get("baseline");
+        if (file == null) {
+            report(current, null);
+        } else if (options.containsKey("update-baseline")) {
+            writeBaseline(Paths.get(file), current);
+            report(current, null);
+        } else {
+            EnumMap<Engine, Double> baseline = readBaseline(Paths.get(file));
+            report(current, baseline);
+            List<String> slow = regressions(baseline, current, tolerance);
+            if (!slow.isEmpty()) {
+                throw error("throughput regressed: %s",
+                            String.join(", ", slow));
+            }
+        }
+    }
+
+    /** A harness generating cases from SEED. */
+    FuzzHarness(long seed) {
+        _seed = seed;
+    }
+
+    /** Check CASES random cases, returning the number of checks made,
+     *  and throwing an exception describing the first disagreement. */
+    int runCases(int cases) {
+        int checks = 0;
+        for (int k = 0; k < cases; k += 1) {
+            Case c = new Case(new Random(_seed * CASE_STRIDE + k));
+            try {
+                checks += c.check();
+            } catch (EnigmaException | AssertionError excp) {
+                throw error("case %d (seed %d) failed: %s%nconfiguration:"
+                            + "%n%s%nsettings: %s%nmessage: %s", k, _seed,
+                            excp.getMessage(), c.config, c.settings,
+                            c.message);
+            }
+        }
+        return checks;
+    }
+
+    /** A random configuration, settings line and message. */
+    static class Case {
+
+        /** A case drawn from RANDOM. */
+        Case(Random random) {
+            _random = random;
+            int[] alphabet = alphabet();
+            StringBuilder text = new StringBuilder();
+            if (_range) {
+                text.appendCodePoint(alphabet[0]).append('-')
+                    .appendCodePoint(alphabet[alphabet.length - 1]);
+            } else {
+                for (int cp : alphabet) {
+                    text.appendCodePoint(cp);
+                }
+            }
+            int pawls = 1 + random.nextInt(Math.min(4, alphabet.length));
+            int fixed = random.nextInt(3);
+            int slots = 1 + fixed + pawls;
+            text.append(' ').append(slots).append(' ').append(pawls)
+                .append('\n');
+            String[] chosen = new String[slots];
+            int reflectors = 1 + random.nextInt(2);
+            for (int i = 0; i < reflectors; i += 1) {
+                rotor(text, "R" + i, "R", involution(alphabet.length),
+                      alphabet);
+            }
+            chosen[0] = "R" + random.nextInt(reflectors);
+            for (int i = 0; i < fixed + 1; i += 1) {
+                rotor(text, "F" + i, "N", permutation(alphabet.length),
+                      alphabet);
+            }
+            for (int i = 1; i <= fixed; i += 1) {
+                chosen[i] = "F" + (i - 1);
+            }
+            for (int i = 0; i < pawls + 1; i += 1) {
+                rotor(text, "M" + i, "M" + notches(alphabet),
+                      permutation(alphabet.length), alphabet);
+            }
+            int[] moving = permutation(pawls + 1);
+            for (int i = 0; i < pawls; i += 1) {
+                chosen[fixed + 1 + i] = "M" + moving[i];
+            }
+            config = text.toString();
+
+            StringBuilder line = new StringBuilder("*");
+            for (String name : chosen) {
+                line.append(' ').append(name);
+            }
+            line.append(' ');
+            for (int i = 1; i < slots; i += 1) {
+                line.appendCodePoint(alphabet[random.nextInt(
+                    alphabet.length)]);
+            }
+            int[] plug = permutation(alphabet.length);
+            for (int i = 0; i + 1 < alphabet.length; i += 2) {
+                if (random.nextInt(3) == 0) {
+                    line.append(" (").appendCodePoint(alphabet[plug[i]])
+                        .appendCodePoint(alphabet[plug[i + 1]]).append(')');
+                }
+            }
+            settings = line.toString();
+
+            StringBuilder msg = new StringBuilder();
+            int length = random.nextInt(_large ? LARGE_MESSAGE : MAX_MESSAGE);
+            for (int i = 0; i < length; i += 1) {
+                int cp = alphabet[random.nextInt(alphabet.length)];
+                int lower = Character.toLowerCase(cp);
+                if (random.nextInt(8) == 0) {
+                    msg.append(' ');
+                } else if (lower != cp && Character.toUpperCase(lower) == cp
+                           && random.nextBoolean()) {
+                    msg.appendCodePoint(lower);
+                } else {
+                    msg.appendCodePoint(cp);
+                }
+            }
+            message = msg.toString();
+        }
+
+        /** Return the code points of a random alphabet, setting _range
+         *  if it is to be written as a range.  One alphabet in LARGE_ODDS
+         *  is a range too large for byte tables, and a quarter of those
+         *  too large for short tables. */
+        private int[] alphabet() {
+            if (_random.nextInt(LARGE_ODDS) == 0) {
+                _range = _large = true;
+                boolean huge = _random.nextInt(4) == 0;
+                int least = huge ? IndexTable.SHORT_LIMIT + 1
+                    : IndexTable.BYTE_LIMIT + 1;
+                int size = least + _random.nextInt(huge ? HUGE_EXTRA
+                                                   : LARGE_ALPHABET - least);
+                int first = huge ? HUGE_START : LARGE_START;
+                int[] result = new int[size];
+                for (int i = 0; i < size; i += 1) {
+                    result[i] = first + i;
+                }
+                return result;
+            }
+            int size = 2 + _random.nextInt(MAX_ALPHABET - 1);
+            _range = _random.nextBoolean();
+            if (_range) {
+                int first = RANGE_STARTS[_random.nextInt(RANGE_STARTS.length)];
+                int[] result = new int[Math.min(size, RANGE_MAX)];
+                for (int i = 0; i < result.length; i += 1) {
+                    result[i] = first + i;
+                }
+                return result;
+            }
+            int[] pool = POOL.codePoints().toArray();
+            for (int i = pool.length - 1; i > 0; i -= 1) {
+                int j = _random.nextInt(i + 1);
+                int t = pool[i];
+                pool[i] = pool[j];
+                pool[j] = t;
+            }
+            return Arrays.copyOf(pool, size);
+        }
+
+        /** Append to TEXT a rotor named NAME of type TYPE with permutation
+         *  PERM over ALPHABET, in cycle notation, sometimes split over
+         *  continuation lines and sometimes with 1-cycles written. */
+        private void rotor(StringBuilder text, String name, String type,
+                           int[] perm, int[] alphabet) {
+            text.append(' ').append(name).append(' ').append(type);
+            boolean[] seen = new boolean[perm.length];
+            for (int start = 0; start < perm.length; start += 1) {
+                if (seen[start]) {
+                    continue;
+                }
+                if (perm[start] == start && _random.nextBoolean()) {
+                    seen[start] = true;
+                    continue;
+                }
+                text.append(_random.nextInt(6) == 0 ? "\n   " : " ")
+                    .append('(');
+                for (int c = start; !seen[c]; c = perm[c]) {
+                    seen[c] = true;
+                    text.appendCodePoint(alphabet[c]);
+                }
+                text.append(')');
+            }
+            text.append('\n');
+        }
+
+        /** Return the notches of a moving rotor over ALPHABET: none,
+         *  some, adjacent ones or all of them. */
+        private String notches(int[] alphabet) {
+            StringBuilder result = new StringBuilder();
+            int kind = _random.nextInt(8);
+            for (int i = 0; i < alphabet.length; i += 1) {
+                boolean notch = kind == 0 ? false
+                    : kind == 1 ? true
+                    : kind == 2 ? i < 2
+                    : _random.nextInt(alphabet.length) < kind - 2;
+                if (notch) {
+                    result.appendCodePoint(alphabet[i]);
+                }
+            }
+            return result.toString();
+        }
+
+        /** Return a random permutation of 0 .. N-1. */
+        private int[] permutation(int n) {
+            int[] result = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                result[i] = i;
+            }
+            for (int i = n - 1; i > 0; i -= 1) {
+                int j = _random.nextInt(i + 1);
+                int t = result[i];
+                result[i] = result[j];
+                result[j] = t;
+            }
+            return result;
+        }
+
+        /** Return a random involution of 0 .. N-1 with as few fixed
+         *  points as possible. */
+        private int[] involution(int n) {
+            int[] order = permutation(n);
+            int[] result = new int[n];
+            for (int i = 0; i + 1 < n; i += 2) {
+                result[order[i]] = order[i + 1];
+                result[order[i + 1]] = order[i];
+            }
+            if (n % 2 == 1) {
+                result[order[n - 1]] = order[n - 1];
+            }
+            return result;
+        }
+
+        /** Check every optimized path against the reference for this
+         *  case, returning the number of checks made. */
+        int check() {
+            Configuration conf = Configuration.parse(config);
+            conf.library().compileAll();
+            Machine reference = newMachine(conf);
+            Alphabet alphabet = conf.alphabet();
+            InputNormalizer normalizer = reference.normalizer();
+            int[] in = message.codePoints().map(normalizer::index)
+                .filter(x -> x >= 0).toArray();
+            int[] expected = new int[in.length];
+            StringBuilder text = new StringBuilder();
+            ArrayList<int[]> states = new ArrayList<>();
+            states.add(reference.positions());
+            for (int i = 0; i < in.length; i += 1) {
+                expected[i] = reference.convert(in[i]);
+                text.appendCodePoint(alphabet.toCodePoint(expected[i]));
+                states.add(reference.positions());
+            }
+            int checks = 0;
+
+            for (Engine e : Engine.values()) {
+                Machine m = newMachine(conf);
+                m.setEngines(new EngineSelector(null, e, null));
+                check(text.toString().equals(m.convert(message)),
+                      "engine %s output", e);
+                check(Arrays.equals(states.get(in.length), m.positions()),
+                      "engine %s final positions", e);
+                checks += 2;
+            }
+            if (_large) {
+                Machine m = newMachine(conf);
+                m.setEngines(new EngineSelector(null, null, null));
+                check(text.toString().equals(m.convert(message)),
+                      "calibrated engine output");
+                checks += 1;
+            }
+
+            checks += checkTableStore(text.toString());
+
+            Machine stepped = newMachine(conf);
+            long n = _random.nextInt(in.length + 1);
+            stepped.advanceBy(n);
+            check(Arrays.equals(states.get((int) n), stepped.positions()),
+                  "advanceBy(%d)", n);
+            checks += 1;
+
+            Machine traced = newMachine(conf);
+            RotorTrace trace = traced.trace(in.length);
+            int[] viaTrace = trace.convert(in, traced.plugboard(),
+                                           new int[in.length]);
+            check(Arrays.equals(expected, viaTrace), "rotor trace");
+            checks += 1;
+
+            Machine whole = newMachine(conf);
+            for (int k = 0; k < Math.min(in.length, PERMUTATION_CHECKS);
+                 k += 1) {
+                whole.machineAdvance();
+                Permutation p = whole.rotorPermutation();
+                int c = in[k];
+                check(whole.plugboard().invert(p.permute(
+                          whole.plugboard().permute(c))) == expected[k],
+                      "rotor permutation at %d", k);
+                checks += 1;
+            }
+
+            Machine indexed = newMachine(conf);
+            int interval = 1 + _random.nextInt(INDEX_INTERVAL);
+            KeystreamIndex index =
+                KeystreamIndex.build(indexed, settings, in.length, interval);
+            long offset = _random.nextInt(in.length + 1);
+            Machine sought = newMachine(conf);
+            index.seek(sought, offset);
+            check(Arrays.equals(states.get((int) offset), sought.positions()),
+                  "keystream index seek to %d", offset);
+            checks += 1;
+            return checks;
+        }
+
+        /** Check that every Engine, with the rotors' tables mapped from a
+         *  table store, converts my message to TEXT, returning the
+         *  number of checks made. */
+        private int checkTableStore(String text) {
+            Path file = null;
+            try {
+                file = Files.createTempFile("fuzz", ".tables");
+                Configuration stored = Configuration.parse(config);
+                TableStore.attach(stored, file);
+                for (Engine e : Engine.values()) {
+                    Machine m = newMachine(stored);
+                    m.setEngines(new EngineSelector(null, e, null));
+                    check(text.equals(m.convert(message)),
+                          "engine %s output over a table store", e);
+                }
+                return Engine.values().length;
+            } catch (IOException excp) {
+                throw error("could not create a table store");
+            } finally {
+                try {
+                    if (file != null) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException excp) {
+                    System.err.printf("could not delete %s%n", file);
+                }
+            }
+        }
+
+        /** Return a machine of CONF set up for my settings. */
+        private Machine newMachine(Configuration conf) {
+            Machine result = conf.newMachine();
+            result.setUp(settings);
+            result.checkRotors();
+            return result;
+        }
+
+        /** Fail with the message formed from FORMAT and ARGS unless
+         *  OK. */
+        private static void check(boolean ok, String format,
+                                  Object... args) {
+            if (!ok) {
+                throw error("%s differs from the reference",
+                            String.format(format, args));
+            }
+        }
+
+        /** Text of the configuration file. */
+        final String config;
+
+        /** Settings line. */
+        final String settings;
+
+        /** Message to convert. */
+        final String message;
+
+        /** Source of random choices. */
+        private final Random _random;
+
+        /** True iff the alphabet is written as a range. */
+        private boolean _range;
+
+        /** True iff the alphabet is too large for byte tables. */
+        private boolean _large;
+    }
+
+    /** Return the characters per second each engine converts on a fixed
+     *  workload: the usual 26-letter machine and long messages. */
+    static EnumMap<Engine, Double> throughput() {
+        Machine probe = Configuration.parse(BENCHMARK).newMachine();
+        probe.setUp(BENCHMARK_SETTINGS);
+        StringBuilder msg = new StringBuilder();
+        Random random = new Random(THROUGHPUT_SEED);
+        for (int i = 0; i < BENCHMARK_LENGTH; i += 1) {
+            msg.append((char) ('A' + random.nextInt(26)));
+        }
+        String message = msg.toString();
+        EnumMap<Engine, Double> result = new EnumMap<>(Engine.class);
+        for (Engine e : Engine.values()) {
+            probe.setEngines(new EngineSelector(null, e, null));
+            double best = 0;
+            for (int t = 0; t < BENCHMARK_TRIALS; t += 1) {
+                long start = System.nanoTime(), chars = 0;
+                do {
+                    probe.convert(message);
+                    chars += message.length();
+                } while (System.nanoTime() - start < BENCHMARK_NANOS);
+                best = Math.max(best, chars * 1e9
+                                / (System.nanoTime() - start));
+            }
+            result.put(e, best);
+        }
+        return result;
+    }
+
+    /** Return a description of each engine in BASELINE whose throughput
+     *  in CURRENT is more than TOLERANCE percent below it. */
+    static List<String> regressions(Map<Engine, Double> baseline,
+                                    Map<Engine, Double> current,
+                                    double tolerance) {
+        ArrayList<String> result = new ArrayList<>();
+        for (Engine e : baseline.keySet()) {
+            Double now = current.get(e);
+            double floor = baseline.get(e) * (1 - tolerance / 100);
+            if (now == null || now < floor) {
+                result.add(String.format(Locale.ROOT,
+                    "%s %.0f chars/s (baseline %.0f)", e,
+                    now == null ? 0 : now, baseline.get(e)));
+            }
+        }
+        return result;
+    }
+
+    /** Print CURRENT throughput, compared with BASELINE if not null. */
+    private static void report(EnumMap<Engine, Double> current,
+                               EnumMap<Engine, Double> baseline) {
+        PrintStream out = System.out;
+        for (Engine e : current.keySet()) {
+            out.printf(Locale.ROOT, "%-6s %12.0f chars/s", e,
+                       current.get(e));
+            if (baseline != null && baseline.containsKey(e)) {
+                out.printf(Locale.ROOT, "  (baseline %.0f, %+.1f%%)",
+                           baseline.get(e),
+                           100 * (current.get(e) / baseline.get(e) - 1));
+            }
+            out.println();
+        }
+    }
+
+    /** Return the throughput baseline stored in FILE. */
+    static EnumMap<Engine, Double> readBaseline(Path file) {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+        } catch (NoSuchFileException excp) {
+            throw error("no baseline %s; make one with --update-baseline",
+                        file);
+        } catch (IOException excp) {
+            throw error("could not read baseline %s", file);
+        }
+        EnumMap<Engine, Double> result = new EnumMap<>(Engine.class);
+        for (String key : props.stringPropertyNames()) {
+            try {
+                result.put(Engine.valueOf(key),
+                           Double.parseDouble(props.getProperty(key)));
+            } catch (IllegalArgumentException excp) {
+                throw error("bad baseline entry %s in %s", key, file);
+            }
+        }
+        return result;
+    }
+
+    /** Store THROUGHPUT in FILE as a baseline. */
+    static void writeBaseline(Path file, Map<Engine, Double> throughput) {
+        Properties props = new Properties();
+        for (Engine e : throughput.keySet()) {
+            props.setProperty(e.name(),
+                              String.format(Locale.ROOT, "%.0f",
+                                            throughput.get(e)));
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            props.store(out, "Enigma engine throughput (chars/s)");
+        } catch (IOException excp) {
+            throw error("could not write baseline %s", file);
+        }
+    }
+
+    /** Seed of my cases. */
+    private final long _seed;
+
+    /** Spacing between the seeds of consecutive cases. */
+    private static final long CASE_STRIDE = 1_000_003;
+
+    /** Largest alphabet generated. */
+    private static final int MAX_ALPHABET = 40;
+
+    /** Largest alphabet written as a range. */
+    private static final int RANGE_MAX = 26;
+
+    /** First characters of ranges: capitals, digits, Greek capitals and
+     *  katakana, followed by at least RANGE_MAX usable characters. */
+    private static final int[] RANGE_STARTS = {
+        'A', '0', 0x391, 0x30a2
+    };
+
+    /** Characters from which arbitrary alphabets are drawn. */
+    private static final String POOL =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789.,;:!?#$%&+=<>@"
+        + "\u00c4\u00d6\u00dc\u0394\u03a3\u03a9\u0416\u0429\u05d0"
+        + "\u4e00\u4e8c\u4e09\u56db\u4e94";
+
+    /** Longest message generated. */
+    private static final int MAX_MESSAGE = 400;
+
+    /** One case in this many has a large alphabet. */
+    private static final int LARGE_ODDS = 100;
+
+    /** Largest alphabet that fits short tables generated. */
+    private static final int LARGE_ALPHABET = 4000;
+
+    /** Most letters beyond IndexTable.SHORT_LIMIT in the largest
+     *  alphabets generated. */
+    private static final int HUGE_EXTRA = 2000;
+
+    /** First characters of large and of huge alphabets: CJK ideographs
+     *  and CJK Extension B, which lies outside the Basic Multilingual
+     *  Plane. */
+    private static final int LARGE_START = 0x4e00, HUGE_START = 0x20000;
+
+    /** Longest message generated for a large alphabet. */
+    private static final int LARGE_MESSAGE = 60;
+
+    /** Number of keystrokes whose rotorPermutation is checked. */
+    private static final int PERMUTATION_CHECKS = 20;
+
+    /** Largest keystream index interval generated. */
+    private static final int INDEX_INTERVAL = 50;
+
+    /** Seed of the throughput workload. */
+    private static final long THROUGHPUT_SEED = 48;
+
+    /** Configuration timed for throughput. */
+    private static final String BENCHMARK = TestUtils.NAVAL_CONFIG;
+
+    /** Settings timed for throughput. */
+    private static final String BENCHMARK_SETTINGS =
+        "* B BETA VI VIII III QZMV (AQ) (EP) (MT)";
+
+    /** Length of the message timed. */
+    private static final int BENCHMARK_LENGTH = 4096;
+
+    /** Number of timing trials per engine, of which the best counts. */
+    private static final int BENCHMARK_TRIALS = 5;
+
+    /** Length in nanoseconds of each timing trial. */
+    private static final long BENCHMARK_NANOS = 200_000_000;
+
+    /** Names of the options FuzzHarness accepts. */
+    private static final List<String> OPTIONS =
+        Arrays.asList("seed", "cases", "baseline", "tolerance",
+                      "update-baseline");
+}
@@ -0,0 +1,87 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the FuzzHarness class.
+ *  @author James (Dayuan) Tang
+ */
+public class FuzzHarnessTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    @Test
+    public void checkCases() {
+        assertTrue(new FuzzHarness(7).runCases(60) > 60 * 6);
+    }
+
+    @Test
+    public void checkCasesAreValid() {
+        for (int k = 0; k < 60; k += 1) {
+            FuzzHarness.Case c = new FuzzHarness.Case(new Random(k));
+            Configuration conf = Configuration.parse(c.config);
+            Machine m = conf.newMachine();
+            m.setUp(c.settings);
+            m.checkRotors();
+            m.convert(c.message);
+        }
+    }
+
+    @Test
+    public void checkLargeCases() {
+        boolean shortWidth = false, intWidth = false;
+        for (int k = 0; !(shortWidth && intWidth); k += 1) {
+            FuzzHarness.Case c = new FuzzHarness.Case(new Random(k));
+            int size = Configuration.parse(c.config).alphabet().size();
+            int width = IndexTable.width(size);
+            if (width == 2 && !shortWidth || width == 4 && !intWidth) {
+                assertTrue(c.check() > 0);
+                shortWidth |= width == 2;
+                intWidth |= width == 4;
+            }
+        }
+    }
+
+    @Test
+    public void checkCasesRepeatable() {
+        FuzzHarness.Case c = new FuzzHarness.Case(new Random(3));
+        assertEquals(c.config, new FuzzHarness.Case(new Random(3)).config);
+        assertEquals(c.settings,
+                     new FuzzHarness.Case(new Random(3)).settings);
+    }
+
+    @Test
+    public void checkRegressions() throws Exception {
+        EnumMap<Engine, Double> baseline = new EnumMap<>(Engine.class);
+        baseline.put(Engine.WALK, 1000.0);
+        baseline.put(Engine.FUSED, 2000.0);
+        EnumMap<Engine, Double> current = new EnumMap<>(Engine.class);
+        current.put(Engine.WALK, 950.0);
+        current.put(Engine.FUSED, 1700.0);
+        current.put(Engine.TRACE, 10.0);
+        assertEquals(Arrays.asList("FUSED 1700 chars/s (baseline 2000)"),
+                     FuzzHarness.regressions(baseline, current, 10));
+        assertTrue(FuzzHarness.regressions(baseline, current, 20).isEmpty());
+        current.remove(Engine.WALK);
+        assertEquals(1, FuzzHarness.regressions(baseline, current, 20)
+                     .size());
+
+        Path file = Files.createTempFile("enigma", ".properties");
+        try {
+            FuzzHarness.writeBaseline(file, baseline);
+            assertEquals(baseline, FuzzHarness.readBaseline(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
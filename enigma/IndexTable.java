@@ -0,0 +1,231 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+
+import static enigma.EnigmaException.*;
+
+/** A fixed-length table of alphabet indices, stored in the narrowest
+ *  primitive array that can hold them: bytes for alphabets of at most
+ *  256 characters, shorts for at most 65536, and ints beyond that.  A
+ *  full machine's tables for the usual 26-letter alphabet then take a
+ *  few hundred bytes.  A table may instead be a read-only view of
+ *  entries of the same widths in a buffer, such as a mapped TableStore.
+ *  @author James (Dayuan) Tang
+ */
+abstract class IndexTable {
+
+    /** Return a new table of LENGTH entries, each initially 0, able to
+     *  hold indices into an alphabet of SIZE characters. */
+    static IndexTable create(int size, int length) {
+        if (size <= BYTE_LIMIT) {
+            return new ByteTable(length);
+        } else if (size <= SHORT_LIMIT) {
+            return new ShortTable(length);
+        } else {
+            return new IntTable(length);
+        }
+    }
+
+    /** Return a new table holding the identity on 0..SIZE-1. */
+    static IndexTable identity(int size) {
+        IndexTable result = create(size, size);
+        for (int i = 0; i < size; i += 1) {
+            result.set(i, i);
+        }
+        return result;
+    }
+
+    /** Return the number of bytes each entry of a table for an alphabet
+     *  of SIZE characters takes. */
+    static int width(int size) {
+        return size <= BYTE_LIMIT ? 1 : size <= SHORT_LIMIT ? 2 : 4;
+    }
+
+    /** Return a read-only table of LENGTH entries, able to hold indices
+     *  into an alphabet of SIZE characters, whose entries are those
+     *  stored in DATA from byte OFFSET on, width(SIZE) bytes each
+     *  (unsigned if narrower than an int). */
+    static IndexTable view(ByteBuffer data, int offset, int size,
+                           int length) {
+        if (offset < 0
+            || offset + (long) length * width(size) > data.limit()) {
+            throw error("table lies outside its buffer");
+        }
+        switch (width(size)) {
+        case 1:
+            return new ByteView(data, offset, length);
+        case 2:
+            return new ShortView(data, offset, length);
+        default:
+            return new IntView(data, offset, length);
+        }
+    }
+
+    /** Return the number of entries in me. */
+    abstract int length();
+
+    /** Return entry I. */
+    abstract int get(int i);
+
+    /** Set entry I to V. */
+    abstract void set(int i, int v);
+
+    /** Largest alphabet whose indices fit in a byte. */
+    static final int BYTE_LIMIT = 1 << 8;
+
+    /** Largest alphabet whose indices fit in a short. */
+    static final int SHORT_LIMIT = 1 << 16;
+
+    /** A table of indices below 256, stored as unsigned bytes. */
+    private static class ByteTable extends IndexTable {
+
+        /** A table of LENGTH zeros. */
+        ByteTable(int length) {
+            _data = new byte[length];
+        }
+
+        @Override
+        int length() {
+            return _data.length;
+        }
+
+        @Override
+        int get(int i) {
+            return _data[i] & 0xff;
+        }
+
+        @Override
+        void set(int i, int v) {
+            _data[i] = (byte) v;
+        }
+
+        /** My entries. */
+        private final byte[] _data;
+    }
+
+    /** A table of indices below 65536, stored as unsigned shorts. */
+    private static class ShortTable extends IndexTable {
+
+        /** A table of LENGTH zeros. */
+        ShortTable(int length) {
+            _data = new short[length];
+        }
+
+        @Override
+        int length() {
+            return _data.length;
+        }
+
+        @Override
+        int get(int i) {
+            return _data[i] & 0xffff;
+        }
+
+        @Override
+        void set(int i, int v) {
+            _data[i] = (short) v;
+        }
+
+        /** My entries. */
+        private final short[] _data;
+    }
+
+    /** A table of arbitrary indices. */
+    private static class IntTable extends IndexTable {
+
+        /** A table of LENGTH zeros. */
+        IntTable(int length) {
+            _data = new int[length];
+        }
+
+        @Override
+        int length() {
+            return _data.length;
+        }
+
+        @Override
+        int get(int i) {
+            return _data[i];
+        }
+
+        @Override
+        void set(int i, int v) {
+            _data[i] = v;
+        }
+
+        /** My entries. */
+        private final int[] _data;
+    }
+
+    /** A read-only table of entries stored in a buffer. */
+    private abstract static class View extends IndexTable {
+
+        /** A table of the LENGTH entries in DATA from byte OFFSET on. */
+        View(ByteBuffer data, int offset, int length) {
+            _data = data;
+            _offset = offset;
+            _length = length;
+        }
+
+        @Override
+        int length() {
+            return _length;
+        }
+
+        @Override
+        void set(int i, int v) {
+            throw error("table is read-only");
+        }
+
+        /** Buffer holding my entries. */
+        protected final ByteBuffer _data;
+
+        /** Position in _data of my first entry. */
+        protected final int _offset;
+
+        /** Number of my entries. */
+        private final int _length;
+    }
+
+    /** A read-only table of unsigned bytes in a buffer. */
+    private static class ByteView extends View {
+
+        /** A table of the LENGTH bytes in DATA from OFFSET on. */
+        ByteView(ByteBuffer data, int offset, int length) {
+            super(data, offset, length);
+        }
+
+        @Override
+        int get(int i) {
+            return _data.get(_offset + i) & 0xff;
+        }
+    }
+
+    /** A read-only table of unsigned shorts in a buffer. */
+    private static class ShortView extends View {
+
+        /** A table of the LENGTH shorts in DATA from byte OFFSET on. */
+        ShortView(ByteBuffer data, int offset, int length) {
+            super(data, offset, length);
+        }
+
+        @Override
+        int get(int i) {
+            return _data.getShort(_offset + 2 * i) & 0xffff;
+        }
+    }
+
+    /** A read-only table of ints in a buffer. */
+    private static class IntView extends View {
+
+        /** A table of the LENGTH ints in DATA from byte OFFSET on. */
+        IntView(ByteBuffer data, int offset, int length) {
+            super(data, offset, length);
+        }
+
+        @Override
+        int get(int i) {
+            return _data.getInt(_offset + 4 * i);
+        }
+    }
+}
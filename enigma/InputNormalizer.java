@@ -0,0 +1,109 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Decides, for each input character, what a machine does with it: map
+ *  it to an alphabet index, skip it, pass it through unchanged, or
+ *  reject it.  A character maps to the index of its upper-case form if
+ *  that is in the alphabet, and otherwise to its own index if it is.
+ *  Upper-casing is per character and independent of the locale.  The
+ *  decisions for every code point up to the alphabet's largest are
+ *  computed once, into a table; others are classified as they come.
+ *  @author James (Dayuan) Tang
+ */
+class InputNormalizer {
+
+    /** What to do with characters outside the alphabet. */
+    enum Policy {
+        /** Skip spaces and reject anything else, as Machine always has. */
+        STRICT,
+        /** Skip them. */
+        SKIP,
+        /** Copy them to the output unchanged. */
+        PASS
+    }
+
+    /** Result of classify for a character to be skipped. */
+    static final int SKIP = -1;
+
+    /** Result of classify for a character to be copied unchanged. */
+    static final int PASS = -2;
+
+    /** Result of classify for a character that is an error. */
+    static final int REJECT = -3;
+
+    /** A normalizer for ALPHABET treating other characters according to
+     *  POLICY. */
+    InputNormalizer(Alphabet alphabet, Policy policy) {
+        _alphabet = alphabet;
+        _policy = policy;
+        int hi = ASCII_LIMIT - 1;
+        for (int k = 0; k < alphabet.size(); k += 1) {
+            int cp = alphabet.toCodePoint(k);
+            hi = Math.max(hi, Math.max(cp, Character.toLowerCase(cp)));
+        }
+        _table = new int[Math.min(hi, TABLE_LIMIT - 1) + 1];
+        for (int cp = 0; cp < _table.length; cp += 1) {
+            _table[cp] = compute(cp);
+        }
+    }
+
+    /** Return the policy for characters outside my alphabet. */
+    Policy policy() {
+        return _policy;
+    }
+
+    /** Return the alphabet index of code point CP, or SKIP, PASS or
+     *  REJECT. */
+    int classify(int cp) {
+        if (cp >= 0 && cp < _table.length) {
+            return _table[cp];
+        }
+        return compute(cp);
+    }
+
+    /** Return the alphabet index of code point CP, throwing an exception
+     *  if it is to be rejected. */
+    int index(int cp) {
+        int result = classify(cp);
+        if (result == REJECT) {
+            throw error("character %s is not in the alphabet",
+                        new String(Character.toChars(cp)));
+        }
+        return result;
+    }
+
+    /** Return the classification of CP, from first principles. */
+    private int compute(int cp) {
+        int upper = Character.toUpperCase(cp);
+        if (_alphabet.containsCodePoint(upper)) {
+            return _alphabet.indexOfCodePoint(upper);
+        } else if (_alphabet.containsCodePoint(cp)) {
+            return _alphabet.indexOfCodePoint(cp);
+        }
+        switch (_policy) {
+        case SKIP:
+            return SKIP;
+        case PASS:
+            return PASS;
+        default:
+            return cp == ' ' ? SKIP : REJECT;
+        }
+    }
+
+    /** Code points below this are always in my table. */
+    private static final int ASCII_LIMIT = 128;
+
+    /** Maximum number of entries in my table. */
+    private static final int TABLE_LIMIT = 1 << 16;
+
+    /** Alphabet to which I map characters. */
+    private final Alphabet _alphabet;
+
+    /** Treatment of characters outside _alphabet. */
+    private final Policy _policy;
+
+    /** Classification of the code points 0, 1, ..., up to the largest
+     *  in (or folding into) _alphabet, within TABLE_LIMIT. */
+    private final int[] _table;
+}
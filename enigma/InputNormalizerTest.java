@@ -0,0 +1,79 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+import static enigma.InputNormalizer.*;
+
+/** The suite of all JUnit tests for the InputNormalizer class.
+ *  @author James (Dayuan) Tang
+ */
+public class InputNormalizerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** The usual alphabet. */
+    private Alphabet upper = new CharacterRange('A', 'Z');
+
+    @Test
+    public void checkStrict() {
+        InputNormalizer n = new InputNormalizer(upper, Policy.STRICT);
+        assertEquals(0, n.classify('A'));
+        assertEquals(0, n.classify('a'));
+        assertEquals(25, n.classify('z'));
+        assertEquals(SKIP, n.classify(' '));
+        assertEquals(REJECT, n.classify('1'));
+        assertEquals(REJECT, n.classify('\t'));
+        assertEquals(18, n.classify('\u017f'));
+        assertEquals(REJECT, n.classify(0x1f600));
+        try {
+            n.index('!');
+            fail("rejected character accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void checkPolicies() {
+        InputNormalizer skip = new InputNormalizer(upper, Policy.SKIP);
+        InputNormalizer pass = new InputNormalizer(upper, Policy.PASS);
+        assertEquals(SKIP, skip.classify('1'));
+        assertEquals(SKIP, skip.classify(' '));
+        assertEquals(PASS, pass.classify('1'));
+        assertEquals(PASS, pass.classify(' '));
+        assertEquals(2, pass.classify('c'));
+    }
+
+    @Test
+    public void checkLowerCaseAlphabet() {
+        InputNormalizer n = new InputNormalizer(
+            new CharacterRange(0x3b1, 0x3c9), Policy.STRICT);
+        assertEquals(0, n.classify(0x3b1));
+        assertEquals(REJECT, n.classify(0x391));
+        assertEquals(REJECT, n.classify('a'));
+    }
+
+    @Test
+    public void checkMachinePassThrough() {
+        Configuration config = Configuration.parse(
+            "A-Z 2 1\n M MA (ABC)\n B R (AZ)\n");
+        Machine strict = config.newMachine();
+        Machine passing = config.newMachine();
+        passing.setNormalizer(config.normalizer(Policy.PASS));
+        strict.setUp("* B M A");
+        passing.setUp("* B M A");
+        assertEquals(strict.convert("helloworld"),
+                     passing.convert("Hello, world!").replaceAll("\\W", ""));
+        try {
+            strict.convert("Hello, world!");
+            fail("punctuation accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+}
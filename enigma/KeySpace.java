@@ -0,0 +1,354 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.*;
+
+/** The space of keys of a configuration: every ordered choice of a
+ *  reflector, distinct fixed rotors for the slots left of the pawls and
+ *  distinct moving rotors for the slots under them, combined with every
+ *  start position of the non-reflector rotors.  The space is cut into
+ *  numbered work units, each a run of consecutive start positions under
+ *  one rotor order, so a search can be spread over threads, stopped and
+ *  resumed from any unit.  Within a unit, an Evaluator is handed the
+ *  same Cursor for every key; moving between keys allocates nothing.
+ *  @author James (Dayuan) Tang
+ */
+class KeySpace {
+
+    /** Examines keys.  Each worker thread gets its own Evaluator. */
+    interface Evaluator {
+        /** Examine the key at which CURSOR stands.  CURSOR's machine is
+         *  set to the key and may be used (and advanced) freely. */
+        void evaluate(Cursor cursor);
+    }
+
+    /** Receives progress reports. */
+    interface Listener {
+        /** Note that unit UNIT is done, that DONE of TOTAL keys have
+         *  been examined, and that every unit below WATERMARK is done. */
+        void unitDone(long unit, long done, long total, long watermark);
+    }
+
+    /** The key space of CONFIG cut into units of at most UNITSIZE start
+     *  positions each. */
+    KeySpace(Configuration config, long unitSize) {
+        if (unitSize <= 0) {
+            throw error("unit size must be positive");
+        }
+        _config = config;
+        int slots = config.numRotors();
+        _numFixed = slots - 1 - config.numPawls();
+        for (RotorDefinition def : config.library().definitions()) {
+            if (def.reflecting()) {
+                _reflectors.add(def.name());
+            } else if (def.rotates()) {
+                _moving.add(def.name());
+            } else {
+                _fixed.add(def.name());
+            }
+        }
+        _numOrders = Math.multiplyExact((long) _reflectors.size(),
+            Math.multiplyExact(arrangements(_fixed.size(), _numFixed),
+                arrangements(_moving.size(), config.numPawls())));
+        long positions = 1;
+        for (int i = 1; i < slots; i += 1) {
+            positions = Math.multiplyExact(positions,
+                                           (long) config.alphabet().size());
+        }
+        _numPositions = positions;
+        _unitSize = Math.min(unitSize, positions);
+        _unitsPerOrder = (positions + _unitSize - 1) / _unitSize;
+        _numUnits = Math.multiplyExact(_numOrders, _unitsPerOrder);
+    }
+
+    /** Return the number of rotor orders. */
+    long numOrders() {
+        return _numOrders;
+    }
+
+    /** Return the number of start positions per rotor order. */
+    long numPositions() {
+        return _numPositions;
+    }
+
+    /** Return the number of keys. */
+    long numKeys() {
+        return Math.multiplyExact(_numOrders, _numPositions);
+    }
+
+    /** Return the number of work units. */
+    long numUnits() {
+        return _numUnits;
+    }
+
+    /** Return the rotor names, reflector first, of rotor order ORDER
+     *  (0 <= ORDER < numOrders()). */
+    String[] order(long order) {
+        if (order < 0 || order >= _numOrders) {
+            throw error("rotor order out of range");
+        }
+        String[] names = new String[_config.numRotors()];
+        long rest = order;
+        long movingCount = arrangements(_moving.size(),
+                                        _config.numPawls());
+        long fixedCount = arrangements(_fixed.size(), _numFixed);
+        long movingRank = rest % movingCount;
+        rest /= movingCount;
+        long fixedRank = rest % fixedCount;
+        rest /= fixedCount;
+        names[0] = _reflectors.get((int) rest);
+        unrank(_fixed, fixedRank, names, 1, _numFixed);
+        unrank(_moving, movingRank, names, 1 + _numFixed,
+               _config.numPawls());
+        return names;
+    }
+
+    /** Return the settings line, without plugboard, of key KEY
+     *  (0 <= KEY < numKeys()). */
+    String settings(long key) {
+        if (key < 0 || key >= numKeys()) {
+            throw error("key out of range");
+        }
+        StringBuilder result = new StringBuilder("*");
+        for (String name : order(key / _numPositions)) {
+            result.append(' ').append(name);
+        }
+        Alphabet alphabet = _config.alphabet();
+        int size = alphabet.size();
+        int[] digits = new int[_config.numRotors() - 1];
+        long rest = key % _numPositions;
+        for (int i = digits.length - 1; i >= 0; i -= 1) {
+            digits[i] = (int) (rest % size);
+            rest /= size;
+        }
+        result.append(' ');
+        for (int d : digits) {
+            result.appendCodePoint(alphabet.toCodePoint(d));
+        }
+        return result.toString();
+    }
+
+    /** Examine every key in units FROM <= U < TO, with evaluators made by
+     *  EVALUATORS, on PARALLELISM threads.  LISTENER, if not null, is
+     *  told as each unit finishes. */
+    void run(Supplier<Evaluator> evaluators, long from, long to,
+             int parallelism, Listener listener) {
+        if (from < 0 || to > _numUnits || from > to) {
+            throw error("unit range out of bounds");
+        } else if (to - from > Integer.MAX_VALUE) {
+            throw error("too many units in one run");
+        } else if (parallelism < 1) {
+            throw error("parallelism must be positive");
+        }
+        AtomicLong next = new AtomicLong(from);
+        AtomicLong done = new AtomicLong();
+        BitSet finished = new BitSet();
+        long[] watermark = {from};
+        long total = keysIn(from, to);
+        ArrayList<Callable<Void>> workers = new ArrayList<>();
+        for (int w = 0; w < parallelism; w += 1) {
+            workers.add(() -> {
+                Cursor cursor = new Cursor(_config.newMachine());
+                Evaluator eval = evaluators.get();
+                for (long u = next.getAndIncrement(); u < to;
+                     u = next.getAndIncrement()) {
+                    long n = runUnit(u, cursor, eval);
+                    long d = done.addAndGet(n);
+                    long mark;
+                    synchronized (finished) {
+                        finished.set((int) (u - from));
+                        int clear = finished.nextClearBit(
+                            (int) (watermark[0] - from));
+                        watermark[0] = from + clear;
+                        mark = watermark[0];
+                    }
+                    if (listener != null) {
+                        listener.unitDone(u, d, total, mark);
+                    }
+                }
+                return null;
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Future<Void> f : pool.invokeAll(workers)) {
+                f.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("key search interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw error("key search failed: %s", cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Examine the keys of unit UNIT with EVAL, using CURSOR.  Return the
+     *  number of keys examined. */
+    long runUnit(long unit, Cursor cursor, Evaluator eval) {
+        long order = unit / _unitsPerOrder;
+        long first = (unit % _unitsPerOrder) * _unitSize;
+        long last = Math.min(first + _unitSize, _numPositions);
+        cursor.start(order(order), order, first);
+        for (long p = first; p < last; p += 1) {
+            cursor.reset();
+            eval.evaluate(cursor);
+            if (p + 1 < last) {
+                cursor.step();
+            }
+        }
+        return last - first;
+    }
+
+    /** Return the number of keys in units FROM <= U < TO. */
+    private long keysIn(long from, long to) {
+        long n = 0;
+        for (long u = from; u < to; u += 1) {
+            long first = (u % _unitsPerOrder) * _unitSize;
+            n += Math.min(_unitSize, _numPositions - first);
+        }
+        return n;
+    }
+
+    /** Return the number of ordered choices of K of N items. */
+    private static long arrangements(int n, int k) {
+        long result = 1;
+        for (int i = 0; i < k; i += 1) {
+            result = Math.multiplyExact(result, (long) (n - i));
+        }
+        return result;
+    }
+
+    /** Store in NAMES[START..START+K) the ordered choice of K of the
+     *  items of FROM with rank RANK. */
+    private static void unrank(List<String> from, long rank, String[] names,
+                               int start, int k) {
+        ArrayList<String> left = new ArrayList<>(from);
+        long rest = rank;
+        for (int i = 0; i < k; i += 1) {
+            long sub = arrangements(left.size() - 1, k - i - 1);
+            int pick = (int) (rest / sub);
+            rest %= sub;
+            names[start + i] = left.remove(pick);
+        }
+    }
+
+    /** A machine positioned at one key, reused for all the keys of a
+     *  unit. */
+    class Cursor {
+
+        /** A cursor driving MACHINE. */
+        Cursor(Machine machine) {
+            _machine = machine;
+            _positions = new int[machine.numRotors()];
+        }
+
+        /** Return my machine, set to my current key by reset(). */
+        Machine machine() {
+            return _machine;
+        }
+
+        /** Return the index of my rotor order. */
+        long order() {
+            return _order;
+        }
+
+        /** Return my rotor names, reflector first.  Do not modify. */
+        String[] rotors() {
+            return _rotors;
+        }
+
+        /** Return the index of my start position within my order. */
+        long position() {
+            return _position;
+        }
+
+        /** Return the index of my key, order() * numPositions() +
+         *  position(). */
+        long key() {
+            return _order * _numPositions + _position;
+        }
+
+        /** Return the start setting of slot I.  Do not modify. */
+        int[] positions() {
+            return _positions;
+        }
+
+        /** Move to rotor order ORDER, with rotors ROTORS, at start
+         *  position POSITION. */
+        void start(String[] rotors, long order, long position) {
+            _rotors = rotors;
+            _order = order;
+            _position = position;
+            _machine.insertRotors(rotors);
+            int size = _machine.alphabet().size();
+            long rest = position;
+            for (int i = _positions.length - 1; i > 0; i -= 1) {
+                _positions[i] = (int) (rest % size);
+                rest /= size;
+            }
+        }
+
+        /** Move to the next start position, last slot fastest. */
+        void step() {
+            int size = _machine.alphabet().size();
+            _position += 1;
+            for (int i = _positions.length - 1; i > 0; i -= 1) {
+                _positions[i] += 1;
+                if (_positions[i] < size) {
+                    break;
+                }
+                _positions[i] = 0;
+            }
+        }
+
+        /** Set my machine's rotors to my start positions. */
+        void reset() {
+            for (int i = 1; i < _positions.length; i += 1) {
+                _machine.rotorSlots().get(i).set(_positions[i]);
+            }
+        }
+
+        /** Machine being driven. */
+        private final Machine _machine;
+
+        /** Start setting of each slot. */
+        private final int[] _positions;
+
+        /** Current rotor names. */
+        private String[] _rotors;
+
+        /** Current rotor order index and start position index. */
+        private long _order, _position;
+    }
+
+    /** Configuration whose keys I enumerate. */
+    private final Configuration _config;
+
+    /** Number of fixed, non-reflecting slots. */
+    private final int _numFixed;
+
+    /** Names of available rotors of each kind, in configuration order. */
+    private final ArrayList<String> _reflectors = new ArrayList<>(),
+        _fixed = new ArrayList<>(), _moving = new ArrayList<>();
+
+    /** Number of rotor orders and of start positions per order. */
+    private final long _numOrders, _numPositions;
+
+    /** Start positions per unit, units per order, and total units. */
+    private final long _unitSize, _unitsPerOrder, _numUnits;
+}
@@ -0,0 +1,108 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** The suite of all JUnit tests for the KeySpace class.
+ *  @author James (Dayuan) Tang
+ */
+public class KeySpaceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** A configuration with two reflectors, two fixed and three moving
+     *  rotors over a five-letter alphabet. */
+    private static final Configuration CONFIG = Configuration.parse(
+        "A-E 4 2\n"
+        + " R1 R (AB) (CD)\n"
+        + " R2 R (AC) (BE)\n"
+        + " N1 N (ABCDE)\n"
+        + " N2 N (AE)\n"
+        + " M1 MA (ACE) (BD)\n"
+        + " M2 MC (ABCDE)\n"
+        + " M3 MBE (ED)\n");
+
+    @Test
+    public void checkCounts() {
+        KeySpace space = new KeySpace(CONFIG, 40);
+        assertEquals(2 * 2 * 3 * 2, space.numOrders());
+        assertEquals(125, space.numPositions());
+        assertEquals(24 * 4, space.numUnits());
+        assertArrayEquals(new Object[] {"R1", "N1", "M1", "M2"},
+                          space.order(0));
+        assertArrayEquals(new Object[] {"R2", "N2", "M3", "M2"},
+                          space.order(23));
+    }
+
+    @Test
+    public void checkEveryKeyOnceAndCorrect() {
+        KeySpace space = new KeySpace(CONFIG, 40);
+        AtomicIntegerArray seen =
+            new AtomicIntegerArray((int) space.numKeys());
+        AtomicLong wrong = new AtomicLong();
+        space.run(() -> {
+            Machine check = CONFIG.newMachine();
+            return cursor -> {
+                seen.incrementAndGet((int) cursor.key());
+                if (cursor.key() % 7 == 0) {
+                    String setting = "";
+                    for (int i = 1; i < 4; i += 1) {
+                        setting += (char) ('A' + cursor.positions()[i]);
+                    }
+                    check.setUp("* " + String.join(" ", cursor.rotors())
+                                + " " + setting);
+                    if (!check.convert("ABCDEABCDE").equals(
+                            cursor.machine().convert("ABCDEABCDE"))) {
+                        wrong.incrementAndGet();
+                    }
+                }
+            };
+        }, 0, space.numUnits(), 4, null);
+        for (int k = 0; k < seen.length(); k += 1) {
+            assertEquals("key " + k, 1, seen.get(k));
+        }
+        assertEquals(0, wrong.get());
+    }
+
+    @Test
+    public void checkResume() {
+        KeySpace space = new KeySpace(CONFIG, 30);
+        AtomicIntegerArray seen =
+            new AtomicIntegerArray((int) space.numKeys());
+        long[] mark = new long[1];
+        long half = space.numUnits() / 2;
+        KeySpace.Listener listener = (unit, done, total, watermark) -> {
+            synchronized (mark) {
+                mark[0] = Math.max(mark[0], watermark);
+            }
+        };
+        space.run(() -> c -> seen.incrementAndGet((int) c.key()),
+                  0, half, 3, listener);
+        assertEquals(half, mark[0]);
+        space.run(() -> c -> seen.incrementAndGet((int) c.key()),
+                  mark[0], space.numUnits(), 2, listener);
+        assertEquals(space.numUnits(), mark[0]);
+        for (int k = 0; k < seen.length(); k += 1) {
+            assertEquals("key " + k, 1, seen.get(k));
+        }
+    }
+
+    @Test
+    public void checkParallelism() {
+        KeySpace space = new KeySpace(CONFIG, 40);
+        try {
+            space.run(() -> c -> { }, 0, space.numUnits(), 0, null);
+            fail("no threads");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("parallelism"));
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** A sparse index of the rotor positions a machine reaches while
+ *  enciphering one long message: the positions before character 0, K,
+ *  2K, ... of the message, for a fixed interval K.  Finding the state
+ *  before any character then takes one lookup and an advance of fewer
+ *  than K steps, however the rotors are notched.  An index is kept in
+ *  a file next to the message it describes, and records the settings
+ *  line it was built for.
+ *  @author James (Dayuan) Tang
+ */
+class KeystreamIndex {
+
+    /** An index, for settings line SETTINGS and a message of LENGTH
+     *  characters, of the positions of MACHINE (already set up by
+     *  SETTINGS) every INTERVAL characters.  MACHINE is advanced to the
+     *  end of the message. */
+    static KeystreamIndex build(Machine machine, String settings,
+                                long length, int interval) {
+        if (interval <= 0) {
+            throw error("index interval must be positive");
+        } else if (length < 0) {
+            throw error("message length may not be negative");
+        }
+        long entries = length / interval + 1;
+        int slots = machine.numRotors();
+        if (entries * slots > Integer.MAX_VALUE) {
+            throw error("message too long for index interval %d", interval);
+        }
+        int[] positions = new int[(int) entries * slots];
+        for (int e = 0; e < entries; e += 1) {
+            if (e > 0) {
+                machine.advanceBy(interval);
+            }
+            int[] p = machine.positions();
+            System.arraycopy(p, 0, positions, e * slots, slots);
+        }
+        return new KeystreamIndex(settings, length, interval, slots,
+                                  positions);
+    }
+
+    /** An index of POSITIONS (SLOTS per entry) every INTERVAL characters
+     *  of a LENGTH-character message enciphered under SETTINGS. */
+    private KeystreamIndex(String settings, long length, int interval,
+                           int slots, int[] positions) {
+        _settings = settings;
+        _length = length;
+        _interval = interval;
+        _slots = slots;
+        _positions = positions;
+    }
+
+    /** Return the settings line I was built for. */
+    String settings() {
+        return _settings;
+    }
+
+    /** Return the length of the message I describe. */
+    long length() {
+        return _length;
+    }
+
+    /** Return the number of characters between my entries. */
+    int interval() {
+        return _interval;
+    }
+
+    /** Set MACHINE, which is set up as for my settings, to its state
+     *  before character OFFSET of my message. */
+    void seek(Machine machine, long offset) {
+        if (offset < 0 || offset > _length) {
+            throw error("offset %d is outside the message", offset);
+        } else if (machine.numRotors() != _slots) {
+            throw error("index does not match machine");
+        }
+        int entry = (int) (offset / _interval);
+        int[] p = new int[_slots];
+        System.arraycopy(_positions, entry * _slots, p, 0, _slots);
+        machine.setPositions(p);
+        machine.advanceBy(offset - (long) entry * _interval);
+    }
+
+    /** Durably replace the index in FILE with this one. */
+    void write(Path file) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeUTF(_settings);
+            out.writeLong(_length);
+            out.writeInt(_interval);
+            out.writeShort(_slots);
+            out.writeInt(_positions.length);
+            for (int p : _positions) {
+                out.writeInt(p);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            DurableFile.write(file, bytes.toByteArray());
+        } catch (IOException excp) {
+            throw error("could not write index %s", file);
+        }
+    }
+
+    /** Return the index stored in FILE, or null if there is no such
+     *  file. */
+    static KeystreamIndex read(Path file) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("could not read index %s", file);
+        }
+        if (data.length < 4) {
+            throw error("corrupt index %s", file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        try {
+            DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC) {
+                throw error("%s is not a keystream index", file);
+            }
+            String settings = in.readUTF();
+            long length = in.readLong();
+            int interval = in.readInt();
+            int slots = in.readShort();
+            int n = in.readInt();
+            if (interval <= 0 || slots <= 0
+                || n != (length / interval + 1) * slots) {
+                throw error("corrupt index %s", file);
+            }
+            int[] positions = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                positions[i] = in.readInt();
+            }
+            if (in.readInt() != (int) crc.getValue()) {
+                throw error("corrupt index %s", file);
+            }
+            return new KeystreamIndex(settings, length, interval, slots,
+                                      positions);
+        } catch (IOException excp) {
+            throw error("corrupt index %s", file);
+        }
+    }
+
+    /** Identifies index files ("ENKI"). */
+    private static final int MAGIC = 0x454e4b49;
+
+    /** Settings line of the indexed message. */
+    private final String _settings;
+
+    /** Length of the indexed message. */
+    private final long _length;
+
+    /** Characters between entries. */
+    private final int _interval;
+
+    /** Rotor slots per entry. */
+    private final int _slots;
+
+    /** Entry E, slot I is at _positions[E * _slots + I]. */
+    private final int[] _positions;
+}
@@ -0,0 +1,107 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the KeystreamIndex and
+ *  RangeDecryptor classes.
+ *  @author James (Dayuan) Tang
+ */
+public class KeystreamIndexTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Naval rotors, with the double-notched VI, VII and VIII. */
+    private static final Configuration CONFIG = Configuration.parse(
+        "A-Z 5 3\n"
+        + " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " VI MZM    (AJQDVLEOZWIYTS) (CGMNHFUX) (BPRK)\n"
+        + " VIII MZM  (AFLSETWUNDHOZVICQ) (BKJ) (GXY) (MPR)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n");
+
+    /** Settings used throughout. */
+    private static final String SETTINGS =
+        "* B BETA VI VIII III AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return a random message of N letters drawn from RANDOM. */
+    private String message(Random random, int n) {
+        StringBuilder result = new StringBuilder(n);
+        for (int i = 0; i < n; i += 1) {
+            result.append((char) ('A' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void checkRanges() throws IOException {
+        Random random = new Random(40);
+        String plain = message(random, 20000);
+        Machine m = CONFIG.newMachine();
+        m.setUp(SETTINGS);
+        String cipher = m.convert(plain);
+        Path archive = Files.createTempFile("enigma", ".txt");
+        Path indexFile = archive.resolveSibling(archive.getFileName()
+                                                + ".idx");
+        try {
+            Files.write(archive, cipher.getBytes(StandardCharsets.US_ASCII));
+            RangeDecryptor direct = new RangeDecryptor(CONFIG, archive);
+            RangeDecryptor indexed = new RangeDecryptor(CONFIG, archive);
+            Machine indexer = CONFIG.newMachine();
+            indexer.setUp(SETTINGS);
+            KeystreamIndex.build(indexer, SETTINGS, cipher.length(), 1000)
+                .write(indexFile);
+            KeystreamIndex index = KeystreamIndex.read(indexFile);
+            assertEquals(SETTINGS, index.settings());
+            assertEquals(1000, index.interval());
+            indexed.useIndex(index);
+            for (int k = 0; k < 50; k += 1) {
+                int offset = random.nextInt(plain.length());
+                int length = random.nextInt(plain.length() - offset + 1);
+                length = Math.min(length, 300);
+                String expected = plain.substring(offset, offset + length);
+                assertEquals(expected,
+                             direct.decryptRange(SETTINGS, offset, length));
+                assertEquals(expected,
+                             indexed.decryptRange(SETTINGS, offset, length));
+            }
+            assertEquals(plain.substring(19000),
+                         indexed.decryptRange(SETTINGS, 19000, 1000));
+        } finally {
+            Files.deleteIfExists(archive);
+            Files.deleteIfExists(indexFile);
+        }
+    }
+
+    @Test
+    public void checkBadRanges() throws IOException {
+        Path archive = Files.createTempFile("enigma", ".txt");
+        try {
+            Files.write(archive, "ABCDE".getBytes(StandardCharsets.US_ASCII));
+            RangeDecryptor d = new RangeDecryptor(CONFIG, archive);
+            assertEquals("", d.decryptRange(SETTINGS, 5, 0));
+            try {
+                d.decryptRange(SETTINGS, 3, 3);
+                fail("range past end of archive accepted");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            assertNull(KeystreamIndex.read(
+                archive.resolveSibling("no-such-index")));
+        } finally {
+            Files.deleteIfExists(archive);
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import static enigma.EnigmaException.*;
+
+/** Reads lines from a byte channel while tracking the byte offset of the
+ *  next unread line, so that a reader can later be reopened exactly
+ *  where another left off.  Lines end at '\n' or "\r\n"; a last line
+ *  without a terminator is still returned.
+ *  @author James (Dayuan) Tang
+ */
+class LineReader {
+
+    /** A reader of lines in CHARSET from CHANNEL, whose next byte is at
+     *  offset START in its source. */
+    LineReader(ReadableByteChannel channel, Charset charset, long start) {
+        _channel = channel;
+        _charset = charset;
+        _decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _position = start;
+        _buffer.flip();
+    }
+
+    /** Return the next line, without its terminator, or null if there
+     *  are no more lines. */
+    String readLine() {
+        if (!nextLine()) {
+            return null;
+        }
+        return new String(_line, 0, contentLength(), _charset);
+    }
+
+    /** Return the next line, without its terminator, or null if there
+     *  are no more lines.  The line is decoded into a buffer that is
+     *  reused, and so overwritten, by the next call. */
+    CharBuffer readChars() {
+        if (!nextLine()) {
+            return null;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(_line, 0, contentLength());
+        int needed = (int) Math.ceil(bytes.remaining()
+                                     * (double) _decoder.maxCharsPerByte());
+        if (_chars.capacity() < needed) {
+            _chars = CharBuffer.allocate(Math.max(needed,
+                                                  2 * _chars.capacity()));
+        }
+        _chars.clear();
+        _decoder.reset();
+        _decoder.decode(bytes, _chars, true);
+        _decoder.flush(_chars);
+        _chars.flip();
+        return _chars;
+    }
+
+    /** Read the next line into _line.  Return false if there are no more
+     *  lines. */
+    private boolean nextLine() {
+        if (!_holding) {
+            _lineLength = 0;
+        }
+        _holding = false;
+        while (true) {
+            while (_buffer.hasRemaining()) {
+                byte b = _buffer.get();
+                _position += 1;
+                if (b == '\n') {
+                    return true;
+                }
+                append(b);
+            }
+            if (!fill()) {
+                if (_following && _lineLength > 0) {
+                    _holding = true;
+                    return false;
+                }
+                return _lineLength > 0;
+            }
+        }
+    }
+
+    /** Return the offset in my source of the first byte not yet returned
+     *  as part of a line. */
+    long position() {
+        return _holding ? _position - _lineLength : _position;
+    }
+
+    /** If FOLLOWING, treat the end of input as the point reached so far
+     *  in a source that may grow: a last line without a terminator is
+     *  held back until its terminator arrives, and reading again after
+     *  the end looks for more input.  Otherwise, a held line is returned
+     *  as the last. */
+    void setFollowing(boolean following) {
+        _following = following;
+    }
+
+    /** Refill my buffer from my channel.  Return false at end of input. */
+    private boolean fill() {
+        try {
+            _buffer.clear();
+            int n;
+            do {
+                n = _channel.read(_buffer);
+            } while (n == 0);
+            _buffer.flip();
+            return n > 0;
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Add B to the current line. */
+    private void append(byte b) {
+        if (_lineLength == _line.length) {
+            byte[] bigger = new byte[2 * _line.length];
+            System.arraycopy(_line, 0, bigger, 0, _lineLength);
+            _line = bigger;
+        }
+        _line[_lineLength] = b;
+        _lineLength += 1;
+    }
+
+    /** Return the length of the current line, less a trailing '\r'. */
+    private int contentLength() {
+        int n = _lineLength;
+        if (n > 0 && _line[n - 1] == '\r') {
+            n -= 1;
+        }
+        return n;
+    }
+
+    /** Size of my read buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Source of input. */
+    private final ReadableByteChannel _channel;
+
+    /** Encoding of input. */
+    private final Charset _charset;
+
+    /** Decoder for readChars. */
+    private final CharsetDecoder _decoder;
+
+    /** Line last returned by readChars. */
+    private CharBuffer _chars = CharBuffer.allocate(256);
+
+    /** Bytes read from _channel but not yet consumed. */
+    private final ByteBuffer _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Bytes of the line being read. */
+    private byte[] _line = new byte[256];
+
+    /** Number of bytes in _line. */
+    private int _lineLength;
+
+    /** Source offset of the next byte in _buffer. */
+    private long _position;
+
+    /** True iff the source may grow (see setFollowing). */
+    private boolean _following;
+
+    /** True iff _line holds the start of a line held back at the end
+     *  of input. */
+    private boolean _holding;
+}
@@ -0,0 +1,113 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the LineReader class and the input
+ *  files that grow as Main follows them.
+ *  @author James (Dayuan) Tang
+ */
+public class LineReaderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Append TEXT to FILE. */
+    private static void append(Path file, String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.US_ASCII),
+                    StandardOpenOption.APPEND);
+    }
+
+    /** Wait until FILE is longer than SIZE bytes, returning its new
+     *  size. */
+    private static long awaitGrowth(Path file, long size)
+        throws IOException, InterruptedException {
+        while (!Files.exists(file) || Files.size(file) <= size) {
+            Thread.sleep(10);
+        }
+        return Files.size(file);
+    }
+
+    @Test
+    public void checkFollowing() throws IOException {
+        Path file = Files.createTempFile("enigma", ".inp");
+        try (FileChannel ch = FileChannel.open(file)) {
+            LineReader reader =
+                new LineReader(ch, StandardCharsets.US_ASCII, 0);
+            reader.setFollowing(true);
+            assertNull(reader.readLine());
+            append(file, "ONE\r\nTW");
+            assertEquals("ONE", reader.readLine());
+            assertNull(reader.readLine());
+            assertEquals(5, reader.position());
+            append(file, "O\nTHR");
+            assertEquals("TWO", reader.readLine());
+            assertEquals(9, reader.position());
+            assertNull(reader.readLine());
+            append(file, "EE");
+            assertNull(reader.readLine());
+            reader.setFollowing(false);
+            assertEquals("THREE", reader.readLine());
+            assertEquals(14, reader.position());
+            assertNull(reader.readLine());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void checkMainFollows() throws Exception {
+        Path dir = Files.createTempDirectory("enigma");
+        Path conf = dir.resolve("conf"), in = dir.resolve("inp"),
+            out = dir.resolve("out");
+        try {
+            Files.write(conf,
+                        NAVAL_CONFIG.getBytes(StandardCharsets.US_ASCII));
+            String settings = NAVAL_SETTINGS + "\n";
+            Files.write(in, (settings + "HELLO WORLD\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+            Main main = new Main(new String[] {conf.toString(),
+                    in.toString(), out.toString(), "--follow=3"});
+            Thread runner = new Thread(main::process);
+            runner.start();
+            long size = awaitGrowth(out, 0);
+            append(in, "GOODBYE\nAND");
+            awaitGrowth(out, size);
+            append(in, " THANKS");
+            runner.join();
+
+            Machine m = Configuration.parse(
+                new String(Files.readAllBytes(conf),
+                           StandardCharsets.US_ASCII)).newMachine();
+            m.setUp(settings.trim());
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            OutputFormatter formatter =
+                new OutputFormatter(expected, StandardCharsets.US_ASCII);
+            for (String line : new String[] {"HELLO WORLD", "GOODBYE",
+                                             "AND THANKS"}) {
+                formatter.printLine(m.convert(line));
+            }
+            assertEquals(expected.toString(),
+                         new String(Files.readAllBytes(out),
+                                    StandardCharsets.US_ASCII));
+        } finally {
+            Files.deleteIfExists(conf);
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(out);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
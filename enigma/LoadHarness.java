@@ -0,0 +1,483 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** Production-shaped load for Main: a generator of large inputs, with
+ *  many sections under varied settings and plugboards and long lines
+ *  of mixed case and spacing, and a driver that runs Main in this JVM
+ *  over such an input several times, reporting throughput, percentiles
+ *  of the time taken per section, peak heap use and garbage collection.
+ *  @author James (Dayuan) Tang
+ */
+public final class LoadHarness {
+
+    /** Do what ARGS describe, one of
+     *    generate CONFIG OUTPUT
+     *        Write to OUTPUT an input for Main under the configuration
+     *        CONFIG.
+     *    run CONFIG INPUT [-- MAIN-OPTIONS]
+     *        Apply Main, with MAIN-OPTIONS if given, to CONFIG and INPUT
+     *        (sending its output to a temporary file) and report on
+     *        each run.
+     *  among which these options may appear before any "--":
+     *    --seed=S      Seed for generate (default 1).
+     *    --sections=N  Number of sections generated (default 1000).
+     *    --lines=N     Most message lines per section (default 50).
+     *    --width=N     Most characters per line (default 1000).
+     *    --warmup=N    Runs made and not reported first (default 1).
+     *    --runs=N      Runs reported (default 5).
+     *  Exits normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            run(args);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Do what ARGS describe (see main). */
+    private static void run(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        ArrayList<String> files = new ArrayList<>();
+        ArrayList<String> mainArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i += 1) {
+            String arg = args[i];
+            if (arg.equals("--")) {
+                mainArgs.addAll(Arrays.asList(args).subList(i + 1,
+                                                            args.length));
+                break;
+            } else if (!arg.startsWith("--")) {
+                files.add(arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            if (!OPTIONS.contains(name)) {
+                throw error("unknown option --%s", name);
+            }
+            options.put(name, eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        String mode = files.isEmpty() ? "" : files.remove(0);
+        if (mode.equals("generate") && files.size() == 2
+            && mainArgs.isEmpty()) {
+            Configuration config = Configuration.parse(read(files.get(0)));
+            Random random = new Random(longOption(options, "seed", 1));
+            try (Writer out = Files.newBufferedWriter(Paths.get(files.get(1)),
+                     Charset.defaultCharset())) {
+                generate(config, random, out,
+                         intOption(options, "sections", DEFAULT_SECTIONS),
+                         intOption(options, "lines", DEFAULT_LINES),
+                         intOption(options, "width", DEFAULT_WIDTH));
+            } catch (IOException excp) {
+                throw error("could not write %s", files.get(1));
+            }
+        } else if (mode.equals("run") && files.size() == 2) {
+            long warmup = longOption(options, "warmup", DEFAULT_WARMUP);
+            if (warmup < 0) {
+                throw error("--warmup may not be negative");
+            }
+            int runs = intOption(options, "runs", DEFAULT_RUNS);
+            ArrayList<Run> results = new ArrayList<>();
+            for (int r = 0; r < warmup + runs; r += 1) {
+                Run result = measure(files.get(0), files.get(1), mainArgs);
+                if (r >= warmup) {
+                    System.out.printf("run %d: %s%n", r - warmup + 1,
+                                      result);
+                    results.add(result);
+                }
+            }
+            System.out.printf("all runs: %s%n", Run.combine(results));
+        } else {
+            throw error("usage: LoadHarness [options] generate CONFIG OUTPUT "
+                        + "| run CONFIG INPUT [-- MAIN-OPTIONS]");
+        }
+    }
+
+    /** Write to OUT an input of SECTIONS sections for a machine with the
+     *  configuration CONFIG, choosing with RANDOM.  Each section has a
+     *  settings line with random rotors, positions and plugboard, then
+     *  up to LINES lines of up to WIDTH characters: words of letters in
+     *  either case, separated by runs of spaces, with occasional blank
+     *  lines. */
+    static void generate(Configuration config, Random random, Writer out,
+                         int sections, int lines, int width)
+        throws IOException {
+        ArrayList<String> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (RotorDefinition def : config.library().definitions()) {
+            if (def.reflecting()) {
+                reflectors.add(def.name());
+            } else if (def.rotates()) {
+                moving.add(def.name());
+            } else {
+                fixed.add(def.name());
+            }
+        }
+        int pawls = config.numPawls();
+        int slots = config.numRotors();
+        if (reflectors.isEmpty() || fixed.size() < slots - 1 - pawls
+            || moving.size() < pawls) {
+            throw error("configuration needs a reflector, %d fixed and %d "
+                        + "moving rotors", slots - 1 - pawls, pawls);
+        }
+        Alphabet alphabet = config.alphabet();
+        int size = alphabet.size();
+        StringBuilder line = new StringBuilder();
+        for (int s = 0; s < sections; s += 1) {
+            line.setLength(0);
+            line.append("* ")
+                .append(reflectors.get(random.nextInt(reflectors.size())));
+            for (String name : pick(fixed, slots - 1 - pawls, random)) {
+                line.append(' ').append(name);
+            }
+            for (String name : pick(moving, pawls, random)) {
+                line.append(' ').append(name);
+            }
+            line.append(' ');
+            for (int i = 1; i < slots; i += 1) {
+                line.appendCodePoint(alphabet.toCodePoint(
+                    random.nextInt(size)));
+            }
+            int[] plug = shuffled(size, random);
+            int pairs = random.nextInt(Math.min(size / 2, MAX_PLUGS) + 1);
+            for (int i = 0; i < pairs; i += 1) {
+                line.append(" (")
+                    .appendCodePoint(alphabet.toCodePoint(plug[2 * i]))
+                    .appendCodePoint(alphabet.toCodePoint(plug[2 * i + 1]))
+                    .append(')');
+            }
+            out.append(line).append('\n');
+
+            int count = 1 + random.nextInt(lines);
+            for (int k = 0; k < count; k += 1) {
+                line.setLength(0);
+                if (random.nextInt(BLANK_ODDS) != 0) {
+                    message(line, alphabet, random, 1 + random.nextInt(width));
+                }
+                out.append(line).append('\n');
+            }
+        }
+    }
+
+    /** Append to LINE a message of LENGTH characters of ALPHABET and
+     *  spaces, chosen with RANDOM. */
+    private static void message(StringBuilder line, Alphabet alphabet,
+                                Random random, int length) {
+        int size = alphabet.size();
+        int end = line.length() + length;
+        boolean lower = random.nextBoolean();
+        while (line.length() < end) {
+            if (random.nextInt(WORD_LENGTH) == 0) {
+                int spaces = Math.min(1 + random.nextInt(MAX_SPACES),
+                                      end - line.length());
+                for (int j = 0; j < spaces; j += 1) {
+                    line.append(' ');
+                }
+                lower = random.nextBoolean();
+                continue;
+            }
+            int cp = alphabet.toCodePoint(random.nextInt(size));
+            int folded = Character.toLowerCase(cp);
+            if (lower && random.nextInt(4) != 0
+                && Character.toUpperCase(folded) == cp) {
+                cp = folded;
+            }
+            line.appendCodePoint(cp);
+        }
+    }
+
+    /** Return N different members of NAMES chosen with RANDOM. */
+    private static List<String> pick(List<String> names, int n,
+                                     Random random) {
+        int[] order = shuffled(names.size(), random);
+        ArrayList<String> result = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            result.add(names.get(order[i]));
+        }
+        return result;
+    }
+
+    /** Return 0 .. N-1 in an order chosen with RANDOM. */
+    private static int[] shuffled(int n, Random random) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = i;
+        }
+        for (int i = n - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Run Main on the configuration file CONFIG and the input file
+     *  INPUT with the options MAINARGS, discarding its output, and
+     *  return what was measured. */
+    static Run measure(String config, String input, List<String> mainArgs) {
+        Path output;
+        try {
+            output = Files.createTempFile("enigma-load", ".out");
+        } catch (IOException excp) {
+            throw error("could not create a temporary output file");
+        }
+        try {
+            ArrayList<String> args = new ArrayList<>(mainArgs);
+            args.addAll(Arrays.asList(config, input, output.toString()));
+            Run result = new Run();
+            long bytes = Files.size(Paths.get(input));
+            try (Main main = new Main(args.toArray(new String[0]))) {
+                main.setSectionTimer(result::section);
+
+                System.gc();
+                List<MemoryPoolMXBean> pools = heapPools();
+                for (MemoryPoolMXBean pool : pools) {
+                    pool.resetPeakUsage();
+                }
+                long collections = -collections(), gcMillis = -gcMillis();
+                long start = System.nanoTime();
+                main.process();
+                result.finish(bytes, System.nanoTime() - start,
+                              collections + collections(),
+                              gcMillis + gcMillis(), peakHeap(pools));
+            }
+            return result;
+        } catch (IOException excp) {
+            throw error("could not read %s", input);
+        } finally {
+            try {
+                Files.deleteIfExists(output);
+            } catch (IOException excp) {
+                System.err.printf("could not delete %s%n", output);
+            }
+        }
+    }
+
+    /** Return the memory pools of the heap. */
+    private static List<MemoryPoolMXBean> heapPools() {
+        ArrayList<MemoryPoolMXBean> result = new ArrayList<>();
+        for (MemoryPoolMXBean pool
+                 : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                result.add(pool);
+            }
+        }
+        return result;
+    }
+
+    /** Return the total of the peak use of POOLS since their peaks were
+     *  reset, in bytes: an upper bound on the peak use of the heap. */
+    private static long peakHeap(List<MemoryPoolMXBean> pools) {
+        long result = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            result += pool.getPeakUsage().getUsed();
+        }
+        return result;
+    }
+
+    /** Return the number of garbage collections so far. */
+    private static long collections() {
+        long result = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gc.getCollectionCount());
+        }
+        return result;
+    }
+
+    /** Return the milliseconds spent on garbage collection so far. */
+    private static long gcMillis() {
+        long result = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gc.getCollectionTime());
+        }
+        return result;
+    }
+
+    /** Return the P-quantile (0 < P <= 1) of the ascending values
+     *  SORTED, by the nearest-rank method, or 0 if there are none. */
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, Math.min(rank, sorted.length) - 1)];
+    }
+
+    /** What was measured of one or more runs of Main. */
+    static class Run {
+
+        /** Record a section that took NANOS nanoseconds. */
+        void section(long nanos) {
+            if (_sections == _latencies.length) {
+                _latencies = Arrays.copyOf(_latencies,
+                                           2 * _latencies.length);
+            }
+            _latencies[_sections] = nanos;
+            _sections += 1;
+        }
+
+        /** Record the end of a run over BYTES bytes of input that took
+         *  NANOS nanoseconds, COLLECTIONS garbage collections taking
+         *  GCMILLIS milliseconds, and at most PEAKHEAP bytes of heap. */
+        void finish(long bytes, long nanos, long collections, long gcMillis,
+                    long peakHeap) {
+            _bytes += bytes;
+            _nanos += nanos;
+            _collections += collections;
+            _gcMillis += gcMillis;
+            _peakHeap = Math.max(_peakHeap, peakHeap);
+        }
+
+        /** Return the combination of RUNS, as if one run. */
+        static Run combine(List<Run> runs) {
+            Run result = new Run();
+            for (Run run : runs) {
+                for (long t : run.latencies()) {
+                    result.section(t);
+                }
+                result.finish(run._bytes, run._nanos, run._collections,
+                              run._gcMillis, run._peakHeap);
+            }
+            return result;
+        }
+
+        /** Return the time taken by each section, in ascending order. */
+        long[] latencies() {
+            long[] result = Arrays.copyOf(_latencies, _sections);
+            Arrays.sort(result);
+            return result;
+        }
+
+        /** Return the number of sections recorded. */
+        int sections() {
+            return _sections;
+        }
+
+        @Override
+        public String toString() {
+            long[] sorted = latencies();
+            double seconds = _nanos / 1e9;
+            return String.format(Locale.ROOT,
+                "%.1f MB in %.3f s, %.1f MB/s; %d sections, p50 %.3f ms, "
+                + "p99 %.3f ms, p999 %.3f ms, max %.3f ms; peak heap "
+                + "%.1f MB; %d GCs, %d ms",
+                _bytes / 1e6, seconds, _bytes / 1e6 / seconds, _sections,
+                percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.99) / 1e6,
+                percentile(sorted, 0.999) / 1e6,
+                percentile(sorted, 1) / 1e6, _peakHeap / 1e6, _collections,
+                _gcMillis);
+        }
+
+        /** Times taken by sections, of which the first _sections are
+         *  recorded. */
+        private long[] _latencies = new long[64];
+
+        /** Number of sections recorded. */
+        private int _sections;
+
+        /** Bytes of input converted. */
+        private long _bytes;
+
+        /** Total nanoseconds taken. */
+        private long _nanos;
+
+        /** Number of garbage collections. */
+        private long _collections;
+
+        /** Milliseconds spent in garbage collection. */
+        private long _gcMillis;
+
+        /** Upper bound on the heap used at once, in bytes. */
+        private long _peakHeap;
+    }
+
+    /** Return the value of the option NAME among OPTIONS as a positive
+     *  integer, or DEFAULTVALUE if it is absent. */
+    private static int intOption(HashMap<String, String> options,
+                                 String name, int defaultValue) {
+        long result = longOption(options, name, defaultValue);
+        if (result <= 0 || result > Integer.MAX_VALUE) {
+            throw error("--%s must be a positive integer", name);
+        }
+        return (int) result;
+    }
+
+    /** Return the value of the option NAME among OPTIONS, or
+     *  DEFAULTVALUE if it is absent. */
+    private static long longOption(HashMap<String, String> options,
+                                   String name, long defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException excp) {
+            throw error("--%s needs an integer value", name);
+        }
+    }
+
+    /** Return the contents of the file named NAME. */
+    private static String read(String name) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(name)),
+                              Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Default number of sections generated. */
+    private static final int DEFAULT_SECTIONS = 1000;
+
+    /** Default most message lines per section. */
+    private static final int DEFAULT_LINES = 50;
+
+    /** Default most characters per line. */
+    private static final int DEFAULT_WIDTH = 1000;
+
+    /** Default number of runs made before those reported. */
+    private static final int DEFAULT_WARMUP = 1;
+
+    /** Default number of runs reported. */
+    private static final int DEFAULT_RUNS = 5;
+
+    /** Most plugboard pairs generated. */
+    private static final int MAX_PLUGS = 13;
+
+    /** One in this many message lines generated is blank. */
+    private static final int BLANK_ODDS = 20;
+
+    /** Mean length of words generated, spaces included. */
+    private static final int WORD_LENGTH = 6;
+
+    /** Most spaces generated between words. */
+    private static final int MAX_SPACES = 3;
+
+    /** Names of the options LoadHarness accepts. */
+    private static final List<String> OPTIONS =
+        Arrays.asList("seed", "sections", "lines", "width", "warmup",
+                      "runs");
+}
@@ -0,0 +1,137 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the LoadHarness class and the
+ *  section timings Main reports.
+ *  @author James (Dayuan) Tang
+ */
+public class LoadHarnessTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    @Test
+    public void checkGenerate() throws Exception {
+        StringWriter out = new StringWriter();
+        LoadHarness.generate(Configuration.parse(NAVAL_CONFIG), new Random(1),
+                             out, 30, 5, 200);
+        String[] lines = out.toString().split("\n", -1);
+        assertEquals("", lines[lines.length - 1]);
+        int sections = 0;
+        boolean lower = false;
+        for (String line : lines) {
+            if (line.startsWith("*")) {
+                sections += 1;
+            } else {
+                assertTrue(line.length() <= 200);
+                lower |= !line.equals(line.toUpperCase());
+            }
+        }
+        assertEquals(30, sections);
+        assertTrue(lower);
+
+        StringWriter again = new StringWriter();
+        LoadHarness.generate(Configuration.parse(NAVAL_CONFIG), new Random(1),
+                             again, 30, 5, 200);
+        assertEquals(out.toString(), again.toString());
+    }
+
+    @Test
+    public void checkMeasure() throws Exception {
+        Path conf = Files.createTempFile("enigma", ".conf");
+        Path in = Files.createTempFile("enigma", ".inp");
+        try {
+            Files.write(conf, NAVAL_CONFIG.getBytes(Charset.defaultCharset()));
+            try (Writer out =
+                     Files.newBufferedWriter(in, Charset.defaultCharset())) {
+                LoadHarness.generate(Configuration.parse(NAVAL_CONFIG),
+                                     new Random(2), out, 40, 10, 500);
+            }
+            LoadHarness.Run run = LoadHarness.measure(conf.toString(),
+                in.toString(), Arrays.asList("--engine=walk"));
+            assertEquals(40, run.sections());
+            long[] times = run.latencies();
+            assertTrue(times[0] > 0 && times[0] <= times[39]);
+            ArrayList<LoadHarness.Run> runs = new ArrayList<>();
+            runs.add(run);
+            runs.add(run);
+            assertEquals(80, LoadHarness.Run.combine(runs).sections());
+            assertTrue(run.toString().contains("40 sections, p50 "));
+        } finally {
+            Files.deleteIfExists(conf);
+            Files.deleteIfExists(in);
+        }
+    }
+
+    /** Return the number of files this process has open, or -1 if that
+     *  cannot be told. */
+    private static long openFiles() throws IOException {
+        Path fds = Paths.get("/proc/self/fd");
+        if (!Files.isDirectory(fds)) {
+            return -1;
+        }
+        try (Stream<Path> files = Files.list(fds)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void checkMainCloses() throws Exception {
+        Path conf = Files.createTempFile("enigma", ".conf");
+        Path in = Files.createTempFile("enigma", ".inp");
+        Path out = Files.createTempFile("enigma", ".out");
+        try {
+            Files.write(conf, NAVAL_CONFIG.getBytes(Charset.defaultCharset()));
+            Files.write(in, "* B BETA I II III AAAA\nHELLO\n"
+                        .getBytes(Charset.defaultCharset()));
+            String[] args = {conf.toString(), in.toString(), out.toString()};
+            long before = openFiles();
+            for (int i = 0; i < 5; i += 1) {
+                new Main(args).process();
+            }
+            assertEquals(before, openFiles());
+            assertTrue(Files.size(out) > 0);
+            try (Main main = new Main(args)) {
+                assertNotNull(main);
+            }
+            assertEquals(before, openFiles());
+        } finally {
+            Files.deleteIfExists(conf);
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(out);
+        }
+    }
+
+    @Test
+    public void checkPercentile() {
+        long[] sorted = new long[1000];
+        for (int i = 0; i < sorted.length; i += 1) {
+            sorted[i] = i + 1;
+        }
+        assertEquals(500, LoadHarness.percentile(sorted, 0.5));
+        assertEquals(990, LoadHarness.percentile(sorted, 0.99));
+        assertEquals(999, LoadHarness.percentile(sorted, 0.999));
+        assertEquals(1000, LoadHarness.percentile(sorted, 1));
+        assertEquals(7, LoadHarness.percentile(new long[] {7}, 0.999));
+        assertEquals(0, LoadHarness.percentile(new long[0], 0.5));
+    }
+}
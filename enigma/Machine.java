@@ -1,5 +1,7 @@
 package enigma;
 
+import java.nio.CharBuffer;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Collection;
@@ -32,6 +34,17 @@ class Machine {
         for (Rotor r : allRotors) {
             _allRotors.put(r.name(), r);
         }
+        _rotorSlots = new ArrayList<>(numRotors);
+        _plugboard = new Permutation("", alpha);
+    }
+
+    /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
+     *  and 0 <= PAWLS < NUMROTORS pawls, whose available rotors are
+     *  defined in LIBRARY.  Each rotor is built the first time it is
+     *  inserted. */
+    Machine(Alphabet alpha, int numRotors, int pawls, RotorLibrary library) {
+        this(alpha, numRotors, pawls, new ArrayList<Rotor>());
+        _library = library;
     }
 
     /** Return the number of rotor slots I have. */
@@ -46,22 +59,74 @@ class Machine {
 
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
-     *  Initially, all rotors are set at their 0 setting. */
+     *  Initially, all rotors are set at their 0 setting.  The slot list
+     *  is reused, so re-inserting rotors does not allocate. */
     void insertRotors(String[] rotors) {
-        _rotorSlots = new ArrayList<>();
+        _rotorSlots.clear();
         for (int i = 0; i < rotors.length; i++) {
-            Rotor r = _allRotors.get(rotors[i]);
+            Rotor r = rotor(rotors[i]);
+            if (r == null) {
+                throw error("no rotor named %s", rotors[i]);
+            }
             _rotorSlots.add(r);
         }
     }
 
+    /** Configure me according to the settings line SETTINGS, which has
+     *  the form "* REFLECTOR ROTOR... POSITIONS [PLUGBOARD]".  Rotors are
+     *  taken from my available rotors, so this costs O(numRotors()) and
+     *  builds no new rotors.  A missing plugboard resets the plugboard to
+     *  the identity. */
+    void setUp(String settings) {
+        Scanner s = new Scanner(settings);
+        s.next();
+        String[] rotors = new String[numRotors()];
+        for (int i = 0; i < rotors.length; i++) {
+            if (!s.hasNext()) {
+                throw error("too few rotors in settings");
+            }
+            rotors[i] = s.next();
+        }
+        checkSetting(settings);
+        insertRotors(rotors);
+        if (!s.hasNext() || s.hasNext("\\(.*")) {
+            throw error("must have settings for rotors");
+        }
+        String posSetting = s.next();
+        if (posSetting.codePointCount(0, posSetting.length())
+            != numRotors() - 1) {
+            throw error("Invalid settings for rotors");
+        }
+        setRotors(posSetting);
+        if (s.hasNextLine()) {
+            setPlugboard(new Permutation(s.nextLine(), _alphabet));
+        } else {
+            setPlugboard(new Permutation("", _alphabet));
+        }
+    }
+
+    /** Return my rotor named NAME, building it from my library if this
+     *  is its first use, or null if I have no such rotor. */
+    Rotor rotor(String name) {
+        Rotor r = _allRotors.get(name);
+        if (r == null && _library != null) {
+            RotorDefinition def = _library.get(name);
+            if (def != null) {
+                r = def.newRotor();
+                _allRotors.put(name, r);
+            }
+        }
+        return r;
+    }
+
     /** Checks settings that are going to initialize the
      * machine.
      * @param setting input settings*/
     void checkSetting(String setting) {
         Scanner s = new Scanner(setting);
         s.next();
-        if (!_allRotors.get(s.next()).reflecting()) {
+        Rotor reflector = rotor(s.next());
+        if (reflector == null || !reflector.reflecting()) {
             throw error("The first rotor must be a reflector");
         }
     }
@@ -85,16 +150,47 @@ class Machine {
      *  numRotors()-1 upper-case letters. The first letter refers to the
      *  leftmost rotor setting (not counting the reflector).  */
     void setRotors(String setting) {
-        if (setting.length() != numRotors() - 1) {
+        if (setting.codePointCount(0, setting.length()) != numRotors() - 1) {
             throw error("Setting must have numRotors()-1 letters");
         }
-        for (int i = 0; i < setting.length(); i++) {
-            Rotor r = _rotorSlots.get(i + 1);
-            if (!alphabet().contains(setting.charAt(i))) {
+        for (int i = 0, k = 0; i < setting.length();
+             i += Character.charCount(setting.codePointAt(i)), k += 1) {
+            Rotor r = _rotorSlots.get(k + 1);
+            if (!alphabet().containsCodePoint(setting.codePointAt(i))) {
                 throw error("Invalid settings");
             }
-            r.set(setting.charAt(i));
+            r.set(alphabet().indexOfCodePoint(setting.codePointAt(i)));
+        }
+    }
+
+    /** Return the settings of my rotor slots, leftmost (the reflector)
+     *  first. */
+    int[] positions() {
+        int[] result = new int[_rotorSlots.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _rotorSlots.get(i).setting();
         }
+        return result;
+    }
+
+    /** Set my rotor slots to the settings POSITIONS, as returned by
+     *  positions(). */
+    void setPositions(int[] positions) {
+        if (positions.length != _rotorSlots.size()) {
+            throw error("wrong number of rotor positions");
+        }
+        for (int i = 0; i < positions.length; i += 1) {
+            Rotor r = _rotorSlots.get(i);
+            if (positions[i] < 0 || positions[i] >= r.size()) {
+                throw error("rotor position out of range");
+            }
+            r.set(positions[i]);
+        }
+    }
+
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
     }
 
     /** Set the plugboard to PLUGBOARD. */
@@ -110,60 +206,346 @@ class Machine {
             throw error("input c must be in the range 0 to alphabet size -1");
         }
         machineAdvance();
-        int output = _plugboard.permute(c);
+        return _plugboard.invert(rotorConvert(_plugboard.permute(c)));
+    }
+
+    /** Return the index to which my rotors alone, at their current
+     *  settings, send index C. */
+    private int rotorConvert(int c) {
+        int output = c;
         for (int i = numRotors() - 1; i >= 0; i = i - 1) {
             output = _rotorSlots.get(i).convertForward(output);
         }
         for (int i = 1; i < numRotors(); i++) {
             output = _rotorSlots.get(i).convertBackward(output);
         }
-        output = _plugboard.invert(output);
         return output;
     }
 
+    /** Store in TABLE[C], for each alphabet index C, the index to which
+     *  my rotors alone send C at their current settings. */
+    void rotorSubstitution(int[] table) {
+        for (int c = 0; c < _alphabet.size(); c += 1) {
+            table[c] = rotorConvert(c);
+        }
+    }
+
+    /** Return the substitution my rotors alone make at their current
+     *  settings, as a permutation: what rotorConvert computes one
+     *  character at a time, built whole from table operations. */
+    Permutation rotorPermutation() {
+        int last = numRotors() - 1;
+        Permutation forward = null, backward = null;
+        for (int i = last; i >= 0; i -= 1) {
+            Rotor r = _rotorSlots.get(i);
+            Permutation c = r.permutation().conjugate(r.setting());
+            forward = forward == null ? c : c.compose(forward);
+            if (i > 0) {
+                Permutation back = c.inverse();
+                backward = backward == null ? back : backward.compose(back);
+            }
+        }
+        return backward.compose(forward);
+    }
+
+    /** Advance the machine LENGTH keystrokes, as converting a message
+     *  of that length would, and return the substitution my rotors make
+     *  for every character at each of those keystrokes. */
+    RotorTrace trace(int length) {
+        int size = _alphabet.size();
+        RotorTrace result = new RotorTrace(size, length);
+        for (int k = 0; k < length; k += 1) {
+            machineAdvance();
+            for (int c = 0; c < size; c += 1) {
+                result.record(k, c, rotorConvert(c));
+            }
+        }
+        return result;
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
-     *  the rotors accordingly. */
+     *  the rotors accordingly.  My normalizer decides what becomes of
+     *  each character of MSG, and my engine selector, if any, which
+     *  Engine enciphers it. */
     String convert(String msg) {
-        String result = "";
-        msg = msg.toUpperCase();
-        for (int i = 0; i < msg.length(); i++) {
-            if (msg.charAt(i) == ' ') {
-                continue;
+        InputNormalizer normalizer = normalizer();
+        if (_in.length < msg.length()) {
+            _in = new int[Math.max(msg.length(), 2 * _in.length)];
+            _out = new int[_in.length];
+        }
+        int[] in = _in, out = _out;
+        int n = 0, count = 0;
+        for (int i = 0; i < msg.length(); ) {
+            int cp = msg.codePointAt(i);
+            i += Character.charCount(cp);
+            int index = normalizer.index(cp);
+            if (index >= 0) {
+                in[n] = index;
+                n += 1;
+                count += 1;
+            } else if (index == InputNormalizer.PASS) {
+                in[n] = ~cp;
+                n += 1;
             }
-            int next = convert(alphabet().toInt(msg.charAt(i)));
-            result += _alphabet.toChar(next);
         }
-        return result;
+        Engine engine =
+            _engines == null ? Engine.WALK : _engines.choose(this, count);
+        engine.convert(this, in, out, n);
+
+        StatsCollector stats = _stats;
+        StringBuilder result = new StringBuilder(n);
+        for (int i = 0; i < n; i += 1) {
+            if (in[i] >= 0) {
+                if (stats != null) {
+                    stats.record(in[i], out[i]);
+                }
+                result.appendCodePoint(_alphabet.toCodePoint(out[i]));
+            } else {
+                result.appendCodePoint(~in[i]);
+            }
+        }
+        return result.toString();
     }
 
-    /** Advance the machine by 1 step.*/
+    /** Convert the characters remaining in IN, appending the results to
+     *  OUT, which must have room for twice as many chars.  As with
+     *  convert(String), my normalizer decides what becomes of each
+     *  character, but nothing is allocated along the way. */
+    void convert(CharBuffer in, CharBuffer out) {
+        InputNormalizer normalizer = normalizer();
+        StatsCollector stats = _stats;
+        while (in.hasRemaining()) {
+            char c = in.get();
+            int cp = c;
+            if (Character.isHighSurrogate(c) && in.hasRemaining()
+                && Character.isLowSurrogate(in.get(in.position()))) {
+                cp = Character.toCodePoint(c, in.get());
+            }
+            int index = normalizer.index(cp);
+            if (index >= 0) {
+                int result = convert(index);
+                if (stats != null) {
+                    stats.record(index, result);
+                }
+                putCodePoint(out, _alphabet.toCodePoint(result));
+            } else if (index == InputNormalizer.PASS) {
+                putCodePoint(out, cp);
+            }
+        }
+    }
+
+    /** Append code point CP to OUT. */
+    private static void putCodePoint(CharBuffer out, int cp) {
+        if (Character.isBmpCodePoint(cp)) {
+            out.put((char) cp);
+        } else {
+            out.put(Character.highSurrogate(cp));
+            out.put(Character.lowSurrogate(cp));
+        }
+    }
+
+    /** Return the normalizer applied to messages, by default one that
+     *  skips spaces and rejects other characters outside my alphabet. */
+    InputNormalizer normalizer() {
+        if (_normalizer == null) {
+            _normalizer = new InputNormalizer(_alphabet,
+                                              InputNormalizer.Policy.STRICT);
+        }
+        return _normalizer;
+    }
+
+    /** Set the normalizer applied to messages to NORMALIZER, which must
+     *  be for my alphabet. */
+    void setNormalizer(InputNormalizer normalizer) {
+        _normalizer = normalizer;
+    }
+
+    /** Record statistics of the messages I convert in STATS, which
+     *  must be for my alphabet, or stop recording them if STATS is
+     *  null. */
+    void setStats(StatsCollector stats) {
+        _stats = stats;
+    }
+
+    /** Have SELECTOR choose the Engine for each message I convert, or
+     *  always use Engine.WALK if SELECTOR is null. */
+    void setEngines(EngineSelector selector) {
+        _engines = selector;
+    }
+
+    /** Advance the machine by 1 step.  A rotor's decision depends only
+     *  on itself and the rotor to its right, so advancing rotors from
+     *  left to right as we go gives the same result as deciding first. */
     void machineAdvance() {
-        int i = 0;
-        Boolean[] status = new Boolean[numRotors()];
-        for (Rotor r: _rotorSlots) {
+        int last = numRotors() - 1;
+        for (int i = 0; i <= last; i += 1) {
+            Rotor r = _rotorSlots.get(i);
+            if (r.rotates()
+                && (i == last || _rotorSlots.get(i + 1).atNotch()
+                    || (r.atNotch() && leftRotates(i)))) {
+                r.advance();
+            }
+        }
+    }
+
+    /** Advance the machine by N >= 0 steps, leaving the rotors exactly
+     *  where N calls to machineAdvance() would, in time that depends on
+     *  the number of rotors rather than on N.
+     *
+     *  After the first step, a rotor whose left neighbor moves never
+     *  rests on a notch: it steps off in the same keystroke it arrives
+     *  (the double step).  So if no such rotor has two adjacent notches,
+     *  each rotor moves once for every non-notch position it leaves on a
+     *  trigger from its right neighbor plus once for every notch it
+     *  passes, and its total motion can be counted in closed form from
+     *  its right neighbor's.  Otherwise we fall back to skipAdvance. */
+    void advanceBy(long n) {
+        if (n < 0) {
+            throw error("cannot advance by a negative number of steps");
+        }
+        if (n == 0) {
+            return;
+        }
+        machineAdvance();
+        n -= 1;
+        if (countableStepping()) {
+            countAdvance(n);
+        } else {
+            skipAdvance(n);
+        }
+    }
+
+    /** Return true iff countAdvance applies to my current rotors: every
+     *  moving rotor whose left neighbor moves is a MovingRotor with a
+     *  free position and no two adjacent notches, and every other moving
+     *  rotor is a MovingRotor. */
+    private boolean countableStepping() {
+        for (int i = 0; i < numRotors(); i += 1) {
+            Rotor r = _rotorSlots.get(i);
             if (!r.rotates()) {
-                status[i] = false;
-            } else if (i == numRotors() - 1) {
-                status[i] = true;
-                break;
-            } else if (r.rotates()
-                    && _rotorSlots.get(_rotorSlots.indexOf(r) + 1).atNotch()) {
-                status[i] = true;
-            } else if (r.rotates() && r.atNotch()
-                    && _rotorSlots.get(_rotorSlots.indexOf(r) - 1).rotates()) {
-                status[i] = true;
-            } else {
-                status[i] = false;
+                continue;
+            } else if (!(r instanceof MovingRotor)) {
+                return false;
+            }
+            MovingRotor m = (MovingRotor) r;
+            if (leftRotates(i)
+                && (m.hasAdjacentNotches() || m.numNotches() == r.size())) {
+                return false;
             }
-            i++;
+        }
+        return true;
+    }
+
+    /** Advance N steps by counting each rotor's moves.  For time T, a
+     *  rotor's move count depends on its right neighbor's count at T
+     *  and on whether that neighbor sat on a notch at T - 1, which in
+     *  turn depends on the next neighbor at T - 2, and so on; so we
+     *  tabulate counts for times N - D, 0 <= D < numRotors(). */
+    private void countAdvance(long n) {
+        int slots = numRotors();
+        long[] moves = new long[slots], rightMoves = new long[slots];
+        boolean[] onNotch = new boolean[slots + 1],
+            rightOnNotch = new boolean[slots + 1];
+        for (int i = slots - 1; i >= 0; i -= 1) {
+            Rotor r = _rotorSlots.get(i);
+            for (int d = 0; d < slots; d += 1) {
+                long t = n - d;
+                moves[d] = 0;
+                onNotch[d] = false;
+                if (!r.rotates() || t < 0) {
+                    continue;
+                }
+                MovingRotor m = (MovingRotor) r;
+                int p0 = m.setting();
+                if (i == slots - 1) {
+                    moves[d] = t;
+                    onNotch[d] = m.isNotch((int) ((p0 + t) % m.size()));
+                    continue;
+                }
+                Rotor right = _rotorSlots.get(i + 1);
+                long triggers = right.rotates()
+                    ? ((MovingRotor) right).notchesAhead(right.setting(),
+                                                         rightMoves[d])
+                    : 0;
+                if (!leftRotates(i)) {
+                    moves[d] = triggers;
+                } else if (t > 0) {
+                    long a = m.advancesPastFree(p0, triggers);
+                    if (m.isNotch((int) ((p0 + a) % m.size()))
+                        && !rightOnNotch[d + 1]) {
+                        a += 1;
+                    }
+                    moves[d] = a;
+                    onNotch[d] = rightOnNotch[d + 1]
+                        && m.isNotch((int) ((p0 + a) % m.size()));
+                } else {
+                    onNotch[d] = m.isNotch(p0);
+                }
+            }
+            if (i < slots - 1) {
+                Rotor right = _rotorSlots.get(i + 1);
+                if (right.rotates()) {
+                    right.set((int) ((right.setting() + rightMoves[0])
+                                     % right.size()));
+                }
+            }
+            long[] tm = rightMoves;
+            rightMoves = moves;
+            moves = tm;
+            boolean[] tn = rightOnNotch;
+            rightOnNotch = onNotch;
+            onNotch = tn;
+        }
+    }
 
+    /** Advance N steps, jumping directly over runs of keystrokes in
+     *  which only the rightmost rotor moves and stepping one keystroke
+     *  at a time otherwise.  Exact for any rotors. */
+    private void skipAdvance(long n) {
+        int last = numRotors() - 1;
+        Rotor fast = _rotorSlots.get(last);
+        while (n > 0) {
+            if (!quietExceptLast()) {
+                machineAdvance();
+                n -= 1;
+            } else if (!fast.rotates()) {
+                return;
+            } else {
+                long run = n;
+                if (_rotorSlots.get(last - 1).rotates()) {
+                    int d = fast.stepsUntilNextNotch();
+                    if (d >= 0) {
+                        run = Math.min(n, d);
+                    }
+                }
+                fast.set((int) ((fast.setting() + run) % fast.size()));
+                n -= run;
+                if (n > 0) {
+                    machineAdvance();
+                    n -= 1;
+                }
+            }
         }
+    }
 
-        for (int a = 0; a < status.length; a++) {
-            if (status[a]) {
-                _rotorSlots.get(a).advance();
+    /** Return true iff, ignoring the notch of the rightmost rotor, no
+     *  rotor but the rightmost would move on the next keystroke. */
+    private boolean quietExceptLast() {
+        int last = numRotors() - 1;
+        for (int i = 0; i < last; i += 1) {
+            Rotor r = _rotorSlots.get(i);
+            if (r.rotates()
+                && ((i + 1 < last && _rotorSlots.get(i + 1).atNotch())
+                    || (r.atNotch() && leftRotates(i)))) {
+                return false;
             }
         }
+        return true;
+    }
+
+    /** Return true iff the rotor in slot I has a moving left neighbor. */
+    private boolean leftRotates(int i) {
+        return i > 0 && _rotorSlots.get(i - 1).rotates();
     }
 
     /** Returns alphabet used by my machine. */
@@ -182,13 +564,32 @@ class Machine {
     /** Number of rotors allowed in my machine and number of pawls. */
     private int _numRotors, _numPawls;
 
-    /** All available rotors that can be inserted into my machine. */
+    /** All available rotors that have been built for my machine. */
     private HashMap<String, Rotor> _allRotors = new HashMap<>();
 
+    /** Definitions of rotors not yet built, or null. */
+    private RotorLibrary _library;
+
     /** Rotors in my machine. */
-    private ArrayList<Rotor> _rotorSlots;
+    private final ArrayList<Rotor> _rotorSlots;
 
     /** Plugboard of my machine. */
-    private Permutation _plugboard = new Permutation("",
-            new CharacterRange('A', 'Z'));
+    private Permutation _plugboard;
+
+    /** Normalizer for messages, or null until first needed. */
+    private InputNormalizer _normalizer;
+
+    /** Collects statistics of converted messages, or null. */
+    private StatsCollector _stats;
+
+    /** Chooses engines for messages, or null. */
+    private EngineSelector _engines;
+
+    /** Indices of the message being converted (complemented code
+     *  points for characters passed through), and their conversions. */
+    private int[] _in = new int[MESSAGE_BUFFER],
+        _out = new int[MESSAGE_BUFFER];
+
+    /** Initial size of _in and _out. */
+    private static final int MESSAGE_BUFFER = 256;
 }
@@ -0,0 +1,279 @@
+package enigma;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded, thread-safe pool of pre-built Machines.  Callers borrow a
+ *  machine configured from a settings line, use it, and release it.
+ *  Machines are built lazily by a factory, at most capacity() of them,
+ *  and are reconfigured with Machine.setUp on each borrow, so a busy pool
+ *  builds no rotors or permutations.  Idle machines sit in an array of
+ *  slots that borrowers claim with a compare-and-set, so taking an idle
+ *  machine never locks; only callers that find the pool exhausted block.
+ *  The pool tracks which machines are out, so a machine released twice
+ *  or never borrowed is refused rather than handed to two borrowers.  A
+ *  released machine loses any normalizer, statistics collector and
+ *  engine selector its borrower gave it.
+ *  @author James (Dayuan) Tang
+ */
+class MachinePool {
+
+    /** A pool of at most CAPACITY machines, each built by FACTORY.  Every
+     *  machine FACTORY returns must have its own rotors. */
+    MachinePool(int capacity, Supplier<Machine> factory) {
+        if (capacity <= 0) {
+            throw error("pool capacity must be positive");
+        }
+        _factory = factory;
+        _idle = new AtomicReferenceArray<>(capacity);
+    }
+
+    /** Return the maximum number of machines I hold. */
+    int capacity() {
+        return _idle.length();
+    }
+
+    /** Return the number of machines built so far. */
+    int created() {
+        return _created.get();
+    }
+
+    /** Return a machine configured according to SETTINGS, waiting for one
+     *  to be released if all capacity() machines are in use. */
+    Machine borrow(String settings) {
+        Machine m = acquire(true);
+        _leased.add(m);
+        return configure(m, settings);
+    }
+
+    /** Return a machine configured according to SETTINGS, or null if all
+     *  capacity() machines are in use. */
+    Machine tryBorrow(String settings) {
+        Machine m = acquire(false);
+        if (m == null) {
+            return null;
+        }
+        _leased.add(m);
+        return configure(m, settings);
+    }
+
+    /** Return M, previously borrowed from me and not yet released, to
+     *  the pool, with its normalizer, statistics and engines reset. */
+    void release(Machine m) {
+        if (m == null) {
+            throw error("cannot release a null machine");
+        } else if (!_leased.remove(m)) {
+            throw error("machine was not borrowed from this pool, or was "
+                        + "already released");
+        }
+        m.setNormalizer(null);
+        m.setStats(null);
+        m.setEngines(null);
+        int n = capacity();
+        int start = probeStart();
+        for (int k = 0; k < n; k += 1) {
+            int i = (start + k) % n;
+            if (_idle.get(i) == null && _idle.compareAndSet(i, null, m)) {
+                _releases.increment();
+                if (_waiters.get() > 0) {
+                    _lock.lock();
+                    try {
+                        _available.signal();
+                    } finally {
+                        _lock.unlock();
+                    }
+                }
+                return;
+            }
+        }
+        throw error("released more machines than the pool holds");
+    }
+
+    /** Return the number of successful borrows. */
+    long borrows() {
+        return _fastBorrows.sum() + _builtBorrows.sum()
+            + _blockedBorrows.sum();
+    }
+
+    /** Return the number of borrows satisfied by an idle machine without
+     *  locking. */
+    long fastBorrows() {
+        return _fastBorrows.sum();
+    }
+
+    /** Return the number of borrows that built a new machine. */
+    long builtBorrows() {
+        return _builtBorrows.sum();
+    }
+
+    /** Return the number of borrows that had to wait for a release. */
+    long blockedBorrows() {
+        return _blockedBorrows.sum();
+    }
+
+    /** Return the number of tryBorrow calls that found no machine. */
+    long failedBorrows() {
+        return _failedBorrows.sum();
+    }
+
+    /** Return the number of compare-and-set attempts lost to another
+     *  thread claiming the same idle slot. */
+    long casFailures() {
+        return _casFailures.sum();
+    }
+
+    /** Return the total time, in nanoseconds, that borrowers spent
+     *  blocked waiting for a release. */
+    long waitNanos() {
+        return _waitNanos.sum();
+    }
+
+    /** Return the number of releases. */
+    long releases() {
+        return _releases.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MachinePool[capacity=%d, created=%d, "
+                             + "borrows=%d, fast=%d, built=%d, blocked=%d, "
+                             + "failed=%d, casFailures=%d, waitMs=%.3f]",
+                             capacity(), created(), borrows(), fastBorrows(),
+                             builtBorrows(), blockedBorrows(),
+                             failedBorrows(), casFailures(),
+                             waitNanos() / 1e6);
+    }
+
+    /** Return an unconfigured machine: an idle one if there is one,
+     *  otherwise a newly built one if I am under capacity.  Otherwise
+     *  block until a release if WAIT, or return null. */
+    private Machine acquire(boolean wait) {
+        Machine m = pollIdle();
+        if (m != null) {
+            _fastBorrows.increment();
+            return m;
+        }
+        while (true) {
+            int c = _created.get();
+            if (c >= capacity()) {
+                break;
+            }
+            if (_created.compareAndSet(c, c + 1)) {
+                try {
+                    m = _factory.get();
+                } catch (RuntimeException excp) {
+                    _created.decrementAndGet();
+                    throw excp;
+                }
+                _builtBorrows.increment();
+                return m;
+            }
+        }
+        if (!wait) {
+            m = pollIdle();
+            if (m == null) {
+                _failedBorrows.increment();
+            } else {
+                _fastBorrows.increment();
+            }
+            return m;
+        }
+        return awaitIdle();
+    }
+
+    /** Block until an idle machine is available and return it. */
+    private Machine awaitIdle() {
+        long start = System.nanoTime();
+        _lock.lock();
+        _waiters.incrementAndGet();
+        try {
+            Machine m;
+            while ((m = pollIdle()) == null) {
+                _available.await();
+            }
+            _blockedBorrows.increment();
+            return m;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted while waiting for a machine");
+        } finally {
+            _waiters.decrementAndGet();
+            _lock.unlock();
+            _waitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /** Claim and return an idle machine, or return null if there is
+     *  none. */
+    private Machine pollIdle() {
+        int n = capacity();
+        int start = probeStart();
+        for (int k = 0; k < n; k += 1) {
+            int i = (start + k) % n;
+            Machine m = _idle.get(i);
+            if (m != null) {
+                if (_idle.compareAndSet(i, m, null)) {
+                    return m;
+                }
+                _casFailures.increment();
+            }
+        }
+        return null;
+    }
+
+    /** Return the slot at which the current thread starts probing, so
+     *  that concurrent threads tend to touch different slots. */
+    private int probeStart() {
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return (h >>> 1) % capacity();
+    }
+
+    /** Set M up according to SETTINGS and return it.  If SETTINGS is
+     *  invalid, M goes back to the pool before the error propagates. */
+    private Machine configure(Machine m, String settings) {
+        try {
+            m.setUp(settings);
+            m.checkRotors();
+            return m;
+        } catch (EnigmaException excp) {
+            release(m);
+            throw excp;
+        }
+    }
+
+    /** Builds new machines. */
+    private final Supplier<Machine> _factory;
+
+    /** Slots holding idle machines; null slots are empty. */
+    private final AtomicReferenceArray<Machine> _idle;
+
+    /** Machines borrowed and not yet released.  Machine does not
+     *  override equals, so membership is by identity. */
+    private final Set<Machine> _leased = ConcurrentHashMap.newKeySet();
+
+    /** Number of machines built so far. */
+    private final AtomicInteger _created = new AtomicInteger();
+
+    /** Number of threads blocked in awaitIdle. */
+    private final AtomicInteger _waiters = new AtomicInteger();
+
+    /** Guards _available. */
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    /** Signalled when a machine is released while threads wait. */
+    private final Condition _available = _lock.newCondition();
+
+    /** Contention and usage counters. */
+    private final LongAdder _fastBorrows = new LongAdder(),
+        _builtBorrows = new LongAdder(), _blockedBorrows = new LongAdder(),
+        _failedBorrows = new LongAdder(), _casFailures = new LongAdder(),
+        _waitNanos = new LongAdder(), _releases = new LongAdder();
+}
@@ -0,0 +1,161 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MachinePool class.
+ *  @author James (Dayuan) Tang
+ */
+public class MachinePoolTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings used by the Hiawatha example. */
+    private static final String SETTINGS = "* B BETA III IV I AXLE";
+
+    /** Return a new machine with its own copy of the naval rotors. */
+    private static Machine newMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new MovingRotor("I",
+                new Permutation(NAVALA.get("I"), UPPER), "Q"));
+        rotors.add(new MovingRotor("III",
+                new Permutation(NAVALA.get("III"), UPPER), "V"));
+        rotors.add(new MovingRotor("IV",
+                new Permutation(NAVALA.get("IV"), UPPER), "J"));
+        rotors.add(new FixedRotor("Beta",
+                new Permutation(NAVALA.get("Beta"), UPPER)));
+        rotors.add(new Reflector("B",
+                new Permutation(NAVALA.get("B"), UPPER)));
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkBorrowConfigures() {
+        MachinePool pool = new MachinePool(2, MachinePoolTest::newMachine);
+        Machine m = pool.borrow(SETTINGS);
+        assertEquals("HYIHLBKOMLIUYDCMPPSFSZW",
+                     m.convert("FROM his shoulder Hiawatha"));
+        pool.release(m);
+        Machine m2 = pool.borrow(SETTINGS);
+        assertSame("idle machine not reused", m, m2);
+        assertEquals("reused machine not reset", "HYIHLBKOMLIUYDCMPPSFSZW",
+                     m2.convert("FROM his shoulder Hiawatha"));
+        assertEquals(1, pool.created());
+        assertEquals(1, pool.fastBorrows());
+        assertEquals(1, pool.builtBorrows());
+    }
+
+    @Test
+    public void checkBound() {
+        MachinePool pool = new MachinePool(2, MachinePoolTest::newMachine);
+        Machine a = pool.tryBorrow(SETTINGS);
+        Machine b = pool.tryBorrow(SETTINGS);
+        assertNotNull(a);
+        assertNotNull(b);
+        assertNotSame(a, b);
+        assertNull("pool exceeded capacity", pool.tryBorrow(SETTINGS));
+        assertEquals(1, pool.failedBorrows());
+        pool.release(a);
+        assertSame(a, pool.tryBorrow(SETTINGS));
+    }
+
+    @Test
+    public void checkBadSettingsReleases() {
+        MachinePool pool = new MachinePool(1, MachinePoolTest::newMachine);
+        try {
+            pool.borrow("* B BETA III IV I AX");
+            fail("bad settings accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        assertNotNull("machine leaked", pool.tryBorrow(SETTINGS));
+    }
+
+    @Test
+    public void checkBadReleases() {
+        MachinePool pool = new MachinePool(2, MachinePoolTest::newMachine);
+        Machine m = pool.borrow(SETTINGS);
+        pool.release(m);
+        try {
+            pool.release(m);
+            fail("machine released twice");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("already released"));
+        }
+        try {
+            pool.release(newMachine());
+            fail("foreign machine released");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("not borrowed"));
+        }
+        Machine a = pool.borrow(SETTINGS), b = pool.borrow(SETTINGS);
+        assertNotSame(a, b);
+        assertEquals(2, pool.created());
+    }
+
+    @Test
+    public void checkReleaseResets() {
+        MachinePool pool = new MachinePool(1, MachinePoolTest::newMachine);
+        Machine m = pool.borrow(SETTINGS);
+        StatsCollector stats = new StatsCollector(UPPER);
+        m.setStats(stats);
+        m.setEngines(new EngineSelector(null, Engine.FUSED, null));
+        m.setNormalizer(new InputNormalizer(UPPER,
+                                            InputNormalizer.Policy.SKIP));
+        m.convert("FROM");
+        pool.release(m);
+        Machine again = pool.borrow(SETTINGS);
+        assertSame(m, again);
+        assertEquals("HYIH", again.convert("FROM"));
+        try {
+            again.convert("FROM 1");
+            fail("previous borrower's normalizer kept");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        assertEquals(4, stats.section().length);
+    }
+
+    @Test
+    public void checkConcurrentBorrowers() throws InterruptedException {
+        final MachinePool pool =
+            new MachinePool(2, MachinePoolTest::newMachine);
+        final int nThreads = 6, rounds = 200;
+        final boolean[] ok = new boolean[nThreads];
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t += 1) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                boolean good = true;
+                for (int i = 0; i < rounds; i += 1) {
+                    Machine m = pool.borrow(SETTINGS);
+                    good &= m.convert("FROM").equals("HYIH");
+                    pool.release(m);
+                }
+                ok[id] = good;
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int t = 0; t < nThreads; t += 1) {
+            assertTrue("wrong output in thread " + t, ok[t]);
+        }
+        assertTrue(pool.created() <= 2);
+        assertEquals(nThreads * rounds, pool.borrows());
+        assertEquals(nThreads * rounds, pool.releases());
+    }
+}
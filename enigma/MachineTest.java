@@ -1,8 +1,10 @@
 package enigma;
 
 import org.junit.Test;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Random;
 import static org.junit.Assert.*;
 import static enigma.TestUtils.*;
 
@@ -73,4 +75,250 @@ public class MachineTest {
         assertEquals(msg("Insert", "wrong insertRotor method"),
                 allRotors.get(3), enigma1.rotorSlots().get(0));
     }
+
+    /** Return a machine with NUMROTORS slots over an alphabet of SIZE
+     *  letters, with a reflector followed by randomly chosen fixed and
+     *  moving rotors with random notches and settings, all drawn from a
+     *  generator seeded with SEED. */
+    private Machine randomMachine(long seed, int size, int numRotors) {
+        Random random = new Random(seed);
+        Alphabet alpha = new CharacterRange('A', (char) ('A' + size - 1));
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[numRotors];
+        names[0] = "R";
+        rotors.add(new Reflector("R", new Permutation("", alpha)));
+        int pawls = 0;
+        for (int i = 1; i < numRotors; i += 1) {
+            names[i] = "R" + i;
+            Permutation perm = new Permutation("", alpha);
+            if (random.nextInt(6) == 0) {
+                rotors.add(new FixedRotor(names[i], perm));
+            } else {
+                String notches = "";
+                int k = random.nextInt(4);
+                for (int j = 0; j < k; j += 1) {
+                    notches += alpha.toChar(random.nextInt(size));
+                }
+                rotors.add(new MovingRotor(names[i], perm, notches));
+                pawls += 1;
+            }
+        }
+        Machine m = new Machine(alpha, numRotors, pawls, rotors);
+        m.insertRotors(names);
+        for (int i = 1; i < numRotors; i += 1) {
+            m.rotorSlots().get(i).set(random.nextInt(size));
+        }
+        return m;
+    }
+
+    /** Return the settings of the rotors in M. */
+    private String positions(Machine m) {
+        String result = "";
+        for (Rotor r : m.rotorSlots()) {
+            result += r.setting() + " ";
+        }
+        return result;
+    }
+
+    @Test
+    public void checkAdvanceByMatchesStepping() {
+        Random random = new Random(61);
+        for (int trial = 0; trial < 400; trial += 1) {
+            long seed = random.nextLong();
+            int size = 2 + random.nextInt(8);
+            int numRotors = 2 + random.nextInt(5);
+            Machine stepped = randomMachine(seed, size, numRotors);
+            Machine jumped = randomMachine(seed, size, numRotors);
+            int n = random.nextInt(4000);
+            for (int i = 0; i < n; i += 1) {
+                stepped.machineAdvance();
+            }
+            jumped.advanceBy(n);
+            assertEquals(msg("advanceBy", "seed %d, %d steps", seed, n),
+                         positions(stepped), positions(jumped));
+        }
+    }
+
+    @Test
+    public void checkAdvanceByNaval() {
+        allRotors = new ArrayList<>();
+        addMRotors("VI", NAVALA, "ZM");
+        addMRotors("VII", NAVALA, "ZM");
+        addMRotors("VIII", NAVALA, "ZM");
+        addMRotors("III", NAVALA, "V");
+        addFRotors("Beta", NAVALA);
+        addReflector("B", NAVALA);
+        Machine stepped = new Machine(UPPER, 5, 3, allRotors);
+        stepped.insertRotors(new String[] {"B", "BETA", "VI", "III", "VIII"});
+        stepped.setRotors("AUVY");
+        Random random = new Random(7);
+        long total = 0;
+        for (int k = 0; k < 200; k += 1) {
+            int n = random.nextInt(300);
+            String before = positions(stepped);
+            for (int i = 0; i < n; i += 1) {
+                stepped.machineAdvance();
+            }
+            String after = positions(stepped);
+            String[] start = before.trim().split(" ");
+            for (int i = 1; i < start.length; i += 1) {
+                stepped.rotorSlots().get(i).set(Integer.parseInt(start[i]));
+            }
+            stepped.advanceBy(n);
+            assertEquals(msg("naval", "after %d steps", total + n),
+                         after, positions(stepped));
+            total += n;
+        }
+    }
+
+    @Test
+    public void checkAdvanceByLarge() {
+        Machine whole = randomMachine(3, 26, 5);
+        Machine parts = randomMachine(3, 26, 5);
+        long n = 10_000_000_000L;
+        whole.advanceBy(n);
+        for (int i = 0; i < 10; i += 1) {
+            parts.advanceBy(n / 10);
+        }
+        assertEquals(positions(whole), positions(parts));
+    }
+
+    @Test
+    public void checkRotorPermutation() {
+        Configuration config = Configuration.parse(NAVAL_CONFIG);
+        Machine m = config.newMachine();
+        m.setUp("* B BETA VI VIII III QZMV");
+        for (int k = 0; k < 100; k += 1) {
+            RotorTrace trace = m.trace(1);
+            Permutation whole = m.rotorPermutation();
+            assertTrue(whole.derangement());
+            for (int c = 0; c < 26; c += 1) {
+                assertEquals(trace.convert(0, c), whole.permute(c));
+            }
+        }
+    }
+
+    @Test
+    public void checkLazyLibrary() {
+        String text = "";
+        RotorLibrary library = new RotorLibrary();
+        String[] names = {"B", "BETA", "III", "IV", "I", "II", "V"};
+        String[] types = {"R", "N", "MV", "MJ", "MQ", "ME", "MZ"};
+        for (int i = 0; i < names.length; i += 1) {
+            String key = names[i].equals("BETA") ? "Beta" : names[i];
+            int start = text.length();
+            text += NAVALA.get(key);
+            library.add(new RotorDefinition(names[i], types[i], text,
+                                            start, text.length(), i + 1,
+                                            UPPER));
+        }
+        Machine enigma = new Machine(UPPER, 5, 3, library);
+        assertEquals(0, library.compiled());
+        enigma.setUp("* B BETA III IV I AXLE");
+        assertEquals(5, library.compiled());
+        assertEquals("HYIHLBKOMLIUYDCMPPSFSZW",
+                     enigma.convert("FROM his shoulder Hiawatha"));
+        Machine other = new Machine(UPPER, 5, 3, library);
+        other.setUp("* B BETA III IV I AXLE");
+        assertNotSame("machines share rotors",
+                      enigma.rotorSlots().get(4), other.rotorSlots().get(4));
+        assertSame("permutation not shared",
+                   enigma.rotorSlots().get(4).permutation(),
+                   other.rotorSlots().get(4).permutation());
+    }
+
+    @Test
+    public void checkSupplementaryAlphabet() {
+        Alphabet emoji = new CharacterRange(0x1F600, 0x1F64F);
+        String a = new String(Character.toChars(0x1F600)),
+            b = new String(Character.toChars(0x1F601)),
+            c = new String(Character.toChars(0x1F602));
+        allRotors = new ArrayList<>();
+        allRotors.add(new Reflector("R",
+                new Permutation("(" + a + b + ")(" + c
+                                + new String(Character.toChars(0x1F603))
+                                + ")", emoji)));
+        allRotors.add(new MovingRotor("M",
+                new Permutation("(" + a + c + ")", emoji), b));
+        Machine m = new Machine(emoji, 2, 1, allRotors);
+        m.insertRotors(new String[] {"R", "M"});
+        m.setRotors(a);
+        String cipher = m.convert(a + a + c);
+        assertEquals(3, cipher.codePointCount(0, cipher.length()));
+        m.setRotors(a);
+        assertEquals("not reciprocal", a + a + c, m.convert(cipher));
+    }
+
+    @Test
+    public void checkLargeArbitraryAlphabet() {
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < 3000; i += 1) {
+            chars.appendCodePoint(0x4e00 + 7 * i);
+        }
+        chars.appendCodePoint(0x20000);
+        Alphabet alpha = new ArbitraryChar(chars.toString());
+        assertEquals(3001, alpha.size());
+        for (int i = 0; i < 3000; i += 1) {
+            assertEquals(i, alpha.indexOfCodePoint(0x4e00 + 7 * i));
+        }
+        assertEquals(3000, alpha.indexOfCodePoint(0x20000));
+        assertFalse(alpha.containsCodePoint(0x4e01));
+    }
+
+    @Test
+    public void checkTraceMatchesConvert() {
+        Random random = new Random(35);
+        for (int trial = 0; trial < 50; trial += 1) {
+            long seed = random.nextLong();
+            Machine traced = randomMachine(seed, 26, 5);
+            int[] msg = new int[200];
+            for (int k = 0; k < msg.length; k += 1) {
+                msg[k] = random.nextInt(26);
+            }
+            RotorTrace trace = traced.trace(msg.length);
+            int[] result = new int[msg.length];
+            Machine stepped = null;
+            for (int swap = 0; swap < 5; swap += 1) {
+                char a = (char) ('A' + random.nextInt(26)),
+                    b = (char) ('A' + random.nextInt(26));
+                String cycles = a == b ? "" : "(" + a + b + ")";
+                Permutation plugboard = new Permutation(cycles, UPPER);
+                stepped = randomMachine(seed, 26, 5);
+                stepped.setPlugboard(plugboard);
+                trace.convert(msg, plugboard, result);
+                for (int k = 0; k < msg.length; k += 1) {
+                    assertEquals(msg("trace", "seed %d, plugboard %s, "
+                                     + "position %d", seed, cycles, k),
+                                 stepped.convert(msg[k]), result[k]);
+                }
+            }
+            assertEquals(positions(stepped), positions(traced));
+        }
+    }
+
+    @Test
+    public void checkConvertPreservingLayout() {
+        Configuration config = Configuration.parse(NAVAL_CONFIG);
+        Machine plain = config.newMachine();
+        Machine preserving = config.newMachine();
+        preserving.setNormalizer(
+            config.normalizer(InputNormalizer.Policy.PASS));
+        plain.setUp("* B BETA III II I AXLE (YF) (ZH)");
+        preserving.setUp("* B BETA III II I AXLE (YF) (ZH)");
+        String text = "From: his shoulder, 1941 -- Hiawatha!";
+        CharBuffer out = CharBuffer.allocate(2 * text.length());
+        preserving.convert(CharBuffer.wrap(text), out);
+        out.flip();
+        String result = out.toString();
+        assertEquals(text.length(), result.length());
+        String letters = plain.convert(text.replaceAll("[^A-Za-z]", ""));
+        for (int i = 0, k = 0; i < text.length(); i += 1) {
+            if (Character.isLetter(text.charAt(i))) {
+                assertEquals(letters.charAt(k), result.charAt(i));
+                k += 1;
+            } else {
+                assertEquals(text.charAt(i), result.charAt(i));
+            }
+        }
+    }
 }
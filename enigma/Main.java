@@ -1,19 +1,33 @@
 package enigma;
 
-import java.io.File;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
 import java.util.ArrayList;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 
 import static enigma.EnigmaException.*;
 
 /** Enigma simulator.
  *  @author James (Dayuan) Tang
  */
-public final class Main {
+public final class Main implements AutoCloseable {
 
     /** Process a sequence of encryptions and decryptions, as
      *  specified by ARGS, where 1 <= ARGS.length <= 3.
@@ -23,7 +37,59 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  Options of the form --NAME or --NAME=VALUE may appear anywhere
+     *  among ARGS:
+     *    --checkpoint=FILE  Periodically record progress in FILE.
+     *    --checkpoint-interval=N  Checkpoint every N input lines
+     *                       (default 10000).
+     *    --resume           Continue from the checkpoint in the
+     *                       --checkpoint FILE, if there is one.
+     *    --validate         Compile and check every rotor in the
+     *                       configuration at startup, in parallel,
+     *                       rather than each rotor on first use.
+     *    --group=N          Print output in groups of N characters
+     *                       (default 5).
+     *    --separator=S      Follow each group with S (default a space).
+     *    --line-width=W     Break output lines between groups so that
+     *                       none is longer than W where possible.
+     *    --raw              Print output without grouping.
+     *    --non-alphabet=P   What to do with message characters outside
+     *                       the alphabet: error (the default, except
+     *                       that spaces are skipped), skip, or pass
+     *                       them through unchanged.
+     *    --preserve         Convert alphabet characters in place and
+     *                       copy all others, spaces included, so output
+     *                       keeps the layout of the input.  Excludes the
+     *                       other layout options and --non-alphabet.
+     *    --stats[=FILE]     Report letter and bigram counts and indices
+     *                       of coincidence of the input and output of
+     *                       each section and of the whole run, gathered
+     *                       during conversion, on FILE (default the
+     *                       standard error).  On --resume, only text
+     *                       after the checkpoint is counted.
+     *    --follow[=IDLE]    At the end of the input file, flush output
+     *                       and wait for more lines to be appended,
+     *                       converting them as they come with the machine
+     *                       as it was left.  Stops after IDLE seconds
+     *                       with nothing new (default: never).
+     *    --engine=E         How to encipher messages: walk (the
+     *                       default), fused, trace or auto, which picks
+     *                       for each class of message the fastest engine
+     *                       as timed on this host (see EngineSelector).
+     *    --engine-cache=FILE  Keep the timings --engine=auto makes in
+     *                       FILE, and reuse those already there.
+     *    --engine-report    Say on the standard error which engine is
+     *                       used for each class of message, and why.
+     *    --table-store=FILE  Take the compiled rotor tables from FILE,
+     *                       mapped read-only and shared with other
+     *                       processes using it, writing them there first
+     *                       if FILE does not hold them (see TableStore).
+     *                       Writing them checks every rotor, as
+     *                       --validate does.
+     *  Checkpointing and --follow require an input file, and
+     *  checkpointing an output file. */
     public static void main(String... args) {
         try {
             new Main(args).process();
@@ -36,38 +102,179 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
-        if (args.length < 1 || args.length > 3) {
+        ArrayList<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                addOption(arg);
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.size() < 1 || files.size() > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _config = readFile(files.get(0));
 
-        if (args.length > 1) {
-            _input = getInput(args[1]);
+        if (_options.containsKey("checkpoint")) {
+            if (files.size() < 3) {
+                throw error("checkpointing requires input and output files");
+            }
+            _checkpointFile = Paths.get(_options.get("checkpoint"));
+            _checkpointInterval = intOption("checkpoint-interval",
+                                            DEFAULT_CHECKPOINT_INTERVAL);
+            if (_options.containsKey("resume")) {
+                _resume = Checkpoint.read(_checkpointFile);
+            }
+        } else if (_options.containsKey("resume")) {
+            throw error("--resume requires --checkpoint");
+        }
+
+        if (_options.containsKey("follow")) {
+            if (files.size() < 2) {
+                throw error("--follow requires an input file");
+            }
+            _following = true;
+            _idleTimeout = _options.get("follow").isEmpty() ? 0
+                : TimeUnit.SECONDS.toNanos(intOption("follow", 0));
+        }
+
+        long inputStart = _resume == null ? 0 : _resume.inputOffset();
+        if (files.size() > 1) {
+            _inputChannel = openInput(files.get(1), inputStart);
+            _input = new LineReader(_inputChannel, Charset.defaultCharset(),
+                                    inputStart);
+            _input.setFollowing(_following);
         } else {
-            _input = new Scanner(System.in);
+            _input = new LineReader(Channels.newChannel(System.in),
+                                    Charset.defaultCharset(), 0);
         }
 
-        if (args.length > 2) {
-            _output = getOutput(args[2]);
+        if (files.size() > 2) {
+            _outputChannel = openOutput(files.get(2),
+                _resume == null ? 0 : _resume.outputOffset());
+            _output = new PrintStream(new BufferedOutputStream(
+                Channels.newOutputStream(_outputChannel), BUFFER_SIZE));
         } else {
             _output = System.out;
         }
+        setLayout();
+    }
+
+    /** A Main applying the configuration whose text is CONFIG to the
+     *  lines of INPUT and printing to OUTPUT, with no options. */
+    Main(String config, LineReader input, PrintStream output) {
+        this(config, input, output, Collections.emptyList());
+    }
+
+    /** A Main applying the configuration whose text is CONFIG to the
+     *  lines of INPUT and printing to OUTPUT, with the options in
+     *  OPTIONS (see comment on main), none of which may be one that
+     *  needs files of its own. */
+    Main(String config, LineReader input, PrintStream output,
+         List<String> options) {
+        for (String arg : options) {
+            addOption(arg);
+        }
+        for (String name : FILE_OPTIONS) {
+            if (_options.containsKey(name)) {
+                throw error("--%s requires input and output files", name);
+            }
+        }
+        _config = config;
+        _input = input;
+        _output = output;
+        setLayout();
+    }
+
+    /** Set up _formatter, and _preserve, as the layout options say. */
+    private void setLayout() {
+        _preserve = _options.containsKey("preserve");
+        if (_preserve) {
+            for (String layout : LAYOUT_OPTIONS) {
+                if (_options.containsKey(layout)) {
+                    throw error("--preserve cannot be combined with --%s",
+                                layout);
+                }
+            }
+            _formatter = new OutputFormatter(_output,
+                                             Charset.defaultCharset(),
+                                             0, "", 0);
+            return;
+        }
+        if (_options.containsKey("raw") && _options.containsKey("group")) {
+            throw error("--raw and --group are exclusive");
+        }
+        _formatter = new OutputFormatter(_output, Charset.defaultCharset(),
+            _options.containsKey("raw") ? 0
+                : intOption("group", OutputFormatter.DEFAULT_GROUP),
+            _options.getOrDefault("separator", " "),
+            _options.containsKey("line-width")
+                ? intOption("line-width", 0) : 0);
+    }
+
+    /** Record the option ARG, which has the form --NAME or
+     *  --NAME=VALUE. */
+    private void addOption(String arg) {
+        int eq = arg.indexOf('=');
+        String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+        if (!OPTIONS.contains(name)) {
+            throw error("unknown option --%s", name);
+        }
+        _options.put(name, eq < 0 ? "" : arg.substring(eq + 1));
+    }
+
+    /** Return the value of the integer option NAME, or DEFAULTVALUE if
+     *  it is absent. */
+    private int intOption(String name, int defaultValue) {
+        String value = _options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value);
+            if (result <= 0) {
+                throw error("--%s must be positive", name);
+            }
+            return result;
+        } catch (NumberFormatException excp) {
+            throw error("--%s needs an integer value", name);
+        }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** Return the contents of the file named NAME. */
+    private String readFile(String name) {
         try {
-            return new Scanner(new File(name));
+            return new String(Files.readAllBytes(Paths.get(name)),
+                              Charset.defaultCharset());
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a channel reading the file named NAME from byte START. */
+    private FileChannel openInput(String name, long start) {
         try {
-            return new PrintStream(new File(name));
+            FileChannel ch = FileChannel.open(Paths.get(name));
+            if (start > ch.size()) {
+                throw error("checkpoint is past the end of %s", name);
+            }
+            return ch.position(start);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a channel writing the file named NAME, which keeps its
+     *  first KEEP bytes and is truncated after them. */
+    private FileChannel openOutput(String name, long keep) {
+        try {
+            FileChannel ch = FileChannel.open(Paths.get(name),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (keep > ch.size()) {
+                throw error("checkpoint is past the end of %s", name);
+            }
+            return ch.truncate(keep).position(keep);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -76,116 +283,269 @@ public final class Main {
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
-    private void process() {
+    void process() {
         Machine enigma = readConfig();
-        if (!_input.hasNext()) {
-            throw error("Missing setting");
-        } else if (!_input.hasNext("\\*")) {
-            throw error("Missing setting");
+        String settings = null;
+        if (_resume != null && _resume.settings() != null) {
+            settings = _resume.settings();
+            setUp(enigma, settings);
+            enigma.setPositions(_resume.positions());
         }
+        _sectionStart = System.nanoTime();
 
-        while (_input.hasNext() || _input.hasNextLine()) {
-            String line = _input.nextLine();
-            if (line.isEmpty()) {
-                _output.println();
-                continue;
+        try {
+            processLines(enigma, settings);
+            if (_stats != null) {
+                _stats.finish(_statsReport);
+            }
+        } finally {
+            _output.flush();
+            if (_statsReport != null && _statsReport != System.err) {
+                _statsReport.close();
+            }
+            close();
+        }
+    }
+
+    /** Close the input and output files I opened, if any.  The standard
+     *  input and output, and streams I was given, are left open. */
+    @Override
+    public void close() {
+        if (_outputChannel != null) {
+            _output.close();
+            _outputChannel = null;
+        }
+        if (_inputChannel != null) {
+            try {
+                _inputChannel.close();
+            } catch (IOException excp) {
+                /* Ignore: the file was only read. */
+            }
+            _inputChannel = null;
+        }
+    }
+
+    /** Apply ENIGMA to the lines of _input, starting under the settings
+     *  line INITIAL (null if none has been seen). */
+    private void processLines(Machine enigma, String initial) {
+        String settings = initial;
+        long linesSinceCheckpoint = 0;
+        CharSequence line;
+        while ((line = nextLine()) != null) {
+            if (line.length() == 0) {
+                _formatter.printLine("");
+                _messageLines += 1;
             } else if (line.charAt(0) == '*') {
-                setUp(enigma, line);
+                if (settings != null) {
+                    endSection();
+                }
+                settings = line.toString();
+                setUp(enigma, settings);
                 enigma.checkRotors();
+                if (_stats != null) {
+                    _stats.startSection(settings, _statsReport);
+                }
+            } else if (settings == null && !isBlank(line)) {
+                throw error("Missing setting");
+            } else if (_preserve) {
+                _formatter.printLine(convertInPlace(enigma,
+                                                    (CharBuffer) line));
+                _messageLines += 1;
             } else {
-                printMessageLine(enigma.convert(line));
+                _formatter.printLine(enigma.convert(line.toString()));
+                _messageLines += 1;
             }
+            linesSinceCheckpoint += 1;
+            if (_checkpointFile != null
+                && linesSinceCheckpoint >= _checkpointInterval) {
+                checkpoint(enigma, settings);
+                linesSinceCheckpoint = 0;
+            }
+        }
+        if (settings == null) {
+            throw error("Missing setting");
+        }
+        endSection();
+        if (_checkpointFile != null) {
+            checkpoint(enigma, settings);
         }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
-        try {
-            String alphabet = _config.next();
-            if (alphabet.length() == 3 && alphabet.contains("-")) {
-                _alphabet = new CharacterRange(alphabet.charAt(0),
-                        alphabet.charAt(2));
-            } else {
-                _alphabet = new ArbitraryChar(alphabet);
+    /** Report the time since the current section began to my section
+     *  timer, if any, and begin the next. */
+    private void endSection() {
+        if (_sectionTimer != null) {
+            long now = System.nanoTime();
+            _sectionTimer.accept(now - _sectionStart);
+            _sectionStart = now;
+        }
+    }
+
+    /** Return the number of message lines (all but settings lines)
+     *  processed so far. */
+    long messageLines() {
+        return _messageLines;
+    }
+
+    /** Have TIMER told the nanoseconds taken by each section of input
+     *  (from its settings line to the next, or to the end) as it ends.
+     *  A section resumed from a checkpoint counts from the resumption. */
+    void setSectionTimer(LongConsumer timer) {
+        _sectionTimer = timer;
+    }
+
+    /** Return the next line of _input, or null at its end.  When
+     *  following, wait at the end for more to be appended, with output
+     *  flushed, until none has come for _idleTimeout (if positive). */
+    private CharSequence nextLine() {
+        long idleSince = 0;
+        while (true) {
+            CharSequence line =
+                _preserve ? _input.readChars() : _input.readLine();
+            if (line != null || !_following) {
+                return line;
+            }
+            long now = System.nanoTime();
+            if (idleSince == 0) {
+                _output.flush();
+                idleSince = now;
+            } else if (_idleTimeout > 0 && now - idleSince >= _idleTimeout) {
+                _following = false;
+                _input.setFollowing(false);
+                continue;
             }
-            int numRotors = _config.nextInt();
-            int numPawls = _config.nextInt();
-            _config.nextLine();
-            ArrayList<Rotor> allRotors = new ArrayList<>();
-            while (_config.hasNextLine()) {
-                allRotors.add(readRotor());
+            try {
+                Thread.sleep(FOLLOW_POLL_MILLIS);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw error("interrupted while following input");
             }
-            return new Machine(_alphabet, numRotors, numPawls, allRotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
-        try {
-            String name = _config.next();
-            String type = _config.next();
-            String perm = _config.nextLine();
-            if (_config.hasNext("\\([A-Za-z]+\\)")) {
-                perm = perm + _config.nextLine();
+    /** Return the result of applying ENIGMA to the message LINE,
+     *  leaving characters outside the alphabet where they are.  The
+     *  result is in a buffer reused by the next call. */
+    private CharBuffer convertInPlace(Machine enigma, CharBuffer line) {
+        if (_converted.capacity() < 2 * line.remaining()) {
+            _converted = CharBuffer.allocate(2 * line.remaining());
+        }
+        _converted.clear();
+        enigma.convert(line, _converted);
+        _converted.flip();
+        return _converted;
+    }
+
+    /** Return true iff LINE is empty or all white space. */
+    private static boolean isBlank(CharSequence line) {
+        for (int i = 0; i < line.length(); i += 1) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
             }
-            if (type.charAt(0) == 'M') {
-                return new MovingRotor(name,
-                        new Permutation(perm, _alphabet), type.substring(1));
-            } else if (type.charAt(0) == 'N') {
-                return new FixedRotor(name, new Permutation(perm, _alphabet));
-            } else if (type.charAt(0) == 'R') {
-                return new Reflector(name, new Permutation(perm, _alphabet));
+        }
+        return true;
+    }
+
+    /** Flush and sync my output, then record a checkpoint of my progress
+     *  with machine M under the settings line SETTINGS. */
+    private void checkpoint(Machine M, String settings) {
+        _output.flush();
+        try {
+            _outputChannel.force(false);
+            new Checkpoint(_input.position(), _outputChannel.position(),
+                           settings,
+                           settings == null ? new int[0] : M.positions())
+                .write(_checkpointFile);
+        } catch (IOException excp) {
+            throw error("could not sync output: %s", excp.getMessage());
+        }
+    }
+
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config.  Rotors are compiled when first used, unless
+     *  --validate asks for all of them to be checked up front or
+     *  --table-store supplies their tables. */
+    private Machine readConfig() {
+        Configuration config = Configuration.parse(_config);
+        if (_options.containsKey("table-store")) {
+            TableStore.attach(config, Paths.get(_options.get("table-store")));
+        }
+        if (_options.containsKey("validate")) {
+            config.library().compileAll();
+        }
+        _alphabet = config.alphabet();
+        Machine result = config.newMachine();
+        String policy = _options.get("non-alphabet");
+        if (_preserve) {
+            result.setNormalizer(
+                config.normalizer(InputNormalizer.Policy.PASS));
+        } else if (policy != null) {
+            result.setNormalizer(config.normalizer(policy(policy)));
+        }
+        result.setEngines(engines());
+        if (_options.containsKey("stats")) {
+            _stats = new StatsCollector(_alphabet);
+            _stats.startSection(_resume == null ? null : _resume.settings(),
+                                null);
+            result.setStats(_stats);
+            _statsReport = openReport(_options.get("stats"));
+        }
+        return result;
+    }
+
+    /** Return the engine selector the --engine options describe, or null
+     *  if messages are to be walked through the rotors unreported. */
+    private EngineSelector engines() {
+        String name = _options.getOrDefault("engine", "walk");
+        boolean report = _options.containsKey("engine-report");
+        if (name.equals("walk") && !report) {
+            return null;
+        }
+        Engine forced = null;
+        if (!name.equals("auto")) {
+            try {
+                forced = Engine.valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException excp) {
+                throw error("--engine must be auto, walk, fused or trace");
             }
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
         }
-        return null;
+        String cache = _options.get("engine-cache");
+        return new EngineSelector(cache == null ? null : Paths.get(cache),
+                                  forced, report ? System.err : null);
+    }
+
+    /** Return a stream printing to the file named NAME, or the standard
+     *  error if NAME is empty. */
+    private PrintStream openReport(String name) {
+        if (name.isEmpty()) {
+            return System.err;
+        }
+        try {
+            return new PrintStream(Files.newOutputStream(Paths.get(name)),
+                                   false, Charset.defaultCharset().name());
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the input normalizer policy named NAME. */
+    private InputNormalizer.Policy policy(String name) {
+        switch (name) {
+        case "error":
+            return InputNormalizer.Policy.STRICT;
+        case "skip":
+            return InputNormalizer.Policy.SKIP;
+        case "pass":
+            return InputNormalizer.Policy.PASS;
+        default:
+            throw error("--non-alphabet must be error, skip or pass");
+        }
     }
 
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
     private void setUp(Machine M, String settings) {
-        Scanner s = new Scanner(settings);
-        s.next();
-        String[] rotors = new String[M.numRotors()];
-        for (int i = 0; i < rotors.length; i++) {
-            rotors[i] = s.next();
-        }
-        M.checkSetting(settings);
-        M.insertRotors(rotors);
-        if (!s.hasNext() || s.hasNext("\\(")) {
-            throw error("must have settings for rotors");
-        }
-        String posSetting = s.next();
-        if (posSetting.length() != M.numRotors() - 1) {
-            throw error("Invalid settings for rotors");
-        }
-        M.setRotors(posSetting);
-        if (s.hasNextLine()) {
-            String plugboard = s.nextLine();
-            M.setPlugboard(new Permutation(plugboard, _alphabet));
-        }
-    }
-
-
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        int pos = 0;
-        while (pos < msg.length()) {
-            for (int i = 0; i < 5; i++) {
-                _output.print(msg.charAt(pos));
-                pos += 1;
-                if (pos == msg.length()) {
-                    break;
-                }
-            }
-            _output.print(' ');
-        }
-        _output.println();
+        M.setUp(settings);
     }
 
 
@@ -193,11 +553,87 @@ public final class Main {
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private LineReader _input;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
+    /** Text of the machine configuration. */
+    private String _config;
 
     /** File for encoded/decoded messages. */
     private PrintStream _output;
+
+    /** Lays out message lines on _output. */
+    private OutputFormatter _formatter;
+
+    /** True iff output keeps the layout of input (--preserve). */
+    private boolean _preserve;
+
+    /** Number of message lines processed. */
+    private long _messageLines;
+
+    /** Result of the last convertInPlace. */
+    private CharBuffer _converted = CharBuffer.allocate(256);
+
+    /** Statistics of converted text (--stats), or null. */
+    private StatsCollector _stats;
+
+    /** Where _stats are reported. */
+    private PrintStream _statsReport;
+
+    /** Receives the time taken by each section, or null. */
+    private LongConsumer _sectionTimer;
+
+    /** Value of System.nanoTime() when the current section began. */
+    private long _sectionStart;
+
+    /** True while waiting at the end of input for more (--follow). */
+    private boolean _following;
+
+    /** Nanoseconds to wait for more input when following before
+     *  stopping, or 0 to wait forever. */
+    private long _idleTimeout;
+
+    /** Channel beneath _output when it is a file, else null. */
+    private FileChannel _outputChannel;
+
+    /** Channel reading the input file, or null if I did not open one. */
+    private FileChannel _inputChannel;
+
+    /** Options given on the command line, mapped to their values. */
+    private HashMap<String, String> _options = new HashMap<>();
+
+    /** File holding checkpoints, or null if not checkpointing. */
+    private Path _checkpointFile;
+
+    /** Number of input lines between checkpoints. */
+    private int _checkpointInterval;
+
+    /** Checkpoint being resumed from, or null. */
+    private Checkpoint _resume;
+
+    /** Names of the options Main accepts. */
+    static final List<String> OPTIONS =
+        Arrays.asList("checkpoint", "checkpoint-interval", "resume",
+                      "validate", "group", "separator", "line-width", "raw",
+                      "non-alphabet", "preserve", "stats", "follow",
+                      "engine", "engine-cache", "engine-report",
+                      "table-store");
+
+    /** Options that need input or output files. */
+    private static final List<String> FILE_OPTIONS =
+        Arrays.asList("checkpoint", "checkpoint-interval", "resume",
+                      "follow");
+
+    /** Options that set the layout of output, which --preserve fixes. */
+    private static final List<String> LAYOUT_OPTIONS =
+        Arrays.asList("group", "separator", "line-width", "raw",
+                      "non-alphabet");
+
+    /** Default number of input lines between checkpoints. */
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 10000;
+
+    /** Milliseconds between looks for more input when following. */
+    private static final long FOLLOW_POLL_MILLIS = 100;
+
+    /** Size of the output buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
 }
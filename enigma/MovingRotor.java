@@ -1,7 +1,5 @@
 package enigma;
 
-import java.util.ArrayList;
-
 import static enigma.EnigmaException.*;
 
 /** Class that represents a rotating rotor in the enigma machine.
@@ -17,9 +15,40 @@ class MovingRotor extends Rotor {
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
         this.set(0);
-        _notches = new ArrayList<>();
-        for (int i = 0; i < notches.length(); i++) {
-            _notches.add(alphabet().toInt(notches.charAt(i)));
+        int n = size();
+        _notchBits = new long[(n + 63) >>> 6];
+        for (int i = 0; i < notches.length();
+             i += Character.charCount(notches.codePointAt(i))) {
+            int k = alphabet().indexOfCodePoint(notches.codePointAt(i));
+            _notchBits[k >>> 6] |= 1L << k;
+        }
+        for (long word : _notchBits) {
+            _numNotches += Long.bitCount(word);
+        }
+        _notchPrefix = new int[n + 1];
+        _free = new int[n - _numNotches];
+        for (int p = 0, f = 0; p < n; p += 1) {
+            _notchPrefix[p + 1] = _notchPrefix[p];
+            if (isNotch(p)) {
+                _notchPrefix[p + 1] += 1;
+                _adjacentNotches |= isNotch((p + 1) % n);
+            } else {
+                _free[f] = p;
+                f += 1;
+            }
+        }
+        if (n > Long.SIZE && _numNotches > 0) {
+            _notchDistance = new int[n];
+            int next = -1;
+            for (int p = 2 * n - 1; p >= 0; p -= 1) {
+                int k = p % n;
+                if (isNotch(k)) {
+                    next = p;
+                }
+                if (p < n) {
+                    _notchDistance[p] = next - p;
+                }
+            }
         }
     }
 
@@ -30,7 +59,65 @@ class MovingRotor extends Rotor {
 
     @Override
     boolean atNotch() {
-        return _notches.contains(setting());
+        return isNotch(setting());
+    }
+
+    @Override
+    int stepsUntilNextNotch() {
+        if (_numNotches == 0) {
+            return -1;
+        } else if (_notchDistance != null) {
+            return _notchDistance[setting()];
+        }
+        long mask = _notchBits[0];
+        int s = setting();
+        long rotated = (mask >>> s) | (mask << (size() - s));
+        return Long.numberOfTrailingZeros(rotated);
+    }
+
+    /** Return the number of notches I have. */
+    int numNotches() {
+        return _numNotches;
+    }
+
+    /** Return the number of notches among the COUNT positions starting
+     *  at FROM (0 <= FROM < size()), wrapping around the alphabet. */
+    long notchesAhead(int from, long count) {
+        int n = size();
+        long result = (count / n) * _numNotches;
+        int end = from + (int) (count % n);
+        if (end <= n) {
+            result += _notchPrefix[end] - _notchPrefix[from];
+        } else {
+            result += _notchPrefix[n] - _notchPrefix[from]
+                + _notchPrefix[end - n];
+        }
+        return result;
+    }
+
+    /** Return the smallest count A such that exactly FREE of the A
+     *  positions starting at FROM (0 <= FROM < size()) are not notches.
+     *  Requires that some position is not a notch. */
+    long advancesPastFree(int from, long free) {
+        if (free == 0) {
+            return 0;
+        }
+        int n = size(), f = _free.length;
+        long cycles = (free - 1) / f;
+        int idx = from - _notchPrefix[from] + (int) ((free - 1) % f);
+        int offset = idx < f ? _free[idx] - from : _free[idx - f] + n - from;
+        return cycles * n + offset + 1;
+    }
+
+    /** Return true iff some two cyclically adjacent positions are both
+     *  notches. */
+    boolean hasAdjacentNotches() {
+        return _adjacentNotches;
+    }
+
+    /** Return true iff position POSN (0 <= POSN < size()) is a notch. */
+    boolean isNotch(int posn) {
+        return (_notchBits[posn >>> 6] & (1L << posn)) != 0;
     }
 
     @Override
@@ -38,6 +125,23 @@ class MovingRotor extends Rotor {
         set(permutation().wrap((setting() + 1)));
     }
 
-    /** A list of all notches. */
-    private ArrayList<Integer> _notches;
+    /** Notch positions as a bitset: bit P of word P / 64 is set iff P is
+     *  a notch.  Alphabets of at most 64 characters use one word. */
+    private final long[] _notchBits;
+
+    /** Number of distinct notch positions. */
+    private int _numNotches;
+
+    /** _notchPrefix[P] is the number of notches at positions below P. */
+    private final int[] _notchPrefix;
+
+    /** True iff two cyclically adjacent positions are both notches. */
+    private boolean _adjacentNotches;
+
+    /** The positions that are not notches, in increasing order. */
+    private final int[] _free;
+
+    /** For alphabets too large for a one-word mask, the number of
+     *  advances from each position to the next notch; otherwise null. */
+    private int[] _notchDistance;
 }
@@ -0,0 +1,219 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import static enigma.EnigmaException.*;
+
+/** Lays out converted messages for output: in groups of a given number
+ *  of characters, each followed by a separator, optionally wrapped so
+ *  that no line is longer than a given width; or raw, with no grouping.
+ *  Each message line is formatted into a reusable buffer, encoded, and
+ *  handed to the underlying stream in a single write.
+ *  @author James (Dayuan) Tang
+ */
+class OutputFormatter {
+
+    /** A formatter writing to OUT in CHARSET, putting SEPARATOR after
+     *  every group of GROUP characters, or no separators at all if GROUP
+     *  is 0.  If WIDTH is positive, lines are broken so that none is
+     *  longer than WIDTH characters where possible: between groups, or
+     *  anywhere if GROUP is 0. */
+    OutputFormatter(OutputStream out, Charset charset, int group,
+                    String separator, int width) {
+        if (group < 0 || width < 0) {
+            throw error("group size and line width may not be negative");
+        }
+        _out = out;
+        _group = group;
+        _separator = separator.toCharArray();
+        _width = width;
+        _encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _asciiCompatible = asciiCompatible(charset);
+    }
+
+    /** The usual formatter, writing to OUT in CHARSET: groups of five
+     *  characters, each followed by a space, with no line limit. */
+    OutputFormatter(OutputStream out, Charset charset) {
+        this(out, charset, DEFAULT_GROUP, " ", 0);
+    }
+
+    /** Write MSG as one or more formatted lines. */
+    void printLine(CharSequence msg) {
+        _length = 0;
+        int column = 0, inGroup = 0;
+        for (int i = 0, n = msg.length(); i < n; ) {
+            int cp = Character.codePointAt(msg, i);
+            int units = Character.charCount(cp);
+            if (_width > 0 && column > 0
+                && ((_group == 0 && column + 1 > _width)
+                    || (_group > 0 && inGroup == 0
+                        && column + groupWidth(msg, i) > _width))) {
+                appendLineSeparator();
+                column = 0;
+            }
+            for (int k = 0; k < units; k += 1) {
+                append(msg.charAt(i + k));
+            }
+            i += units;
+            column += 1;
+            if (_group > 0) {
+                inGroup += 1;
+                if (inGroup == _group || i == n) {
+                    for (char c : _separator) {
+                        append(c);
+                    }
+                    column += _separator.length;
+                    inGroup = 0;
+                }
+            }
+        }
+        appendLineSeparator();
+        write();
+    }
+
+    /** Return the number of columns taken by the group of MSG starting
+     *  at I, with its separator. */
+    private int groupWidth(CharSequence msg, int i) {
+        int count = 0;
+        for (int k = i; k < msg.length() && count < _group; count += 1) {
+            k += Character.charCount(Character.codePointAt(msg, k));
+        }
+        return count + _separator.length;
+    }
+
+    /** Add the line separator to my line. */
+    private void appendLineSeparator() {
+        for (int k = 0; k < LINE_SEPARATOR.length(); k += 1) {
+            append(LINE_SEPARATOR.charAt(k));
+        }
+    }
+
+    /** Add C to my line. */
+    private void append(char c) {
+        if (_length == _chars.length) {
+            char[] bigger = new char[2 * _chars.length];
+            System.arraycopy(_chars, 0, bigger, 0, _length);
+            _chars = bigger;
+        }
+        _chars[_length] = c;
+        _length += 1;
+    }
+
+    /** Encode my line and write it to my stream in one call. */
+    private void write() {
+        try {
+            if (_asciiCompatible && isAscii()) {
+                if (_bytes.length < _length) {
+                    _bytes = new byte[_chars.length];
+                }
+                for (int k = 0; k < _length; k += 1) {
+                    _bytes[k] = (byte) _chars[k];
+                }
+                _out.write(_bytes, 0, _length);
+            } else {
+                ByteBuffer encoded = encode();
+                _out.write(encoded.array(), 0, encoded.position());
+            }
+        } catch (CharacterCodingException excp) {
+            throw error("could not encode output");
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Return my line encoded into my reusable byte buffer, which is
+     *  grown as needed. */
+    private ByteBuffer encode() throws CharacterCodingException {
+        while (true) {
+            CharBuffer in = CharBuffer.wrap(_chars, 0, _length);
+            ByteBuffer out = ByteBuffer.wrap(_bytes);
+            _encoder.reset();
+            CoderResult result = _encoder.encode(in, out, true);
+            if (!result.isOverflow()) {
+                result = _encoder.flush(out);
+            }
+            if (result.isOverflow()) {
+                _bytes = new byte[2 * _bytes.length];
+            } else if (result.isError()) {
+                result.throwException();
+            } else {
+                return out;
+            }
+        }
+    }
+
+    /** Return true iff my line is all ASCII. */
+    private boolean isAscii() {
+        for (int k = 0; k < _length; k += 1) {
+            if (_chars[k] >= ASCII_LIMIT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff CHARSET encodes each ASCII character as the
+     *  single byte of the same value. */
+    private static boolean asciiCompatible(Charset charset) {
+        char[] all = new char[ASCII_LIMIT];
+        for (int c = 0; c < ASCII_LIMIT; c += 1) {
+            all[c] = (char) c;
+        }
+        byte[] encoded = new String(all).getBytes(charset);
+        if (encoded.length != ASCII_LIMIT) {
+            return false;
+        }
+        for (int c = 0; c < ASCII_LIMIT; c += 1) {
+            if (encoded[c] != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Default number of characters per group. */
+    static final int DEFAULT_GROUP = 5;
+
+    /** Characters below this are ASCII. */
+    private static final int ASCII_LIMIT = 128;
+
+    /** Ends each output line. */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** Destination of formatted lines. */
+    private final OutputStream _out;
+
+    /** Characters per group, or 0 for no grouping. */
+    private final int _group;
+
+    /** Follows each group. */
+    private final char[] _separator;
+
+    /** Maximum line width, or 0 for none. */
+    private final int _width;
+
+    /** Encodes lines that are not plain ASCII. */
+    private final CharsetEncoder _encoder;
+
+    /** True iff ASCII lines may be copied to bytes directly. */
+    private final boolean _asciiCompatible;
+
+    /** The line being formatted: _chars[0.._length). */
+    private char[] _chars = new char[256];
+
+    /** Number of characters in _chars. */
+    private int _length;
+
+    /** Buffer for encoded ASCII lines. */
+    private byte[] _bytes = new byte[256];
+}
@@ -0,0 +1,76 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/** The suite of all JUnit tests for the OutputFormatter class.
+ *  @author James (Dayuan) Tang
+ */
+public class OutputFormatterTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Line separator. */
+    private static final String NL = System.lineSeparator();
+
+    /** Return MSG as formatted by a formatter in CHARSET with group size
+     *  GROUP, separator SEP, and width WIDTH. */
+    private String format(String msg, Charset charset, int group,
+                          String sep, int width) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new OutputFormatter(out, charset, group, sep, width).printLine(msg);
+        return new String(out.toByteArray(), charset);
+    }
+
+    @Test
+    public void checkDefault() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputFormatter f =
+            new OutputFormatter(out, StandardCharsets.US_ASCII);
+        f.printLine("HELLOWORLDX");
+        f.printLine("");
+        f.printLine("ABCDE");
+        assertEquals("HELLO WORLD X " + NL + NL + "ABCDE " + NL,
+                     out.toString());
+    }
+
+    @Test
+    public void checkGroupsAndWidth() {
+        Charset ascii = StandardCharsets.US_ASCII;
+        assertEquals("HELL-OWOR-LDX-" + NL,
+                     format("HELLOWORLDX", ascii, 4, "-", 0));
+        assertEquals("HELLOWORLDX" + NL,
+                     format("HELLOWORLDX", ascii, 0, "", 0));
+        assertEquals("HEL" + NL + "LOW" + NL + "ORL" + NL + "DX" + NL,
+                     format("HELLOWORLDX", ascii, 0, "", 3));
+        assertEquals("HELLO WORLD " + NL + "ABCDE F " + NL,
+                     format("HELLOWORLDABCDEF", ascii, 5, " ", 12));
+        assertEquals("HELLO " + NL + "WORLD " + NL,
+                     format("HELLOWORLD", ascii, 5, " ", 3));
+    }
+
+    @Test
+    public void checkNonAscii() {
+        String msg = "\u4e00\u4e01\ud840\udc00\u4e02";
+        assertEquals("\u4e00\u4e01 \ud840\udc00\u4e02 " + NL,
+                     format(msg, StandardCharsets.UTF_8, 2, " ", 0));
+        assertEquals("\u4e00\u4e01 " + NL + "\ud840\udc00\u4e02 " + NL,
+                     format(msg, StandardCharsets.UTF_16, 2, " ", 4));
+        StringBuilder longMsg = new StringBuilder();
+        for (int i = 0; i < 2000; i += 1) {
+            longMsg.append('\u00e9');
+        }
+        assertEquals(2000 + 400 + NL.length(),
+                     format(longMsg.toString(), StandardCharsets.UTF_8,
+                            5, " ", 0).length());
+    }
+
+}
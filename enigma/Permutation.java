@@ -1,7 +1,5 @@
 package enigma;
 
-import java.util.Scanner;
-import java.util.HashMap;
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
@@ -17,46 +15,118 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _cycles = cycles;
-        Scanner c = new Scanner(_cycles);
-        while (c.hasNext()) {
-            String next = c.next();
-            if (next.charAt(0) != '('
-                    || next.charAt(next.length() - 1) != ')') {
+        int size = alphabet.size();
+        _forward = IndexTable.identity(size);
+        boolean[] seen = new boolean[size];
+        int i = 0, n = cycles.length();
+        while (i < n) {
+            char ch = cycles.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                i += 1;
+                continue;
+            } else if (ch != '(') {
                 throw error("Invalid cycles");
             }
+            int end = cycles.indexOf(')', i);
+            if (end < 0) {
+                throw error("Invalid cycles");
+            }
+            addCycle(cycles, i + 1, end, seen);
+            i = end + 1;
+            if (i < n && !Character.isWhitespace(cycles.charAt(i))
+                && cycles.charAt(i) != '(') {
+                throw error("Invalid cycles");
+            }
+        }
+        _inverse = inverseOf(_forward);
+        _derangement = noFixedPoints(_forward);
+    }
+
+    /** The permutation of ALPHABET that maps each index I to MAP[I].
+     *  MAP must hold each of 0..ALPHABET.size()-1 exactly once. */
+    Permutation(Alphabet alphabet, int[] map) {
+        int size = alphabet.size();
+        if (map.length != size) {
+            throw error("permutation table has the wrong length");
         }
-        int startIndex = 0;
-        for (int i = 0; i < _cycles.length(); i++) {
-            if (_cycles.charAt(i) == '(') {
-                startIndex = i + 1;
-            } else if (_cycles.charAt(i) == ')') {
-                addCycle(_cycles.substring(startIndex, i));
+        boolean[] seen = new boolean[size];
+        _forward = IndexTable.create(size, size);
+        for (int i = 0; i < size; i += 1) {
+            int v = map[i];
+            if (v < 0 || v >= size || seen[v]) {
+                throw error("table is not a permutation");
             }
+            seen[v] = true;
+            _forward.set(i, v);
         }
-        for (int i = 0; i < alphabet.size(); i++) {
-            char ch = alphabet.toChar(i);
-            if (!_pmap.containsKey(ch)) {
-                addCycle(Character.toString(ch));
-                _derangement = false;
+        _alphabet = alphabet;
+        _inverse = inverseOf(_forward);
+        _derangement = noFixedPoints(_forward);
+    }
+
+    /** The permutation of ALPHABET with tables FORWARD and INVERSE,
+     *  which must be inverses of each other.  The tables are used as
+     *  they are, not copied. */
+    Permutation(Alphabet alphabet, IndexTable forward,
+                IndexTable inverse) {
+        _alphabet = alphabet;
+        _forward = forward;
+        _inverse = inverse;
+        _derangement = noFixedPoints(forward);
+    }
+
+    /** Return the inverse of the permutation table FORWARD. */
+    private static IndexTable inverseOf(IndexTable forward) {
+        int size = forward.length();
+        IndexTable result = IndexTable.create(size, size);
+        for (int k = 0; k < size; k += 1) {
+            result.set(forward.get(k), k);
+        }
+        return result;
+    }
+
+    /** Return true iff the permutation table TABLE has no fixed point. */
+    private static boolean noFixedPoints(IndexTable table) {
+        for (int k = 0; k < table.length(); k += 1) {
+            if (table.get(k) == k) {
+                return false;
             }
         }
+        return true;
     }
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        for (int i = 0; i < cycle.length(); i++) {
-            if (cycle.charAt(i) == ' ') {
+    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where
+     *  CYCLES[START..END) is c0c1...cm, a sequence of code points.  SEEN
+     *  records the indices already placed in some cycle. */
+    private void addCycle(String cycles, int start, int end,
+                          boolean[] seen) {
+        int first = -1, prev = -1;
+        for (int i = start; i < end; i += Character.charCount(
+                 cycles.codePointAt(i))) {
+            int cp = cycles.codePointAt(i);
+            if (Character.isWhitespace(cp)) {
                 throw error("Cycle cannot contain whitespaces");
+            } else if (cp == '(') {
+                throw error("Invalid cycles");
+            } else if (!_alphabet.containsCodePoint(cp)) {
+                throw error("'%s' in cycles is not in the alphabet",
+                            new String(Character.toChars(cp)));
+            }
+            int k = _alphabet.indexOfCodePoint(cp);
+            if (seen[k]) {
+                throw error("'%s' appears in more than one cycle",
+                            new String(Character.toChars(cp)));
             }
-            if (i == cycle.length() - 1) {
-                _pmap.put(cycle.charAt(i), cycle.charAt(0));
-                _reversePmap.put(cycle.charAt(0), cycle.charAt(i));
-                break;
+            seen[k] = true;
+            if (prev < 0) {
+                first = k;
+            } else {
+                _forward.set(prev, k);
             }
-            _pmap.put(cycle.charAt(i), cycle.charAt(i + 1));
-            _reversePmap.put(cycle.charAt(i + 1), cycle.charAt(i));
+            prev = k;
+        }
+        if (prev >= 0) {
+            _forward.set(prev, first);
         }
     }
 
@@ -77,15 +147,13 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        char ch = _alphabet.toChar(wrap(p));
-        return alphabet().toInt(_pmap.get(ch));
+        return _forward.get(wrap(p));
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to C modulo the alphabet size. */
     int invert(int c) {
-        char ch = _alphabet.toChar(wrap(c));
-        return alphabet().toInt(_reversePmap.get(ch));
+        return _inverse.get(wrap(c));
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -103,6 +171,108 @@ class Permutation {
         return alphabet().toChar(index);
     }
 
+    /** Return my mapping as an array: element I is permute(I). */
+    int[] toArray() {
+        int[] result = new int[size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _forward.get(i);
+        }
+        return result;
+    }
+
+    /** Return the composition of this permutation with Q, which maps
+     *  each index I to permute(Q.permute(I)): Q is applied first. */
+    Permutation compose(Permutation q) {
+        int size = size();
+        if (q.size() != size) {
+            throw error("cannot compose permutations of different sizes");
+        }
+        IndexTable forward = IndexTable.create(size, size);
+        for (int i = 0; i < size; i += 1) {
+            forward.set(i, _forward.get(q._forward.get(i)));
+        }
+        return new Permutation(_alphabet, forward, inverseOf(forward));
+    }
+
+    /** Return the inverse of this permutation. */
+    Permutation inverse() {
+        return new Permutation(_alphabet, _inverse, _forward);
+    }
+
+    /** Return this permutation applied K times (its inverse applied -K
+     *  times if K is negative).  Each element moves K places along its
+     *  cycle, so the cost is linear in size() whatever K is. */
+    Permutation power(long k) {
+        int size = size();
+        IndexTable forward = IndexTable.create(size, size);
+        boolean[] seen = new boolean[size];
+        int[] cycle = new int[size];
+        for (int start = 0; start < size; start += 1) {
+            if (seen[start]) {
+                continue;
+            }
+            int len = 0;
+            for (int i = start; !seen[i]; i = _forward.get(i)) {
+                seen[i] = true;
+                cycle[len] = i;
+                len += 1;
+            }
+            int shift = (int) Math.floorMod(k, (long) len);
+            for (int j = 0; j < len; j += 1) {
+                int to = j + shift < len ? j + shift : j + shift - len;
+                forward.set(cycle[j], cycle[to]);
+            }
+        }
+        return new Permutation(_alphabet, forward, inverseOf(forward));
+    }
+
+    /** Return this permutation conjugated by a rotation of SHIFT places:
+     *  the map I -> permute(I + SHIFT) - SHIFT, modulo size().  This is
+     *  the substitution made by a rotor with this permutation at
+     *  setting SHIFT. */
+    Permutation conjugate(int shift) {
+        int size = size();
+        int s = wrap(shift);
+        IndexTable forward = IndexTable.create(size, size);
+        IndexTable inverse = IndexTable.create(size, size);
+        for (int i = 0; i < size; i += 1) {
+            int from = i + s < size ? i + s : i + s - size;
+            int v = _forward.get(from) - s;
+            forward.set(i, v < 0 ? v + size : v);
+            v = _inverse.get(from) - s;
+            inverse.set(i, v < 0 ? v + size : v);
+        }
+        return new Permutation(_alphabet, forward, inverse);
+    }
+
+    /** Return the lengths of my cycles, fixed points included, longest
+     *  first. */
+    int[] cycleType() {
+        int size = size();
+        boolean[] seen = new boolean[size];
+        int[] counts = new int[size + 1];
+        int numCycles = 0;
+        for (int start = 0; start < size; start += 1) {
+            if (seen[start]) {
+                continue;
+            }
+            int len = 0;
+            for (int i = start; !seen[i]; i = _forward.get(i)) {
+                seen[i] = true;
+                len += 1;
+            }
+            counts[len] += 1;
+            numCycles += 1;
+        }
+        int[] result = new int[numCycles];
+        for (int len = size, k = 0; len > 0; len -= 1) {
+            for (int c = 0; c < counts[len]; c += 1, k += 1) {
+                result[k] = len;
+            }
+        }
+        return result;
+    }
+
     /** Return the alphabet used to initialize this Permutation. */
     Alphabet alphabet() {
         return _alphabet;
@@ -117,15 +287,12 @@ class Permutation {
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** Cycles of permutations. */
-    private String _cycles;
-
-    /***/
-    private HashMap<Character, Character> _pmap = new HashMap<>();
+    /** _forward.get(I) is the index I maps to. */
+    private final IndexTable _forward;
 
-    /** A reverse hashmap to store permutation. */
-    private HashMap<Character, Character> _reversePmap = new HashMap<>();
+    /** _inverse.get(I) is the index that maps to I. */
+    private final IndexTable _inverse;
 
     /** If the permutation is deranged. */
-    private boolean _derangement = true;
+    private final boolean _derangement;
 }
@@ -75,4 +75,70 @@ public class PermutationTest {
         assertEquals(perm.invert('C'), 'B');
     }
 
+    @Test
+    public void checkDerangement() {
+        assertTrue(new Permutation(NAVALA.get("B"), UPPER).derangement());
+        assertFalse(new Permutation(NAVALA.get("I"), UPPER).derangement());
+        assertFalse(new Permutation("", UPPER).derangement());
+    }
+
+    @Test
+    public void checkLargeAlphabet() {
+        Alphabet big = new CharacterRange('\u4e00', '\u56ff');
+        char a = big.toChar(0), b = big.toChar(300), c = big.toChar(2303);
+        perm = new Permutation("(" + a + b + c + ")", big);
+        assertEquals(2304, perm.size());
+        assertEquals(300, perm.permute(0));
+        assertEquals(2303, perm.permute(300));
+        assertEquals(0, perm.permute(2303));
+        assertEquals(2303, perm.invert(0));
+        assertEquals(7, perm.permute(7));
+        assertEquals(c, perm.permute(b));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkRepeatedCharacter() {
+        perm = new Permutation("(ABC) (DA)", UPPER);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnbalancedCycle() {
+        perm = new Permutation("(ABC) (DE", UPPER);
+    }
+
+    @Test
+    public void checkAlgebra() {
+        Alphabet a = new CharacterRange('A', 'Z');
+        Permutation p = new Permutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) "
+                                        + "(IV) (JZ) (S)", a);
+        Permutation q = new Permutation("(ABCDEFGHIJKLMNOPQRSTUVWXYZ)", a);
+        Permutation pq = p.compose(q);
+        for (int i = 0; i < 26; i += 1) {
+            assertEquals(p.permute(q.permute(i)), pq.permute(i));
+            assertEquals(i, pq.invert(pq.permute(i)));
+            assertEquals(p.invert(i), p.inverse().permute(i));
+            assertEquals(p.wrap(p.permute(i + 3) - 3),
+                         p.conjugate(3).permute(i));
+            assertEquals(p.wrap(p.invert(i + 29) - 29),
+                         p.conjugate(29).invert(i));
+        }
+        Permutation cube = p.compose(p).compose(p);
+        assertArrayEquals(cube.toArray(), p.power(3).toArray());
+        assertArrayEquals(p.inverse().toArray(), p.power(-1).toArray());
+        assertArrayEquals(p.toArray(),
+                          p.power(2520 * 1000L + 1).toArray());
+        assertArrayEquals(new int[] {10, 4, 4, 3, 2, 2, 1},
+                          p.cycleType());
+        assertArrayEquals(new int[] {26}, q.cycleType());
+        assertArrayEquals(new int[] {13, 13}, q.power(2).cycleType());
+        assertArrayEquals(q.toArray(),
+                          new Permutation(a, q.toArray()).toArray());
+        assertFalse(new Permutation("", a).power(5).derangement());
+        assertTrue(q.derangement());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadTable() {
+        new Permutation(new CharacterRange('A', 'C'), new int[] {0, 2, 2});
+    }
 }
@@ -0,0 +1,96 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static enigma.EnigmaException.*;
+
+/** Random access to a long enciphered message stored in a file as its
+ *  bare ciphertext: one byte per character, with no grouping or line
+ *  breaks, so the alphabet must consist of characters below U+0100.
+ *  The machine state before any character is computed directly from
+ *  the settings, by Machine.advanceBy, or from a KeystreamIndex when
+ *  one is given, and only the requested window is read and deciphered.
+ *  @author James (Dayuan) Tang
+ */
+class RangeDecryptor {
+
+    /** A decryptor for the message in ARCHIVE, enciphered by a machine
+     *  of configuration CONFIG. */
+    RangeDecryptor(Configuration config, Path archive) {
+        Alphabet alphabet = config.alphabet();
+        for (int k = 0; k < alphabet.size(); k += 1) {
+            if (alphabet.toCodePoint(k) > MAX_BYTE) {
+                throw error("random access needs an alphabet of "
+                            + "single-byte characters");
+            }
+        }
+        _config = config;
+        _archive = archive;
+    }
+
+    /** Use INDEX, which must describe my archive, to find machine
+     *  states. */
+    void useIndex(KeystreamIndex index) {
+        _index = index;
+    }
+
+    /** Return the decipherment of the LENGTH characters of my message
+     *  starting at character OFFSET, enciphered under SETTINGS. */
+    String decryptRange(String settings, long offset, int length) {
+        if (offset < 0 || length < 0) {
+            throw error("negative offset or length");
+        }
+        Machine machine = _config.newMachine();
+        machine.setUp(settings);
+        machine.checkRotors();
+        if (_index != null && _index.settings().equals(settings)
+            && offset <= _index.length()) {
+            _index.seek(machine, offset);
+        } else {
+            machine.advanceBy(offset);
+        }
+
+        ByteBuffer window = ByteBuffer.allocate(length);
+        try (FileChannel ch = FileChannel.open(_archive)) {
+            if (offset + length > ch.size()) {
+                throw error("range %d..%d is past the end of %s", offset,
+                            offset + length, _archive);
+            }
+            while (window.hasRemaining()) {
+                if (ch.read(window, offset + window.position()) < 0) {
+                    throw error("%s is shorter than expected", _archive);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", _archive);
+        }
+
+        Alphabet alphabet = machine.alphabet();
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; i < length; i += 1) {
+            int cp = window.get(i) & MAX_BYTE;
+            if (!alphabet.containsCodePoint(cp)) {
+                throw error("character at %d is not in the alphabet",
+                            offset + i);
+            }
+            int next = machine.convert(alphabet.indexOfCodePoint(cp));
+            result.appendCodePoint(alphabet.toCodePoint(next));
+        }
+        return result.toString();
+    }
+
+    /** Largest code point stored as one byte. */
+    private static final int MAX_BYTE = 0xff;
+
+    /** Configuration of the enciphering machine. */
+    private final Configuration _config;
+
+    /** File holding the ciphertext. */
+    private final Path _archive;
+
+    /** Index of machine states, or null. */
+    private KeystreamIndex _index;
+}
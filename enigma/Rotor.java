@@ -62,6 +62,9 @@ class Rotor {
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
+        if (_forwardAt != null) {
+            return _forwardAt.get(_setting * size() + p);
+        }
         return _permutation.wrap(_permutation.permute(p + setting())
                 - setting());
     }
@@ -69,16 +72,37 @@ class Rotor {
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
+        if (_backwardAt != null) {
+            return _backwardAt.get(_setting * size() + e);
+        }
         return _permutation.wrap(_permutation.invert(e + setting())
                 - setting());
     }
 
+    /** Have convertForward and convertBackward look their results up in
+     *  FORWARDAT and BACKWARDAT, which hold at S * size() + P what each
+     *  would compute for P at setting S. */
+    void setPositionTables(IndexTable forwardAt, IndexTable backwardAt) {
+        if (forwardAt.length() != size() * size()
+            || backwardAt.length() != size() * size()) {
+            throw error("position tables have the wrong length");
+        }
+        _forwardAt = forwardAt;
+        _backwardAt = backwardAt;
+    }
+
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
         return false;
     }
 
+    /** Return the number of advances needed before atNotch() is true,
+     *  which is 0 if I am at a notch now, or -1 if I have no notches. */
+    int stepsUntilNextNotch() {
+        return -1;
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
@@ -96,4 +120,8 @@ class Rotor {
 
     /** Setting of my rotor. */
     private int _setting;
+
+    /** Tables of convertForward and convertBackward at every setting, or
+     *  null to compute them from _permutation. */
+    private IndexTable _forwardAt, _backwardAt;
 }
@@ -0,0 +1,163 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The description of a rotor in a configuration file, kept as a span of
+ *  the file's text until the rotor is first used.  The Permutation is
+ *  compiled from that span once and shared by every Rotor built from
+ *  this definition; each machine still gets its own Rotor, since rotors
+ *  carry their settings.
+ *  @author James (Dayuan) Tang
+ */
+class RotorDefinition {
+
+    /** A rotor named NAME of type TYPE ("M" followed by notches, "N" or
+     *  "R") whose cycles are TEXT[START..END), starting on line LINE of
+     *  its configuration file, over ALPHABET. */
+    RotorDefinition(String name, String type, String text, int start,
+                    int end, int line, Alphabet alphabet) {
+        if (type.isEmpty() || "MNR".indexOf(type.charAt(0)) < 0) {
+            throw error("line %d: bad rotor type %s", line, type);
+        }
+        _name = name.toUpperCase();
+        _type = type;
+        _text = text;
+        _start = start;
+        _end = end;
+        _line = line;
+        _alphabet = alphabet;
+    }
+
+    /** Return my rotor's name. */
+    String name() {
+        return _name;
+    }
+
+    /** Return the configuration line on which I start. */
+    int line() {
+        return _line;
+    }
+
+    /** Return my type: "M" followed by my notches, "N", or "R". */
+    String type() {
+        return _type;
+    }
+
+    /** Return true iff I describe a moving rotor. */
+    boolean rotates() {
+        return _type.charAt(0) == 'M';
+    }
+
+    /** Return true iff I describe a reflector. */
+    boolean reflecting() {
+        return _type.charAt(0) == 'R';
+    }
+
+    /** Return the cycles describing my permutation. */
+    String cycles() {
+        return _text.substring(_start, _end);
+    }
+
+    /** Return true iff my permutation has been compiled. */
+    boolean compiled() {
+        return _permutation != null;
+    }
+
+    /** Return my permutation, compiling it on first use. */
+    Permutation permutation() {
+        Permutation perm = _permutation;
+        if (perm == null) {
+            synchronized (this) {
+                perm = _permutation;
+                if (perm == null) {
+                    try {
+                        perm = new Permutation(cycles(), _alphabet);
+                    } catch (EnigmaException excp) {
+                        throw error("line %d: rotor %s: %s", _line, _name,
+                                    excp.getMessage());
+                    }
+                    _permutation = perm;
+                }
+            }
+        }
+        return perm;
+    }
+
+    /** Use PERM as my compiled permutation, and have my rotors look up
+     *  their conversions at each setting in FORWARDAT and BACKWARDAT
+     *  (see Rotor.setPositionTables) unless those are null.  PERM must be
+     *  what my cycles describe; a TableStore provides it. */
+    void adopt(Permutation perm, IndexTable forwardAt,
+               IndexTable backwardAt) {
+        _forwardAt = forwardAt;
+        _backwardAt = backwardAt;
+        _permutation = perm;
+    }
+
+    /** Compile my permutation and check my notches, reporting any
+     *  problem with my line number. */
+    void compile() {
+        permutation();
+        String notches = _type.substring(1);
+        for (int i = 0; i < notches.length();
+             i += Character.charCount(notches.codePointAt(i))) {
+            if (!_alphabet.containsCodePoint(notches.codePointAt(i))) {
+                throw error("line %d: rotor %s: notch %s is not in the "
+                            + "alphabet", _line, _name,
+                            new String(Character.toChars(
+                                notches.codePointAt(i))));
+            }
+        }
+    }
+
+    /** Return a new rotor in its 0 setting built from me. */
+    Rotor newRotor() {
+        Permutation perm = permutation();
+        try {
+            Rotor result;
+            switch (_type.charAt(0)) {
+            case 'M':
+                result = new MovingRotor(_name, perm, _type.substring(1));
+                break;
+            case 'N':
+                result = new FixedRotor(_name, perm);
+                break;
+            default:
+                result = new Reflector(_name, perm);
+                break;
+            }
+            if (_forwardAt != null) {
+                result.setPositionTables(_forwardAt, _backwardAt);
+            }
+            return result;
+        } catch (EnigmaException excp) {
+            throw error("line %d: rotor %s: %s", _line, _name,
+                        excp.getMessage());
+        }
+    }
+
+    /** My rotor's name. */
+    private final String _name;
+
+    /** My type: "M" followed by notches, "N", or "R". */
+    private final String _type;
+
+    /** Text of the configuration file I come from. */
+    private final String _text;
+
+    /** Bounds of my cycles in _text. */
+    private final int _start, _end;
+
+    /** Line of _text on which I start. */
+    private final int _line;
+
+    /** Alphabet of my permutation. */
+    private final Alphabet _alphabet;
+
+    /** Tables of my rotors' conversions at each setting, or null.  They
+     *  are published by the write to _permutation that follows them. */
+    private IndexTable _forwardAt, _backwardAt;
+
+    /** My compiled permutation, or null if not yet compiled. */
+    private volatile Permutation _permutation;
+}
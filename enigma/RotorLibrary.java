@@ -0,0 +1,105 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static enigma.EnigmaException.*;
+
+/** The rotors defined by a configuration, by name.  Definitions are
+ *  cheap spans of the configuration text; a rotor's permutation is
+ *  compiled when some machine first inserts it, or up front by
+ *  compileAll.
+ *  @author James (Dayuan) Tang
+ */
+class RotorLibrary {
+
+    /** Add DEF to my definitions. */
+    void add(RotorDefinition def) {
+        if (_byName.containsKey(def.name())) {
+            throw error("line %d: rotor %s defined twice", def.line(),
+                        def.name());
+        }
+        _byName.put(def.name(), def);
+        _definitions.add(def);
+    }
+
+    /** Return the definition of the rotor named NAME, or null if there
+     *  is none. */
+    RotorDefinition get(String name) {
+        return _byName.get(name);
+    }
+
+    /** Return all my definitions, in configuration order. */
+    List<RotorDefinition> definitions() {
+        return _definitions;
+    }
+
+    /** Compile and check every definition, spreading the work over the
+     *  available cores.  All problems found are reported together, in
+     *  line order, in a single exception. */
+    void compileAll() {
+        ConcurrentLinkedQueue<Problem> problems =
+            new ConcurrentLinkedQueue<>();
+        _definitions.parallelStream().forEach(def -> {
+            try {
+                def.compile();
+            } catch (EnigmaException excp) {
+                problems.add(new Problem(def.line(), excp.getMessage()));
+            }
+        });
+        if (!problems.isEmpty()) {
+            ArrayList<Problem> sorted = new ArrayList<>(problems);
+            sorted.sort(Comparator.comparingInt(p -> p._line));
+            StringBuilder msg = new StringBuilder();
+            msg.append(sorted.size()).append(" bad rotor definition");
+            msg.append(sorted.size() == 1 ? ":" : "s:");
+            for (Problem p : sorted) {
+                msg.append(System.lineSeparator()).append("  ")
+                    .append(p._message);
+            }
+            throw new EnigmaException(msg.toString());
+        }
+    }
+
+    /** Return the number of rotors defined. */
+    int size() {
+        return _definitions.size();
+    }
+
+    /** Return the number of rotors whose permutations are compiled. */
+    int compiled() {
+        int n = 0;
+        for (RotorDefinition def : _definitions) {
+            if (def.compiled()) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** An error found while compiling the definition on a given line. */
+    private static class Problem {
+        /** An error with message MESSAGE in the definition on LINE. */
+        Problem(int line, String message) {
+            _line = line;
+            _message = message;
+        }
+
+        /** Line of the bad definition. */
+        private final int _line;
+
+        /** Description of the error. */
+        private final String _message;
+    }
+
+    /** Definitions by rotor name. */
+    private final HashMap<String, RotorDefinition> _byName =
+        new HashMap<>();
+
+    /** Definitions in configuration order. */
+    private final ArrayList<RotorDefinition> _definitions =
+        new ArrayList<>();
+}
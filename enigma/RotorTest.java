@@ -84,4 +84,40 @@ public class RotorTest {
         checkRotor("Rotor III set", UPPER_STRING, NAVALZ_MAP.get("III"));
     }
 
+    @Test
+    public void checkNotches() {
+        setRotor("VI", NAVALA, "ZM");
+        assertEquals(12, rotor.stepsUntilNextNotch());
+        assertFalse(rotor.atNotch());
+        rotor.set('M');
+        assertTrue(rotor.atNotch());
+        assertEquals(0, rotor.stepsUntilNextNotch());
+        rotor.advance();
+        assertEquals(12, rotor.stepsUntilNextNotch());
+        rotor.set('Z');
+        assertTrue(rotor.atNotch());
+        rotor.advance();
+        assertEquals(12, rotor.stepsUntilNextNotch());
+        setRotor("I", NAVALA, "");
+        assertEquals(-1, rotor.stepsUntilNextNotch());
+    }
+
+    @Test
+    public void checkNotchesLargeAlphabet() {
+        Alphabet big = new CharacterRange('\u4e00', '\u4eff');
+        String notches = "" + big.toChar(3) + big.toChar(70) + big.toChar(200);
+        rotor = new MovingRotor("BIG", new Permutation("", big), notches);
+        for (int p = 0; p < big.size(); p += 1) {
+            rotor.set(p);
+            int expected = 0;
+            while (notches.indexOf(big.toChar((p + expected) % 256)) < 0) {
+                expected += 1;
+            }
+            assertEquals(msg("large", "distance from %d", p),
+                         expected, rotor.stepsUntilNextNotch());
+            assertEquals(msg("large", "notch at %d", p),
+                         expected == 0, rotor.atNotch());
+        }
+    }
+
 }
@@ -0,0 +1,72 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The substitutions a machine's rotors alone make at each of a run of
+ *  consecutive keystrokes, with the plugboard left out.  Once a trace
+ *  is taken, the message can be re-enciphered under any plugboard with
+ *  two plugboard lookups and one trace lookup per character: no rotor
+ *  is stepped or consulted, which is what plugboard hill-climbing and
+ *  audits spend nearly all their time doing.
+ *  @author James (Dayuan) Tang
+ */
+class RotorTrace {
+
+    /** A trace of LENGTH keystrokes over an alphabet of SIZE characters,
+     *  to be filled in by record. */
+    RotorTrace(int size, int length) {
+        if ((long) size * length > Integer.MAX_VALUE) {
+            throw error("rotor trace too long");
+        }
+        _size = size;
+        _length = length;
+        _table = IndexTable.create(size, size * length);
+    }
+
+    /** Return the number of keystrokes I cover. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the alphabet size of my substitutions. */
+    int size() {
+        return _size;
+    }
+
+    /** Record that at keystroke K the rotors send index C to index V. */
+    void record(int k, int c, int v) {
+        _table.set(k * _size + c, v);
+    }
+
+    /** Return the index to which the rotors send index C at
+     *  keystroke K. */
+    int convert(int k, int c) {
+        return _table.get(k * _size + c);
+    }
+
+    /** Store in RESULT[0..length()) the encipherment of the indices
+     *  MSG[0..length()) under PLUGBOARD, exactly as the machine that
+     *  produced me would have made it with that plugboard, and return
+     *  RESULT. */
+    int[] convert(int[] msg, Permutation plugboard, int[] result) {
+        if (msg.length < _length || result.length < _length) {
+            throw error("message shorter than rotor trace");
+        } else if (plugboard.size() != _size) {
+            throw error("plugboard does not match rotor trace");
+        }
+        for (int k = 0, base = 0; k < _length; k += 1, base += _size) {
+            result[k] =
+                plugboard.invert(_table.get(base + plugboard.permute(msg[k])));
+        }
+        return result;
+    }
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Number of keystrokes. */
+    private final int _length;
+
+    /** Substitution at keystroke K, index C, is at K * _size + C. */
+    private final IndexTable _table;
+}
@@ -0,0 +1,645 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** Runs one Enigma job (a configuration and an input file, as for Main)
+ *  on several worker processes.  The input is cut into shards at the
+ *  '*' lines that begin its sections; since each settings line sets the
+ *  whole machine, the sections can be processed independently.  A
+ *  coordinator listening on the loopback interface hands shards to
+ *  whichever workers connect, takes back their output, checks that
+ *  every message line of every shard came back, and writes the outputs
+ *  in input order.  A shard whose worker dies is handed to another.
+ *  The coordinator keeps only the offsets of shards in memory: it reads
+ *  each shard from the input file as it sends it, and spills each
+ *  output to a temporary file until it can be written.
+ *  @author James (Dayuan) Tang
+ */
+public final class ShardRunner {
+
+    /** Run the job described by ARGS: CONFIG INPUT OUTPUT, among which
+     *  these options may appear:
+     *    --workers=N   Launch N local worker JVMs (default: one per
+     *                  available processor).  N may be 0 with --external.
+     *    --shards=K    Cut the input into about K shards (default: four
+     *                  per local worker).
+     *    --port=P      Listen on loopback port P (default: any free port,
+     *                  which is printed on the standard error).
+     *    --external    Also accept workers started separately, and keep
+     *                  waiting for them when no local worker is left.
+     *  Main's options that govern conversion and output (see
+     *  FORWARDED) are passed to every worker; the others are rejected.
+     *  With the single argument --worker=HOST:PORT, instead run as a
+     *  worker for the coordinator at HOST:PORT until it has no more work.
+     *  Exits normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length == 1 && args[0].startsWith("--worker=")) {
+                String address = args[0].substring("--worker=".length());
+                int colon = address.lastIndexOf(':');
+                if (colon < 0) {
+                    throw error("--worker needs HOST:PORT");
+                }
+                work(address.substring(0, colon),
+                     parseInt("worker", address.substring(colon + 1), 1));
+            } else {
+                runJob(args);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Coordinate the job given by ARGS (see main). */
+    private static void runJob(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        ArrayList<String> mainOptions = new ArrayList<>();
+        ArrayList<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                files.add(arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            if (FORWARDED.contains(name)) {
+                mainOptions.add(arg);
+            } else if (Main.OPTIONS.contains(name)) {
+                throw error("--%s cannot be used with ShardRunner", name);
+            } else if (!OPTIONS.contains(name)) {
+                throw error("unknown option --%s", name);
+            } else {
+                options.put(name, eq < 0 ? "" : arg.substring(eq + 1));
+            }
+        }
+        if (files.size() != 3) {
+            throw error("usage: ShardRunner [options] CONFIG INPUT OUTPUT");
+        }
+        boolean external = options.containsKey("external");
+        int workers = options.containsKey("workers")
+            ? parseInt("workers", options.get("workers"), 0)
+            : Runtime.getRuntime().availableProcessors();
+        if (workers == 0 && !external) {
+            throw error("--workers must be positive without --external");
+        }
+        int shards = options.containsKey("shards")
+            ? parseInt("shards", options.get("shards"), 1)
+            : 4 * Math.max(workers, 1);
+        int port = options.containsKey("port")
+            ? parseInt("port", options.get("port"), 1) : 0;
+
+        ShardRunner runner = new ShardRunner(read(files.get(0)),
+            Paths.get(files.get(1)), shards, mainOptions);
+        port = runner.listen(port, external);
+        System.err.printf("coordinator listening on %s:%d%n",
+                          LOOPBACK.getHostAddress(), port);
+        runner.launchWorkers(workers);
+        try (OutputStream out = new BufferedOutputStream(
+                 Files.newOutputStream(Paths.get(files.get(2))))) {
+            runner.await(out);
+        } catch (IOException excp) {
+            throw error("could not write %s", files.get(2));
+        }
+    }
+
+    /** A job applying the configuration CONFIG, with the Main options
+     *  OPTIONS, to the file INPUT, cut into about NUMSHARDS shards. */
+    ShardRunner(byte[] config, Path input, int numShards,
+                List<String> options) {
+        _config = config;
+        _options = new ArrayList<>(options);
+        try {
+            _input = FileChannel.open(input);
+            _shards = split(_input, numShards);
+        } catch (IOException excp) {
+            closeInput();
+            throw error("could not read %s", input);
+        }
+        _results = new Path[_shards.size()];
+        _remaining = _shards.size();
+        for (int i = 0; i < _shards.size(); i += 1) {
+            _pending.add(i);
+        }
+    }
+
+    /** Return the number of shards in my job. */
+    int numShards() {
+        return _shards.size();
+    }
+
+    /** Start accepting workers on loopback port PORT (any free port if
+     *  0), and return the port.  If EXTERNAL, keep waiting for workers
+     *  even when no local worker is running. */
+    int listen(int port, boolean external) {
+        _external = external;
+        try {
+            _server = new ServerSocket(port, 0, LOOPBACK);
+        } catch (IOException excp) {
+            throw error("could not listen on port %d", port);
+        }
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                Socket worker;
+                try {
+                    worker = _server.accept();
+                } catch (IOException excp) {
+                    return;
+                }
+                Thread server = new Thread(() -> serve(worker));
+                server.setDaemon(true);
+                server.start();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return _server.getLocalPort();
+    }
+
+    /** Launch N worker JVMs on this host, connected to my port. */
+    void launchWorkers(int n) {
+        String java = Paths.get(System.getProperty("java.home"), "bin",
+                                "java").toString();
+        String address = "--worker=" + LOOPBACK.getHostAddress() + ":"
+            + _server.getLocalPort();
+        for (int i = 0; i < n; i += 1) {
+            try {
+                Process p = new ProcessBuilder(java, "-cp",
+                    System.getProperty("java.class.path"),
+                    ShardRunner.class.getName(), address)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+                synchronized (this) {
+                    _processes.add(p);
+                    _liveProcesses += 1;
+                }
+                p.onExit().thenRun(this::processExited);
+            } catch (IOException excp) {
+                throw error("could not launch worker: %s",
+                            excp.getMessage());
+            }
+        }
+    }
+
+    /** Write the outputs of the shards to OUT in input order, each as
+     *  soon as it and all before it are done.  Stops the coordinator and
+     *  any local workers either way. */
+    void await(OutputStream out) {
+        try {
+            for (int shard = 0; shard < _results.length; shard += 1) {
+                Path result = awaitResult(shard);
+                Files.copy(result, out);
+                Files.delete(result);
+            }
+            out.flush();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted while waiting for workers");
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        } finally {
+            shutdown();
+        }
+    }
+
+    /** Return the file holding the output of SHARD, waiting for it if
+     *  need be. */
+    private synchronized Path awaitResult(int shard)
+        throws InterruptedException {
+        while (_results[shard] == null && _failure == null
+               && (_external || _liveProcesses > 0)) {
+            wait();
+        }
+        if (_failure == null && _results[shard] == null) {
+            _failure = String.format("workers exited with %d of %d "
+                                     + "shards unfinished",
+                                     _remaining, _shards.size());
+        }
+        if (_failure != null) {
+            throw new EnigmaException(_failure);
+        }
+        return _results[shard];
+    }
+
+    /** Stop accepting workers and tell those that ask for more work to
+     *  exit; kill local workers that do not.  Remove outputs not yet
+     *  written. */
+    private void shutdown() {
+        synchronized (this) {
+            _done = true;
+            notifyAll();
+        }
+        try {
+            _server.close();
+        } catch (IOException excp) {
+            /* Ignore: nothing more is needed from the socket. */
+        }
+        closeInput();
+        for (Process p : _processes) {
+            try {
+                if (!p.waitFor(SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS)) {
+                    p.destroyForcibly();
+                }
+            } catch (InterruptedException excp) {
+                p.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            for (Path result : _results) {
+                deleteQuietly(result);
+            }
+        }
+    }
+
+    /** Close my input file. */
+    private void closeInput() {
+        try {
+            if (_input != null) {
+                _input.close();
+            }
+        } catch (IOException excp) {
+            /* Ignore: the file was only read. */
+        }
+    }
+
+    /** Delete FILE, if it is not null, ignoring failure. */
+    private static void deleteQuietly(Path file) {
+        try {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException excp) {
+            /* Ignore: only a temporary file is left behind. */
+        }
+    }
+
+    /** Note that a local worker process has exited. */
+    private synchronized void processExited() {
+        _liveProcesses -= 1;
+        notifyAll();
+    }
+
+    /** Hand shards to the worker connected to SOCKET until there are
+     *  none left or the worker is lost. */
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(s.getOutputStream()));
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(s.getInputStream()));
+            out.writeInt(_config.length);
+            out.write(_config);
+            out.writeInt(_options.size());
+            for (String option : _options) {
+                out.writeUTF(option);
+            }
+            out.flush();
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER);
+            while (true) {
+                int shard = nextShard();
+                out.writeInt(shard);
+                if (shard < 0) {
+                    out.flush();
+                    return;
+                }
+                Path result = null;
+                try {
+                    Shard sh = _shards.get(shard);
+                    out.writeLong(sh.end - sh.start);
+                    for (long at = sh.start; at < sh.end; ) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(IO_BUFFER, sh.end - at));
+                        int n = _input.read(buffer, at);
+                        if (n < 0) {
+                            throw new EOFException();
+                        }
+                        out.write(buffer.array(), 0, n);
+                        at += n;
+                    }
+                    out.flush();
+                    if (in.readBoolean()) {
+                        long lines = in.readLong();
+                        result = Files.createTempFile("shard", ".out");
+                        try (OutputStream spill = Files.newOutputStream(
+                                 result)) {
+                            copy(in, spill, in.readLong());
+                        }
+                        finish(shard, lines, result);
+                        result = null;
+                    } else {
+                        fail(String.format("shard %d: %s", shard,
+                                           in.readUTF()));
+                    }
+                } catch (IOException excp) {
+                    deleteQuietly(result);
+                    requeue(shard);
+                    throw excp;
+                }
+            }
+        } catch (IOException excp) {
+            /* The worker is lost; its shard, if any, has been requeued. */
+        }
+    }
+
+    /** Return the next shard to hand out, waiting while others may yet
+     *  be returned for reassignment, or -1 if there is no more work. */
+    private synchronized int nextShard() {
+        while (_pending.isEmpty() && _remaining > 0 && !_done
+               && _failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException excp) {
+                return -1;
+            }
+        }
+        if (_pending.isEmpty() || _done || _failure != null) {
+            return -1;
+        }
+        return _pending.poll();
+    }
+
+    /** Record the file RESULT, the output of LINES message lines, as the
+     *  output of shard SHARD. */
+    private synchronized void finish(int shard, long lines, Path result) {
+        if (_results[shard] != null || _done) {
+            deleteQuietly(result);
+            return;
+        }
+        long expected = _shards.get(shard).outputLines;
+        if (lines != expected) {
+            deleteQuietly(result);
+            _failure = String.format("shard %d returned %d of %d lines",
+                                     shard, lines, expected);
+        } else {
+            _results[shard] = result;
+            _remaining -= 1;
+        }
+        notifyAll();
+    }
+
+    /** Put SHARD back to be handed to another worker. */
+    private synchronized void requeue(int shard) {
+        if (_results[shard] == null) {
+            _pending.addFirst(shard);
+            notifyAll();
+        }
+    }
+
+    /** Stop the job, reporting MESSAGE. */
+    private synchronized void fail(String message) {
+        if (_failure == null) {
+            _failure = message;
+        }
+        notifyAll();
+    }
+
+    /** Work for the coordinator at HOST:PORT until it has nothing left,
+     *  running each shard it sends through a Main with the options it
+     *  sends.  Shards and their output pass through temporary files. */
+    static void work(String host, int port) {
+        Path shard = null, result = null;
+        try (Socket s = new Socket(host, port)) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(s.getOutputStream()));
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(s.getInputStream()));
+            byte[] configText = new byte[in.readInt()];
+            in.readFully(configText);
+            String config = new String(configText, CHARSET);
+            ArrayList<String> options = new ArrayList<>();
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                options.add(in.readUTF());
+            }
+            shard = Files.createTempFile("shard", ".inp");
+            result = Files.createTempFile("shard", ".out");
+            while (in.readInt() >= 0) {
+                try (OutputStream spill = Files.newOutputStream(shard)) {
+                    copy(in, spill, in.readLong());
+                }
+                try (FileChannel input = FileChannel.open(shard);
+                     PrintStream output = new PrintStream(
+                         new BufferedOutputStream(
+                             Files.newOutputStream(result), IO_BUFFER),
+                         false, CHARSET.name())) {
+                    Main main = new Main(config,
+                        new LineReader(input, CHARSET, 0), output, options);
+                    main.process();
+                    if (output.checkError()) {
+                        throw new IOException("could not spill output");
+                    }
+                    out.writeBoolean(true);
+                    out.writeLong(main.messageLines());
+                } catch (EnigmaException excp) {
+                    out.writeBoolean(false);
+                    out.writeUTF(String.valueOf(excp.getMessage()));
+                    out.flush();
+                    continue;
+                }
+                out.writeLong(Files.size(result));
+                Files.copy(result, out);
+                out.flush();
+            }
+        } catch (IOException excp) {
+            throw error("lost coordinator at %s:%d: %s", host, port,
+                        excp.getMessage());
+        } finally {
+            deleteQuietly(shard);
+            deleteQuietly(result);
+        }
+    }
+
+    /** Return the file open on INPUT cut into about NUMSHARDS shards
+     *  of similar size, each made of whole sections.  Any lines before
+     *  the first section go with the first shard. */
+    static List<Shard> split(FileChannel input, int numShards)
+        throws IOException {
+        long size = input.size();
+        long target = Math.max(1, size / Math.max(numShards, 1));
+        ArrayList<Shard> result = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER);
+        long from = 0, lines = 0, settingsLines = 0;
+        byte prev = '\n';
+        for (long at = 0; at < size; ) {
+            buffer.clear();
+            int n = input.read(buffer, at);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            for (int i = 0; i < n; i += 1, at += 1) {
+                byte b = buffer.get(i);
+                if (b == '*' && prev == '\n') {
+                    if (at > 0 && at - from >= target) {
+                        result.add(new Shard(from, at,
+                                             lines - settingsLines));
+                        from = at;
+                        lines = settingsLines = 0;
+                    }
+                    settingsLines += 1;
+                }
+                if (b == '\n') {
+                    lines += 1;
+                }
+                prev = b;
+            }
+        }
+        if (size > from || result.isEmpty()) {
+            if (prev != '\n') {
+                lines += 1;
+            }
+            result.add(new Shard(from, size, lines - settingsLines));
+        }
+        return result;
+    }
+
+    /** A run of whole sections of the input. */
+    static class Shard {
+
+        /** A shard of the input from byte START to just before byte END,
+         *  of which Main prints OUTPUTLINES lines. */
+        Shard(long start, long end, long outputLines) {
+            this.start = start;
+            this.end = end;
+            this.outputLines = outputLines;
+        }
+
+        /** Position of my first byte in the input. */
+        final long start;
+
+        /** Position just after my last byte in the input. */
+        final long end;
+
+        /** Number of lines Main prints for me: one per input line other
+         *  than settings lines. */
+        final long outputLines;
+    }
+
+    /** Copy LENGTH bytes from IN to OUT. */
+    private static void copy(DataInputStream in, OutputStream out,
+                             long length) throws IOException {
+        byte[] buffer = new byte[IO_BUFFER];
+        for (long left = length; left > 0; ) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+            if (n < 0) {
+                throw new EOFException();
+            }
+            out.write(buffer, 0, n);
+            left -= n;
+        }
+    }
+
+    /** Return the contents of the file named NAME. */
+    private static byte[] read(String name) {
+        try {
+            return Files.readAllBytes(Paths.get(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return VALUE, the value of option NAME, as an integer that is at
+     *  least MIN. */
+    private static int parseInt(String name, String value, int min) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result < min) {
+                throw error("--%s must be at least %d", name, min);
+            }
+            return result;
+        } catch (NumberFormatException excp) {
+            throw error("--%s needs an integer value", name);
+        }
+    }
+
+    /** Names of the options a coordinator accepts. */
+    private static final List<String> OPTIONS =
+        Arrays.asList("workers", "shards", "port", "external");
+
+    /** Names of the options of Main passed on to workers. */
+    private static final List<String> FORWARDED =
+        Arrays.asList("validate", "group", "separator", "line-width", "raw",
+                      "non-alphabet", "preserve", "engine", "engine-cache",
+                      "engine-report", "table-store");
+
+    /** Encoding of configurations, input and output. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Address on which the coordinator listens. */
+    private static final InetAddress LOOPBACK =
+        InetAddress.getLoopbackAddress();
+
+    /** Size of the buffers through which shards are copied. */
+    private static final int IO_BUFFER = 1 << 16;
+
+    /** Time allowed for local workers to exit once the job is done. */
+    private static final long SHUTDOWN_MILLIS = 5000;
+
+    /** Text of the configuration. */
+    private final byte[] _config;
+
+    /** Options of Main passed to workers. */
+    private final List<String> _options;
+
+    /** The input file, from which shards are read as they are sent. */
+    private FileChannel _input;
+
+    /** The shards of the input, in order. */
+    private final List<Shard> _shards;
+
+    /** File holding the output of each shard, or null while it is
+     *  unfinished. */
+    private final Path[] _results;
+
+    /** Shards not yet handed to a worker (or handed back). */
+    private final ArrayDeque<Integer> _pending = new ArrayDeque<>();
+
+    /** Number of unfinished shards. */
+    private int _remaining;
+
+    /** Description of the error that stopped the job, or null. */
+    private String _failure;
+
+    /** True once the job is over. */
+    private boolean _done;
+
+    /** True iff workers may connect from outside this runner. */
+    private boolean _external;
+
+    /** Socket on which workers connect. */
+    private ServerSocket _server;
+
+    /** Local worker processes. */
+    private final ArrayList<Process> _processes = new ArrayList<>();
+
+    /** Number of local worker processes still running. */
+    private int _liveProcesses;
+}
@@ -0,0 +1,181 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the ShardRunner class.
+ *  @author James (Dayuan) Tang
+ */
+public class ShardRunnerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** A small configuration. */
+    private static final String CONFIG =
+        "A-Z\n 5 3\n"
+        + " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n";
+
+    /** Return an input of SECTIONS random sections drawn from RANDOM. */
+    private String input(Random random, int sections) {
+        StringBuilder text = new StringBuilder("\n");
+        for (int s = 0; s < sections; s += 1) {
+            text.append("* B BETA I II III ");
+            for (int i = 0; i < 4; i += 1) {
+                text.append((char) ('A' + random.nextInt(26)));
+            }
+            text.append(" (AQ) (EP)\n");
+            int lines = random.nextInt(5);
+            for (int k = 0; k < lines; k += 1) {
+                int n = random.nextInt(60);
+                for (int i = 0; i < n; i += 1) {
+                    text.append(i % 7 == 6 ? ' '
+                                : (char) ('a' + random.nextInt(26)));
+                }
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    /** Return the output of a single Main with OPTIONS applied to
+     *  INPUT. */
+    private byte[] direct(String input, List<String> options) {
+        Charset cs = Charset.defaultCharset();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream print = new PrintStream(out);
+        new Main(CONFIG, new LineReader(Channels.newChannel(
+            new ByteArrayInputStream(input.getBytes(cs))), cs, 0), print,
+                 options).process();
+        print.flush();
+        return out.toByteArray();
+    }
+
+    /** Return the output of a ShardRunner with OPTIONS, cut into about
+     *  SHARDS shards, applied to INPUT by three workers. */
+    private byte[] sharded(String input, int shards, List<String> options)
+        throws IOException, InterruptedException {
+        Path file = Files.createTempFile("enigma", ".inp");
+        try {
+            Files.write(file, input.getBytes(Charset.defaultCharset()));
+            ShardRunner runner = new ShardRunner(CONFIG.getBytes(), file,
+                                                 shards, options);
+            int port = runner.listen(0, true);
+            Thread[] workers = new Thread[3];
+            for (int i = 0; i < workers.length; i += 1) {
+                workers[i] = new Thread(() -> ShardRunner.work("127.0.0.1",
+                                                               port));
+                workers[i].start();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            runner.await(out);
+            for (Thread w : workers) {
+                w.join();
+            }
+            assertTrue(runner.numShards() > shards / 2);
+            return out.toByteArray();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /** Return TEXT cut into about NUMSHARDS shards. */
+    private List<ShardRunner.Shard> split(String text, int numShards)
+        throws IOException {
+        Path file = Files.createTempFile("enigma", ".inp");
+        try {
+            Files.write(file, text.getBytes());
+            try (FileChannel ch = FileChannel.open(file)) {
+                return ShardRunner.split(ch, numShards);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void checkSplit() throws IOException {
+        String text = "\n* B A\nXY\n\n* B C\nZ\n* B D\n";
+        List<ShardRunner.Shard> shards = split(text, 10);
+        assertEquals(3, shards.size());
+        assertEquals(0, shards.get(0).start);
+        assertEquals(11, shards.get(0).end);
+        assertEquals(3, shards.get(0).outputLines);
+        assertEquals(11, shards.get(1).start);
+        assertEquals(19, shards.get(1).end);
+        assertEquals(1, shards.get(1).outputLines);
+        assertEquals(text.length(), shards.get(2).end);
+        assertEquals(0, shards.get(2).outputLines);
+        assertEquals(1, split(text, 1).size());
+        assertEquals(1, split("", 4).size());
+        shards = split("* B A\nXY\n* B C\nZ", 2);
+        assertEquals(9, shards.get(1).start);
+        assertEquals(16, shards.get(1).end);
+        assertEquals(1, shards.get(1).outputLines);
+    }
+
+    @Test
+    public void checkWorkersMatchMain() throws Exception {
+        String text = input(new Random(36), 200);
+        List<String> none = Collections.emptyList();
+        assertArrayEquals(direct(text, none), sharded(text, 17, none));
+    }
+
+    @Test
+    public void checkOptionsForwarded() throws Exception {
+        String text = input(new Random(37), 100).replace("x", "x3");
+        List<String> options =
+            Arrays.asList("--non-alphabet=skip", "--group=3",
+                          "--line-width=20", "--engine=fused");
+        byte[] expected = direct(text, options);
+        assertArrayEquals(expected, sharded(text, 9, options));
+        assertFalse(Arrays.equals(expected,
+                                  direct(text.replace("3", ""),
+                                         Collections.emptyList())));
+    }
+
+    @Test
+    public void checkWorkerError() throws IOException {
+        String text =
+            "* B BETA I II III AAAA\nHELLO\n* B BETA I II IV AAAA\n";
+        Path file = Files.createTempFile("enigma", ".inp");
+        try {
+            Files.write(file, text.getBytes());
+            ShardRunner runner = new ShardRunner(CONFIG.getBytes(), file, 2,
+                                                 Collections.emptyList());
+            int port = runner.listen(0, true);
+            new Thread(() -> ShardRunner.work("127.0.0.1", port)).start();
+            try {
+                runner.await(new ByteArrayOutputStream());
+                fail("bad settings line accepted");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().startsWith("shard 1:"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
@@ -0,0 +1,344 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/** Letter statistics of the text a machine converts, gathered as it
+ *  converts it: for input and output, a histogram of alphabet indices,
+ *  counts of adjacent pairs (bigrams) and the index of coincidence.
+ *  Counts are kept for the current section (the text under one settings
+ *  line, i.e. one message) and for everything seen so far.  Bigrams do
+ *  not span sections.  Only the bigrams that occur are stored, so the
+ *  space they take grows with the text, not the square of the alphabet
+ *  size.
+ *  @author James (Dayuan) Tang
+ */
+class StatsCollector {
+
+    /** A collector for text in ALPHABET. */
+    StatsCollector(Alphabet alphabet) {
+        _alphabet = alphabet;
+        _size = alphabet.size();
+        _section = new Counts(_size);
+        _total = new Counts(_size);
+    }
+
+    /** Record that the machine converted index IN to index OUT. */
+    void record(int in, int out) {
+        _section.record(in, out);
+    }
+
+    /** Finish the current section, if it has any text, reporting it on
+     *  REPORT (if not null), and start a new one under the settings line
+     *  SETTINGS (null at the end of input). */
+    void startSection(String settings, PrintStream report) {
+        if (_section.length > 0) {
+            _sections += 1;
+            if (report != null) {
+                report.printf("section %d: %s%n", _sections, _settings);
+                report(_section, report);
+            }
+            _total.add(_section);
+        }
+        _section.clear();
+        _settings = settings;
+    }
+
+    /** Finish the current section and report it and the totals for all
+     *  sections on REPORT. */
+    void finish(PrintStream report) {
+        startSection(null, report);
+        report.printf("total: %d sections%n", _sections);
+        report(_total, report);
+        report.flush();
+    }
+
+    /** Return the counts for the current section. */
+    Counts section() {
+        return _section;
+    }
+
+    /** Return the counts for all finished sections. */
+    Counts total() {
+        return _total;
+    }
+
+    /** Print a summary of COUNTS on REPORT. */
+    private void report(Counts counts, PrintStream report) {
+        report.printf("  characters %d%n", counts.length);
+        report.printf("  input ic %.4f  output ic %.4f%n",
+                      counts.inputCoincidence(), counts.outputCoincidence());
+        report.printf("  input letters%s%n", letters(counts.input));
+        report.printf("  output letters%s%n", letters(counts.output));
+        report.printf("  input bigrams%s%n", bigrams(counts.inputPairs));
+        report.printf("  output bigrams%s%n", bigrams(counts.outputPairs));
+    }
+
+    /** Return the nonzero entries of HISTOGRAM as " L:N" items. */
+    private String letters(long[] histogram) {
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < _size; k += 1) {
+            if (histogram[k] > 0) {
+                result.append(' ').appendCodePoint(_alphabet.toCodePoint(k))
+                    .append(':').append(histogram[k]);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the TOP_BIGRAMS most frequent entries of PAIRS as " LM:N"
+     *  items, most frequent first, and among equals in order of the
+     *  pairs' indices. */
+    private String bigrams(PairCounts pairs) {
+        long[] top = new long[TOP_BIGRAMS], counts = new long[TOP_BIGRAMS];
+        int n = 0;
+        for (int slot = 0; slot < pairs.capacity(); slot += 1) {
+            long p = pairs.key(slot), c = pairs.count(slot);
+            if (p < 0) {
+                continue;
+            }
+            int i = Math.min(n, TOP_BIGRAMS - 1);
+            if (n == TOP_BIGRAMS && !before(c, p, counts[i], top[i])) {
+                continue;
+            }
+            for (; i > 0 && before(c, p, counts[i - 1], top[i - 1]);
+                 i -= 1) {
+                top[i] = top[i - 1];
+                counts[i] = counts[i - 1];
+            }
+            top[i] = p;
+            counts[i] = c;
+            n = Math.min(n + 1, TOP_BIGRAMS);
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            result.append(' ')
+                .appendCodePoint(_alphabet.toCodePoint((int) (top[i]
+                                                              / _size)))
+                .appendCodePoint(_alphabet.toCodePoint((int) (top[i]
+                                                              % _size)))
+                .append(':').append(counts[i]);
+        }
+        return result.toString();
+    }
+
+    /** Return true iff pair P1, seen C1 times, is reported before pair
+     *  P2, seen C2 times. */
+    private static boolean before(long c1, long p1, long c2, long p2) {
+        return c1 > c2 || c1 == c2 && p1 < p2;
+    }
+
+    /** Counts of the letters and bigrams in some converted text. */
+    static class Counts {
+
+        /** Empty counts for an alphabet of SIZE characters. */
+        Counts(int size) {
+            _size = size;
+            input = new long[size];
+            output = new long[size];
+            inputPairs = new PairCounts();
+            outputPairs = new PairCounts();
+            clear();
+        }
+
+        /** Record the conversion of IN to OUT. */
+        void record(int in, int out) {
+            input[in] += 1;
+            output[out] += 1;
+            if (_lastIn >= 0) {
+                inputPairs.add((long) _lastIn * _size + in, 1);
+                outputPairs.add((long) _lastOut * _size + out, 1);
+            }
+            _lastIn = in;
+            _lastOut = out;
+            length += 1;
+        }
+
+        /** Add the counts in OTHER to mine. */
+        void add(Counts other) {
+            for (int k = 0; k < _size; k += 1) {
+                input[k] += other.input[k];
+                output[k] += other.output[k];
+            }
+            inputPairs.addAll(other.inputPairs);
+            outputPairs.addAll(other.outputPairs);
+            length += other.length;
+        }
+
+        /** Reset all my counts to 0. */
+        void clear() {
+            Arrays.fill(input, 0);
+            Arrays.fill(output, 0);
+            inputPairs.clear();
+            outputPairs.clear();
+            length = 0;
+            _lastIn = _lastOut = -1;
+        }
+
+        /** Return the index of coincidence of the input. */
+        double inputCoincidence() {
+            return coincidence(input);
+        }
+
+        /** Return the index of coincidence of the output. */
+        double outputCoincidence() {
+            return coincidence(output);
+        }
+
+        /** Return the probability that two letters drawn without
+         *  replacement from text with HISTOGRAM are equal. */
+        private double coincidence(long[] histogram) {
+            if (length < 2) {
+                return 0.0;
+            }
+            double same = 0;
+            for (long n : histogram) {
+                same += (double) n * (n - 1);
+            }
+            return same / ((double) length * (length - 1));
+        }
+
+        /** Number of characters converted. */
+        long length;
+
+        /** Occurrences of each alphabet index in the input and output. */
+        final long[] input, output;
+
+        /** Occurrences of each pair of indices I, J, at I * size + J, in
+         *  the input and output. */
+        final PairCounts inputPairs, outputPairs;
+
+        /** Alphabet size. */
+        private final int _size;
+
+        /** Last indices recorded, or -1 if none. */
+        private int _lastIn, _lastOut;
+    }
+
+    /** Counts keyed by nonnegative longs, in an open-addressed hash
+     *  table holding only the keys counted. */
+    static class PairCounts {
+
+        /** Empty counts. */
+        PairCounts() {
+            clear();
+        }
+
+        /** Return the count of KEY. */
+        long get(long key) {
+            int slot = find(key);
+            return _keys[slot] == key ? _counts[slot] : 0;
+        }
+
+        /** Add N to the count of KEY. */
+        void add(long key, long n) {
+            if (n == 0) {
+                return;
+            }
+            int slot = find(key);
+            if (_keys[slot] != key) {
+                _keys[slot] = key;
+                _used += 1;
+            }
+            _counts[slot] += n;
+            if (2 * _used > _keys.length) {
+                grow();
+            }
+        }
+
+        /** Add the counts in OTHER to mine. */
+        void addAll(PairCounts other) {
+            for (int slot = 0; slot < other._keys.length; slot += 1) {
+                if (other._keys[slot] >= 0) {
+                    add(other._keys[slot], other._counts[slot]);
+                }
+            }
+        }
+
+        /** Reset all my counts to 0, releasing their space. */
+        void clear() {
+            if (_keys == null || _used > 0) {
+                _keys = new long[INITIAL_CAPACITY];
+                _counts = new long[INITIAL_CAPACITY];
+                Arrays.fill(_keys, -1);
+                _used = 0;
+            }
+        }
+
+        /** Return the number of keys with nonzero counts. */
+        int size() {
+            return _used;
+        }
+
+        /** Return the number of slots in my table. */
+        int capacity() {
+            return _keys.length;
+        }
+
+        /** Return the key in SLOT, or -1 if it is empty. */
+        long key(int slot) {
+            return _keys[slot];
+        }
+
+        /** Return the count in SLOT. */
+        long count(int slot) {
+            return _counts[slot];
+        }
+
+        /** Return the slot holding KEY, or the empty slot where it
+         *  belongs. */
+        private int find(long key) {
+            int mask = _keys.length - 1;
+            int slot = (int) ((key * 0x9e3779b97f4a7c15L) >>> 33) & mask;
+            while (_keys[slot] >= 0 && _keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /** Double the size of my table. */
+        private void grow() {
+            long[] keys = _keys, counts = _counts;
+            _keys = new long[2 * keys.length];
+            _counts = new long[_keys.length];
+            Arrays.fill(_keys, -1);
+            for (int slot = 0; slot < keys.length; slot += 1) {
+                if (keys[slot] >= 0) {
+                    int to = find(keys[slot]);
+                    _keys[to] = keys[slot];
+                    _counts[to] = counts[slot];
+                }
+            }
+        }
+
+        /** Initial number of slots, a power of 2. */
+        private static final int INITIAL_CAPACITY = 64;
+
+        /** Key in each slot, or -1 if it is empty. */
+        private long[] _keys;
+
+        /** Count of the key in each slot. */
+        private long[] _counts;
+
+        /** Number of full slots. */
+        private int _used;
+    }
+
+    /** Number of bigrams reported. */
+    private static final int TOP_BIGRAMS = 10;
+
+    /** Alphabet of the text. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Counts for the current section and for all finished sections. */
+    private final Counts _section, _total;
+
+    /** Settings line of the current section. */
+    private String _settings;
+
+    /** Number of finished sections with text. */
+    private int _sections;
+}
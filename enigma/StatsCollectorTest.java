@@ -0,0 +1,124 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the StatsCollector class.
+ *  @author James (Dayuan) Tang
+ */
+public class StatsCollectorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void checkCounts() {
+        StatsCollector.Counts c = new StatsCollector.Counts(26);
+        String in = "ABBA", out = "CDCD";
+        for (int i = 0; i < in.length(); i += 1) {
+            c.record(in.charAt(i) - 'A', out.charAt(i) - 'A');
+        }
+        assertEquals(4, c.length);
+        assertEquals(2, c.input[0]);
+        assertEquals(2, c.input[1]);
+        assertEquals(2, c.output[2]);
+        assertEquals(1, c.inputPairs.get(0 * 26 + 1));
+        assertEquals(1, c.inputPairs.get(1 * 26 + 1));
+        assertEquals(1, c.inputPairs.get(1 * 26 + 0));
+        assertEquals(2, c.outputPairs.get(2 * 26 + 3));
+        assertEquals(1, c.outputPairs.get(3 * 26 + 2));
+        assertEquals(4.0 / 12, c.inputCoincidence(), 1e-12);
+        assertEquals(4.0 / 12, c.outputCoincidence(), 1e-12);
+    }
+
+    @Test
+    public void checkCollectedDuringConversion() {
+        Configuration config = Configuration.parse(NAVAL_CONFIG);
+        Machine plain = config.newMachine();
+        Machine counted = config.newMachine();
+        StatsCollector stats = new StatsCollector(config.alphabet());
+        counted.setStats(stats);
+        String msg = "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA OF ROSEWOOD";
+        plain.setUp("* B BETA VI VIII III QZMV");
+        counted.setUp("* B BETA VI VIII III QZMV");
+        stats.startSection("* B BETA VI VIII III QZMV", null);
+        String result = counted.convert(msg);
+        assertEquals(plain.convert(msg), result);
+
+        StatsCollector.Counts section = stats.section();
+        String letters = msg.replace(" ", "");
+        assertEquals(letters.length(), section.length);
+        for (int k = 0; k < 26; k += 1) {
+            char c = (char) ('A' + k);
+            assertEquals(count(letters, c), section.input[k]);
+            assertEquals(count(result, c), section.output[k]);
+        }
+        assertEquals(2,
+                     section.inputPairs.get(('H' - 'A') * 26 + 'I' - 'A'));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream report = new PrintStream(bytes);
+        stats.finish(report);
+        assertEquals(letters.length(), stats.total().length);
+        String text = bytes.toString();
+        assertTrue(text.startsWith("section 1: * B BETA VI VIII III QZMV"));
+        assertTrue(text.contains("total: 1 sections"));
+        assertTrue(text.contains(" HI:2"));
+    }
+
+    @Test
+    public void checkLargeAlphabet() throws Exception {
+        int first = 0x4e00, size = 65536 - first;
+        StatsCollector stats =
+            new StatsCollector(new CharacterRange(first, 0xffff));
+        stats.startSection("* ONE", null);
+        for (int i = 0; i < 10000; i += 1) {
+            stats.record(i % 3 == 0 ? size - 1 : i, i % 3 == 0 ? 0 : 1);
+        }
+        StatsCollector.Counts section = stats.section();
+        assertEquals(10000, section.length);
+        assertEquals(9999, section.inputPairs.size());
+        assertEquals(1, section.inputPairs.get((long) (size - 1) * size
+                                               + 1));
+        assertEquals(3333, section.outputPairs.get(1));
+        assertEquals(3333, section.outputPairs.get(size));
+        assertEquals(0, section.outputPairs.get(2));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        stats.finish(new PrintStream(bytes, true, "UTF-8"));
+        assertEquals(10000, stats.total().length);
+        assertEquals(0, stats.section().inputPairs.size());
+        assertTrue(bytes.toString("UTF-8").contains(
+            " output bigrams \u4e00\u4e01:3333 \u4e01\u4e00:3333 "));
+    }
+
+    @Test
+    public void checkPairCounts() {
+        StatsCollector.PairCounts pairs = new StatsCollector.PairCounts();
+        for (long k = 0; k < 1000; k += 1) {
+            pairs.add(k * 1_000_003L, k);
+        }
+        assertEquals(999, pairs.size());
+        assertEquals(0, pairs.get(0));
+        assertEquals(500, pairs.get(500 * 1_000_003L));
+        StatsCollector.PairCounts twice = new StatsCollector.PairCounts();
+        twice.addAll(pairs);
+        twice.addAll(pairs);
+        assertEquals(1000, twice.get(500 * 1_000_003L));
+        twice.clear();
+        assertEquals(0, twice.size());
+        assertEquals(0, twice.get(500 * 1_000_003L));
+    }
+
+    /** Return the number of occurrences of C in S. */
+    private static long count(String s, char c) {
+        return s.chars().filter(x -> x == c).count();
+    }
+}
@@ -0,0 +1,282 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** The compiled tables of every rotor in a configuration, kept in a file
+ *  that processes map into memory read-only instead of compiling the
+ *  rotors themselves.  The tables then live outside the Java heap, and
+ *  processes on one host that map the same file share its pages.  For
+ *  each rotor the file holds its permutation and inverse and, for
+ *  alphabets of at most POSITIONED_LIMIT characters, what the rotor's
+ *  convertForward and convertBackward give at every setting, so that
+ *  enciphering is a table lookup per rotor.
+ *
+ *  File layout: MAGIC, VERSION, the length of the description, the
+ *  alphabet size, the number of rotors, 1 if there are tables by
+ *  setting and 0 if not, then the description (UTF-8), then from the
+ *  next multiple of 8 each rotor's tables in configuration order, and
+ *  last the CRC32 of everything before it.  The description lists the
+ *  alphabet and every rotor's name, type and cycles, and must match
+ *  the configuration exactly for the file to be used.  Table entries
+ *  are IndexTable.width(size) bytes each, big-endian.
+ *  @author James (Dayuan) Tang
+ */
+class TableStore {
+
+    /** Install in CONFIG's rotor library the tables stored for it in
+     *  FILE, first writing them there if FILE is missing, damaged or
+     *  for some other configuration, and return the store. */
+    static TableStore attach(Configuration config, Path file) {
+        TableStore result;
+        try {
+            result = open(config, file);
+        } catch (EnigmaException excp) {
+            result = null;
+        }
+        if (result == null) {
+            write(config, file);
+            result = open(config, file);
+        }
+        result.install();
+        return result;
+    }
+
+    /** Return the store in FILE for CONFIG, mapped read-only, or null if
+     *  there is no such file. */
+    static TableStore open(Configuration config, Path file) {
+        MappedByteBuffer data;
+        try (FileChannel ch = FileChannel.open(file)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw error("table store %s is too large", file);
+            }
+            data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("could not map table store %s", file);
+        }
+        Layout layout = new Layout(config);
+        if (data.limit() < HEADER || data.getInt(0) != MAGIC
+            || data.getInt(4) != VERSION) {
+            throw error("%s is not a table store", file);
+        } else if (data.getInt(8) != layout.description.length
+                   || data.getInt(12) != layout.size
+                   || data.getInt(16) != layout.rotors
+                   || data.getInt(20) != (layout.positioned ? 1 : 0)
+                   || data.limit() != layout.length + 4) {
+            throw error("table store %s is for another configuration",
+                        file);
+        }
+        byte[] description = new byte[layout.description.length];
+        ((ByteBuffer) data.duplicate().position(HEADER)).get(description);
+        if (!Arrays.equals(description, layout.description)) {
+            throw error("table store %s is for another configuration",
+                        file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update((ByteBuffer) data.duplicate().limit(layout.length));
+        if (data.getInt(layout.length) != (int) crc.getValue()) {
+            throw error("corrupt table store %s", file);
+        }
+        return new TableStore(config, layout, data);
+    }
+
+    /** Compile every rotor of CONFIG and durably replace FILE with a
+     *  store of their tables. */
+    static void write(Configuration config, Path file) {
+        config.library().compileAll();
+        Layout layout = new Layout(config);
+        ByteBuffer data = ByteBuffer.allocate(layout.length + 4);
+        data.putInt(MAGIC).putInt(VERSION)
+            .putInt(layout.description.length).putInt(layout.size)
+            .putInt(layout.rotors).putInt(layout.positioned ? 1 : 0)
+            .put(layout.description);
+        int size = layout.size;
+        List<RotorDefinition> defs = config.library().definitions();
+        for (int r = 0; r < layout.rotors; r += 1) {
+            Permutation perm = defs.get(r).permutation();
+            int at = layout.tables(r);
+            for (int p = 0; p < size; p += 1) {
+                put(data, layout.width, at, p, perm.permute(p));
+                put(data, layout.width, at, size + p, perm.invert(p));
+            }
+            if (layout.positioned) {
+                Rotor rotor = new Rotor(defs.get(r).name(), perm);
+                for (int s = 0; s < size; s += 1) {
+                    rotor.set(s);
+                    for (int p = 0; p < size; p += 1) {
+                        int k = s * size + p;
+                        put(data, layout.width, at, 2 * size + k,
+                            rotor.convertForward(p));
+                        put(data, layout.width, at, 2 * size + size * size
+                            + k, rotor.convertBackward(p));
+                    }
+                }
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), 0, layout.length);
+        data.putInt(layout.length, (int) crc.getValue());
+
+        try {
+            DurableFile.write(file, data.array());
+        } catch (IOException excp) {
+            throw error("could not write table store %s", file);
+        }
+    }
+
+    /** Store V as entry I of the table at byte AT of DATA, whose entries
+     *  are WIDTH bytes. */
+    private static void put(ByteBuffer data, int width, int at, int i,
+                            int v) {
+        switch (width) {
+        case 1:
+            data.put(at + i, (byte) v);
+            break;
+        case 2:
+            data.putShort(at + 2 * i, (short) v);
+            break;
+        default:
+            data.putInt(at + 4 * i, v);
+            break;
+        }
+    }
+
+    /** A store for CONFIG laid out as LAYOUT in DATA. */
+    private TableStore(Configuration config, Layout layout, ByteBuffer data) {
+        _config = config;
+        _layout = layout;
+        _data = data;
+    }
+
+    /** Have every rotor of my configuration use my tables, not tables of
+     *  its own. */
+    void install() {
+        Alphabet alphabet = _config.alphabet();
+        int size = _layout.size, width = _layout.width;
+        List<RotorDefinition> defs = _config.library().definitions();
+        for (int r = 0; r < _layout.rotors; r += 1) {
+            int at = _layout.tables(r);
+            Permutation perm = new Permutation(alphabet,
+                IndexTable.view(_data, at, size, size),
+                IndexTable.view(_data, at + size * width, size, size));
+            IndexTable forwardAt = null, backwardAt = null;
+            if (_layout.positioned) {
+                int square = size * size;
+                forwardAt = IndexTable.view(_data, at + 2 * size * width,
+                                            size, square);
+                backwardAt = IndexTable.view(_data, at + (2 * size + square)
+                                             * width, size, square);
+            }
+            defs.get(r).adopt(perm, forwardAt, backwardAt);
+        }
+    }
+
+    /** Return true iff I hold tables of every rotor at every setting. */
+    boolean positioned() {
+        return _layout.positioned;
+    }
+
+    /** Return the size of my file in bytes. */
+    int length() {
+        return _layout.length + 4;
+    }
+
+    /** Where things are in the store of a configuration. */
+    private static class Layout {
+
+        /** The layout of the store for CONFIG. */
+        Layout(Configuration config) {
+            Alphabet alphabet = config.alphabet();
+            List<RotorDefinition> defs = config.library().definitions();
+            StringBuilder text = new StringBuilder();
+            for (int k = 0; k < alphabet.size(); k += 1) {
+                text.appendCodePoint(alphabet.toCodePoint(k));
+            }
+            text.append('\n');
+            for (RotorDefinition def : defs) {
+                text.append(def.name()).append(' ').append(def.type())
+                    .append(' ')
+                    .append(String.join(" ", def.cycles().trim()
+                                        .split("\\s+")))
+                    .append('\n');
+            }
+            description = text.toString().getBytes(StandardCharsets.UTF_8);
+            size = alphabet.size();
+            rotors = defs.size();
+            positioned = size <= POSITIONED_LIMIT;
+            width = IndexTable.width(size);
+            long start = (HEADER + description.length + 7) & ~7L;
+            long per = (long) width * size
+                * (positioned ? 2L + 2L * size : 2L);
+            long total = start + per * rotors;
+            if (total + 4 > Integer.MAX_VALUE) {
+                throw error("configuration too large for a table store");
+            }
+            _start = (int) start;
+            _perRotor = (int) per;
+            length = (int) total;
+        }
+
+        /** Return the position of the tables of rotor R. */
+        int tables(int r) {
+            return _start + r * _perRotor;
+        }
+
+        /** The description of the configuration, in UTF-8. */
+        final byte[] description;
+
+        /** Alphabet size. */
+        final int size;
+
+        /** Number of rotors. */
+        final int rotors;
+
+        /** True iff there are tables by setting. */
+        final boolean positioned;
+
+        /** Bytes per table entry. */
+        final int width;
+
+        /** Length of everything before the checksum. */
+        final int length;
+
+        /** Position of the first rotor's tables. */
+        private final int _start;
+
+        /** Bytes of tables per rotor. */
+        private final int _perRotor;
+    }
+
+    /** Largest alphabet for which tables by setting are stored. */
+    static final int POSITIONED_LIMIT = IndexTable.BYTE_LIMIT;
+
+    /** Identifies table stores ("ENTS"). */
+    private static final int MAGIC = 0x454e5453;
+
+    /** Version of the layout. */
+    private static final int VERSION = 1;
+
+    /** Length of the fixed part of the header. */
+    private static final int HEADER = 24;
+
+    /** Configuration whose rotors I hold. */
+    private final Configuration _config;
+
+    /** Where things are in _data. */
+    private final Layout _layout;
+
+    /** Contents of my file. */
+    private final ByteBuffer _data;
+}
@@ -0,0 +1,131 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the TableStore class and the
+ *  IndexTable views it uses.
+ *  @author James (Dayuan) Tang
+ */
+public class TableStoreTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Return a random message of N letters. */
+    private static String message(int n) {
+        Random random = new Random(n);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            result.append((char) ('A' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void checkViews() {
+        ByteBuffer data = ByteBuffer.allocate(16);
+        data.put(1, (byte) 200).putShort(4, (short) 60000).putInt(8, 70000);
+        assertEquals(200, IndexTable.view(data, 1, 256, 1).get(0));
+        assertEquals(60000, IndexTable.view(data, 2, 300, 2).get(1));
+        assertEquals(70000, IndexTable.view(data, 8, 70000, 1).get(0));
+        assertEquals(1, IndexTable.width(26));
+        assertEquals(2, IndexTable.width(257));
+        assertEquals(4, IndexTable.width(1 << 17));
+        try {
+            IndexTable.view(data, 8, 300, 5);
+            fail("view outside its buffer");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            IndexTable.view(data, 0, 26, 4).set(0, 1);
+            fail("views are read-only");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void checkStoreMatchesCompiled() throws IOException {
+        Path file = Files.createTempFile("enigma", ".tables");
+        Files.delete(file);
+        try {
+            Configuration plain = Configuration.parse(NAVAL_CONFIG);
+            Configuration mapped = Configuration.parse(NAVAL_CONFIG);
+            TableStore store = TableStore.attach(mapped, file);
+            assertTrue(store.positioned());
+            assertEquals(store.length(), Files.size(file));
+            assertEquals(mapped.library().size(),
+                         mapped.library().compiled());
+            for (RotorDefinition def : mapped.library().definitions()) {
+                Permutation p = plain.library().get(def.name())
+                    .permutation();
+                assertArrayEquals(p.toArray(), def.permutation().toArray());
+            }
+
+            String msg = message(5000);
+            Machine m1 = plain.newMachine(), m2 = mapped.newMachine();
+            m1.setUp(NAVAL_SETTINGS);
+            m2.setUp(NAVAL_SETTINGS);
+            assertEquals(m1.convert(msg), m2.convert(msg));
+            assertArrayEquals(m1.positions(), m2.positions());
+
+            Configuration again = Configuration.parse(NAVAL_CONFIG);
+            long written = Files.getLastModifiedTime(file).toMillis();
+            TableStore.attach(again, file);
+            assertEquals(written, Files.getLastModifiedTime(file).toMillis());
+            Machine m3 = again.newMachine();
+            m3.setUp(NAVAL_SETTINGS);
+            m1.setUp(NAVAL_SETTINGS);
+            assertEquals(m1.convert(msg), m3.convert(msg));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void checkStoreRejected() throws IOException {
+        Path file = Files.createTempFile("enigma", ".tables");
+        try {
+            assertNull(TableStore.open(Configuration.parse(NAVAL_CONFIG),
+                                       file.resolveSibling("missing")));
+            TableStore.write(Configuration.parse(NAVAL_CONFIG), file);
+            Configuration other =
+                Configuration.parse(NAVAL_CONFIG.replace("(HIX)", "(HI) (X)"));
+            try {
+                TableStore.open(other, file);
+                fail("store for another configuration");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("another"));
+            }
+
+            byte[] data = Files.readAllBytes(file);
+            data[data.length - 10] ^= 1;
+            Files.write(file, data);
+            try {
+                TableStore.open(Configuration.parse(NAVAL_CONFIG), file);
+                fail("corrupt store");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("corrupt"));
+            }
+            Configuration config = Configuration.parse(NAVAL_CONFIG);
+            TableStore.attach(config, file);
+            assertNotNull(TableStore.open(Configuration.parse(NAVAL_CONFIG),
+                                          file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
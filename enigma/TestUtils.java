@@ -54,6 +54,26 @@ class TestUtils {
         NAVALA_MAP.put("Gamma", "FSOKANUERHMBTIYCWLQPZXVGJD");
     }
 
+    /** A configuration of the naval rotors with five slots and three
+     *  pawls, shared by tests that run whole machines. */
+    static final String NAVAL_CONFIG =
+        "A-Z 5 3\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " VI MZM (AJQDVLEOZWIYTS) (CGMNHFUX) (BPRK)\n"
+        + " VIII MZM (AFLSETWUNDHOZVICQ) (BKJ) (GXY) (MPR)\n"
+        + " Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " Gamma N (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n"
+        + " C R (AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW)\n"
+        + "     (QZ) (SX) (UY)\n";
+
+    /** A settings line for NAVAL_CONFIG. */
+    static final String NAVAL_SETTINGS = "* B BETA VI VIII III QZMV (AQ)";
+
     /** The naval rotors in the B (1) setting. */
     static final HashMap<String, String> NAVALB = new HashMap<>();
     static {
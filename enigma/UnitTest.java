@@ -11,7 +11,16 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         textui.runClasses(PermutationTest.class,
-                RotorTest.class, MachineTest.class);
+                RotorTest.class, MachineTest.class, MachinePoolTest.class,
+                CheckpointTest.class, DurableFileTest.class,
+                ConfigurationTest.class,
+                KeySpaceTest.class, ShardRunnerTest.class,
+                OutputFormatterTest.class, InputNormalizerTest.class,
+                KeystreamIndexTest.class, CycleCatalogTest.class,
+                StatsCollectorTest.class, CribScannerTest.class,
+                BlockContainerTest.class, LineReaderTest.class,
+                EngineTest.class, FuzzHarnessTest.class,
+                LoadHarnessTest.class, TableStoreTest.class);
     }
 
 }